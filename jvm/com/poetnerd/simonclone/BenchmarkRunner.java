@@ -0,0 +1,140 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/*
+ * BenchmarkRunner
+ * 
+ * A small JMH-style harness for timing the engine on a plain JVM.  Each benchmark is
+ * warmed up, then measured over several fixed-length iterations.  We report the mean
+ * time per operation with its spread across iterations, and the bytes allocated per
+ * operation as counted by the JVM for the benchmark thread (the same figure JMH's
+ * GC profiler reports as gc.alloc.rate.norm).
+ * 
+ * Usage: java com.poetnerd.simonclone.EngineBenchmarks [name-filter]
+ *   -Dbench.warmups=N      warm up iterations (default 5)
+ *   -Dbench.iterations=N   measured iterations (default 5)
+ *   -Dbench.millis=N       length of each iteration (default 1000)
+ */
+public final class BenchmarkRunner {
+	
+	/*
+	 * Benchmark
+	 * 
+	 * One thing to time.  setUp() is called once before warming up, and op() is the
+	 * operation being measured.  Whatever op() returns is folded into a sink so the
+	 * JIT can't decide the work is dead and throw it away.
+	 */
+	public static abstract class Benchmark {
+		final String name;
+		
+		protected Benchmark(String name) {
+			this.name = name;
+		}
+		
+		protected void setUp() {
+		}
+		
+		protected abstract long op();
+	}
+	
+	private static final int BATCH = 256;	// Ops between looks at the clock.
+	
+	private final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+	private final int warmups = Integer.getInteger("bench.warmups", 5);
+	private final int iterations = Integer.getInteger("bench.iterations", 5);
+	private final long iterationNanos = Long.getLong("bench.millis", 1000) * 1000000L;
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	
+	private long sink;
+	
+	public BenchmarkRunner add(Benchmark benchmark) {
+		benchmarks.add(benchmark);
+		return this;
+	}
+	
+	public void run(String filter) {
+		System.out.println(String.format(Locale.US, "%-40s %12s %10s %12s", 
+				"Benchmark", "ns/op", "error", "B/op"));
+		for (Benchmark benchmark : benchmarks) {
+			if (filter != null && benchmark.name.indexOf(filter) < 0) continue;
+			run(benchmark);
+		}
+		if (sink == 42) System.out.println();	// Keep the sink alive.
+	}
+	
+	private void run(Benchmark benchmark) {
+		benchmark.setUp();
+		for (int i = 0; i < warmups; i++) {
+			iteration(benchmark, null);
+		}
+		
+		double[] nanosPerOp = new double[iterations];
+		long[] measured = new long[2];
+		long totalOps = 0;
+		long totalBytes = 0;
+		for (int i = 0; i < iterations; i++) {
+			long ops = iteration(benchmark, measured);
+			nanosPerOp[i] = (double) measured[0] / ops;
+			totalOps += ops;
+			totalBytes += measured[1];
+		}
+		
+		double mean = 0;
+		for (double n : nanosPerOp) mean += n;
+		mean /= iterations;
+		double variance = 0;
+		for (double n : nanosPerOp) variance += (n - mean) * (n - mean);
+		double error = iterations > 1 ? Math.sqrt(variance / (iterations - 1)) : 0;
+		
+		System.out.println(String.format(Locale.US, "%-40s %12.1f %10.1f %12.1f", 
+				benchmark.name, mean, error, (double) totalBytes / totalOps));
+	}
+	
+	/* Run one iteration and return how many operations it did.  The elapsed nanoseconds 
+	 * and allocated bytes go into measured[0] and measured[1]. */
+	private long iteration(Benchmark benchmark, long[] measured) {
+		long thread = Thread.currentThread().getId();
+		long allocatedBefore = threadAllocatedBytes(thread);
+		long ops = 0;
+		long start = System.nanoTime();
+		long deadline = start + iterationNanos;
+		long acc = 0;
+		do {
+			for (int i = 0; i < BATCH; i++) {
+				acc += benchmark.op();
+			}
+			ops += BATCH;
+		} while (System.nanoTime() < deadline);
+		long elapsed = System.nanoTime() - start;
+		long allocated = threadAllocatedBytes(thread) - allocatedBefore;
+		sink += acc;
+		if (measured != null) {
+			measured[0] = elapsed;
+			measured[1] = allocated;
+		}
+		return ops;
+	}
+	
+	private long threadAllocatedBytes(long thread) {
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(thread);
+		}
+		return 0;
+	}
+}
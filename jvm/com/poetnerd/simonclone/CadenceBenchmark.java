@@ -0,0 +1,144 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * CadenceBenchmark
+ * 
+ * Runs a CadenceDrill -- a game played without a miss, the winning tone, the longest
+ * sequence in each tier of beep duration, and the razz -- and has a CadenceChecker hold
+ * every light to the original game's cadences.  It prints the checker's report, and
+ * the exit status is 1 if any light strayed, so it can stand as a regression test.
+ * 
+ * On the virtual clock the drill takes no time, and every light must land exactly, or
+ * within the tick lead of a DeviceTiming, which wakes the engine that much early:
+ * That checks the engine's own arithmetic.  On the real clock the engine runs on a
+ * ThreadScheduler, as it would on the main looper, for the minute or so the drill takes,
+ * with whatever SyntheticLoad is asked for running alongside; lights must land within
+ * the tolerance.
+ * 
+ * Usage: java com.poetnerd.simonclone.CadenceBenchmark
+ *   -Dcadence.clock=C       virtual, real or both (default virtual)
+ *   -Dcadence.load=L        cpu, gc, io, a list of them, all or none (default none)
+ *   -Dcadence.tolerance=N   ms, on the real clock (default 15)
+ *   -Dcadence.level=N       of the game played (default 1)
+ *   -Dcadence.device=T/S    a DeviceTiming's tick and sound leads, ms (default 0/0)
+ *   -Dcadence.seed=N        (default 1978)
+ */
+public final class CadenceBenchmark {
+	
+	private static final long REAL_TIMEOUT_MINUTES = 10;
+	
+	public static void main(String[] args) throws InterruptedException {
+		String clock = System.getProperty("cadence.clock", "virtual");
+		int load = SyntheticLoad.parseKinds(System.getProperty("cadence.load", "none"));
+		long tolerance = Long.getLong("cadence.tolerance", 15);
+		int level = Integer.getInteger("cadence.level", 1);
+		long seed = Long.getLong("cadence.seed", 1978);
+		String[] leads = System.getProperty("cadence.device", "0/0").split("/");
+		DeviceTiming device = new DeviceTiming("", Long.parseLong(leads[0]), Long.parseLong(leads[1]));
+		
+		boolean passed = true;
+		if (clock.equals("virtual") || clock.equals("both")) {
+			passed &= runVirtual(level, seed, load, device);
+		}
+		if (clock.equals("real") || clock.equals("both")) {
+			passed &= runReal(level, seed, load, device, tolerance);
+		}
+		System.exit(passed ? 0 : 1);
+	}
+	
+	private static boolean runVirtual(int level, long seed, int load, DeviceTiming device) {
+		VirtualScheduler scheduler = new VirtualScheduler();
+		final ArrayDeque<Runnable> posted = new ArrayDeque<Runnable>();
+		Executor executor = new Executor() {
+			public void execute(Runnable command) {
+				posted.add(command);
+			}
+		};
+		SimonEngine engine = new SimonEngine(scheduler, scheduler, new SilentAudioSink());
+		engine.setDeviceTiming(device);
+		CadenceChecker checker = new CadenceChecker(engine, device.getTickLead());
+		final boolean[] done = new boolean[1];
+		
+		SyntheticLoad synthetic = startLoad(load);
+		long start = System.nanoTime();
+		new CadenceDrill(engine, executor, checker).start(level, seed, new Runnable() {
+			public void run() {
+				done[0] = true;
+			}
+		});
+		while (!done[0]) {
+			Runnable command = posted.poll();
+			if (command != null) command.run();
+			else if (!scheduler.runNext()) break;
+		}
+		long micros = (System.nanoTime() - start) / 1000;
+		synthetic.stop();
+		
+		System.out.println("Virtual clock, device " + device + ", load " + synthetic + ": " + scheduler.uptimeMillis()
+				+ " ms of play in " + micros + " us");
+		return report(checker, done[0]);
+	}
+	
+	private static boolean runReal(final int level, final long seed, int load, DeviceTiming device, long tolerance)
+			throws InterruptedException {
+		final ThreadScheduler scheduler = new ThreadScheduler("Cadence");
+		final SimonEngine engine = new SimonEngine(scheduler, scheduler, new SilentAudioSink());
+		engine.setDeviceTiming(device);
+		final CadenceChecker checker = new CadenceChecker(engine, tolerance);
+		final CadenceDrill drill = new CadenceDrill(engine, scheduler, checker);
+		final CountDownLatch done = new CountDownLatch(1);
+		
+		SyntheticLoad synthetic = startLoad(load);
+		long start = System.nanoTime();
+		scheduler.execute(new Runnable() {
+			public void run() {
+				drill.start(level, seed, new Runnable() {
+					public void run() {
+						done.countDown();
+					}
+				});
+			}
+		});
+		boolean finished = done.await(REAL_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+		long millis = (System.nanoTime() - start) / 1000000L;
+		synthetic.stop();
+		scheduler.execute(new Runnable() {
+			public void run() {
+				engine.dispose();
+			}
+		});
+		scheduler.quit();
+		
+		System.out.println("Real clock, device " + device + ", load " + synthetic + ": " + millis + " ms");
+		return report(checker, finished);
+	}
+	
+	private static SyntheticLoad startLoad(int kinds) {
+		SyntheticLoad load = new SyntheticLoad(kinds, new File(System.getProperty("java.io.tmpdir")));
+		load.start();
+		return load;
+	}
+	
+	private static boolean report(CadenceChecker checker, boolean finished) {
+		System.out.print(checker.report());
+		if (!finished) System.out.println("The drill didn't finish.");
+		return finished && checker.isPassing();
+	}
+}
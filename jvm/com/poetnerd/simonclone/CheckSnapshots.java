@@ -0,0 +1,184 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ *
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ * CheckSnapshots
+ *
+ * Checks that every state a game passes through saves and restores exactly, and that a
+ * bad snapshot is refused without touching the game it was given to.
+ *
+ * SyntheticPlayers play every game at levels 1 to 4 on the virtual clock.  After every
+ * event and every press and release the engine is snapshot, and the snapshot restored
+ * into a second engine, which must snapshot to the same bytes.  Then every prefix of the
+ * snapshot, and copies with a game, a length, an index or a position no game could have,
+ * must each be refused with IllegalArgumentException, and leave the second engine as it
+ * was.  The exit status is the number of snapshots that failed, up to 100.
+ *
+ * Usage: java com.poetnerd.simonclone.CheckSnapshots
+ *   -Dsnapshot.games=N    games per game and level (default 20)
+ *   -Dsnapshot.seed=N     (default 1978)
+ *   -Dplayer.span=N and the rest, as SyntheticPlayer describes
+ */
+public final class CheckSnapshots {
+
+	private static final int LEVELS = 4;
+
+	/* Where the game, the flags and the ints checkSnapshot() looks at lie. */
+	private static final int GAME_AT = 2;
+	private static final int FLAGS_AT = 3;
+	private static final int TOTAL_LENGTH_AT = 5;
+	private static final int SEQUENCE_LENGTH_AT = 9;
+	private static final int SEQUENCE_INDEX_AT = 13;
+	private static final int PLAYER_POSITION_AT = 17;
+	private static final int LONGEST_LENGTH_AT = 37;
+	private static final int[] CHECKED_INTS = {
+		TOTAL_LENGTH_AT, SEQUENCE_LENGTH_AT, SEQUENCE_INDEX_AT, PLAYER_POSITION_AT, LONGEST_LENGTH_AT
+	};
+
+	private int snapshots;
+	private int failed;
+
+	public static void main(String[] args) {
+		int games = Integer.getInteger("snapshot.games", 20);
+		long seed = Long.getLong("snapshot.seed", 1978);
+		SyntheticPlayer player = SyntheticPlayer.fromProperties();
+
+		System.out.println("Player: " + player);
+		CheckSnapshots check = new CheckSnapshots();
+		Random random = new Random(seed);
+		long start = System.nanoTime();
+		for (int game = 1; game <= ScoreBook.GAMES; game++) {
+			for (int level = 1; level <= LEVELS; level++) {
+				VirtualScheduler scheduler = new VirtualScheduler();
+				SimonEngine engine = new SimonEngine(scheduler, scheduler, new SilentAudioSink());
+				engine.setGame(game);
+				engine.setLevel(level);
+				String where = "game " + game + " level " + level;
+				check.check(engine, where + " before play");
+				for (int i = 0; i < games; i++) {
+					check.playGame(engine, scheduler, player, random, where + " play " + (i + 1));
+				}
+			}
+		}
+		long millis = (System.nanoTime() - start) / 1000000L;
+		System.out.println((check.snapshots - check.failed) + " of " + check.snapshots
+				+ " snapshots restored the same and refused every bad copy (" + millis + " ms)");
+		System.exit(Math.min(check.failed, 100));
+	}
+
+	private void playGame(SimonEngine engine, VirtualScheduler scheduler, SyntheticPlayer player, Random random, String where) {
+		engine.gameStart(random.nextLong());
+		check(engine, where);
+		while (!engine.isFinished()) {
+			if (!engine.isListening()) {
+				if (!scheduler.runNext()) break;
+				check(engine, where);
+				continue;
+			}
+			scheduler.advanceBy(player.reactionMillis(random));
+			check(engine, where);
+			if (!engine.isListening()) continue;		// Too slow:  Simon moved on without us.
+			int button = player.choose(engine, random);
+			engine.pressButton(button);
+			check(engine, where);
+			scheduler.advanceBy(player.hold);
+			engine.releaseButton(button);
+			check(engine, where);
+		}
+		while (scheduler.runNext()) {
+			check(engine, where);	// Through the win or the razz.
+		}
+	}
+
+	/* Snapshot the engine as it is now, and check that snapshot every way we can. */
+	private void check(SimonEngine engine, String where) {
+		snapshots++;
+		String problem = problemWith(engine.snapshot());
+		if (problem != null) {
+			if (failed++ < 10) System.out.println(where + ", snapshot " + snapshots + ": " + problem);
+		}
+	}
+
+	/* What's wrong with how this snapshot restores, or null if nothing is. */
+	private static String problemWith(byte[] snapshot) {
+		VirtualScheduler scheduler = new VirtualScheduler();
+		SimonEngine restored = new SimonEngine(scheduler, scheduler, new SilentAudioSink());
+		try {
+			if (restored.restoreSnapshot(snapshot, 0) != snapshot.length) return "restore didn't read the whole snapshot";
+		} catch (IllegalArgumentException e) {
+			return "refused: " + e.getMessage();
+		}
+		if (!Arrays.equals(restored.snapshot(), snapshot)) return "restored game snapshots differently";
+
+		for (int length = 0; length < snapshot.length; length++) {
+			if (!refused(restored, Arrays.copyOf(snapshot, length))) return "took the first " + length + " bytes";
+		}
+		byte[] bad = snapshot.clone();
+		for (int game : new int[] {0, 4, -1}) {
+			bad[GAME_AT] = (byte) game;
+			if (!refused(restored, bad)) return "took game " + game;
+		}
+		for (int at : CHECKED_INTS) {
+			bad = snapshot.clone();
+			putInt(bad, at, -1);
+			if (!refused(restored, bad)) return "took -1 at byte " + at;
+		}
+		int totalLength = getInt(snapshot, TOTAL_LENGTH_AT);
+		int sequenceLength = getInt(snapshot, SEQUENCE_LENGTH_AT);
+		if (totalLength < Integer.MAX_VALUE) {
+			bad = snapshot.clone();
+			putInt(bad, SEQUENCE_LENGTH_AT, totalLength + 1);
+			if (!refused(restored, bad)) return "took a sequence longer than the game";
+		}
+		boolean generated = (snapshot[FLAGS_AT] & SimonEngine.SNAPSHOT_SEQUENCE_GENERATED) != 0;
+		int stored = generated ? -1 : PackedSequence.lengthAt(snapshot, SimonEngine.SNAPSHOT_FIXED_SIZE);
+		if (stored >= 0 && stored < totalLength) {
+			bad = snapshot.clone();
+			putInt(bad, SEQUENCE_LENGTH_AT, stored + 1);
+			if (!refused(restored, bad)) return "took a sequence length past the " + stored + " steps stored";
+		}
+		bad = snapshot.clone();
+		putInt(bad, SEQUENCE_INDEX_AT, Math.max(sequenceLength, getInt(snapshot, LONGEST_LENGTH_AT)) + 1);
+		if (!refused(restored, bad)) return "took an index past the end";
+		bad = snapshot.clone();
+		putInt(bad, PLAYER_POSITION_AT, sequenceLength + 2);
+		if (!refused(restored, bad)) return "took a player position past the end";
+
+		if (!Arrays.equals(restored.snapshot(), snapshot)) return "a refused snapshot changed the game";
+		return null;
+	}
+
+	private static boolean refused(SimonEngine engine, byte[] snapshot) {
+		try {
+			engine.restoreSnapshot(snapshot, 0);
+			return false;
+		} catch (IllegalArgumentException e) {
+			return true;
+		}
+	}
+
+	private static void putInt(byte[] out, int offset, int value) {
+		out[offset] = (byte) (value >>> 24);
+		out[offset + 1] = (byte) (value >>> 16);
+		out[offset + 2] = (byte) (value >>> 8);
+		out[offset + 3] = (byte) value;
+	}
+
+	private static int getInt(byte[] in, int offset) {
+		return (in[offset] << 24) | ((in[offset + 1] & 0xFF) << 16)
+				| ((in[offset + 2] & 0xFF) << 8) | (in[offset + 3] & 0xFF);
+	}
+}
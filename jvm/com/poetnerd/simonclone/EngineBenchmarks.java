@@ -0,0 +1,639 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+import com.poetnerd.simonclone.BenchmarkRunner.Benchmark;
+
+/*
+ * EngineBenchmarks
+ * 
+ * Timings for the hot paths of the game engine, run on a VirtualScheduler so that
+ * nothing waits on real time.  See BenchmarkRunner for the options.
+ */
+public final class EngineBenchmarks {
+	
+	private static final String SEQUENCE_31 = "0123012301230123012301230123012";
+	private static final PackedSequence PACKED_31 = PackedSequence.fromDigits(SEQUENCE_31);
+	
+	private static final List<ScoreStore> stores = new ArrayList<ScoreStore>();
+	
+	private static final int LIVE_TIMERS = 100000;
+	private static final int TIMEOUT_MILLIS = 3000;
+	private static final int OPS_PER_MILLI = 64;
+	
+	public static void main(String[] args) {
+		BenchmarkRunner runner = new BenchmarkRunner();
+		
+		/* One update() tick: playNext() lighting or darkening a button while playing 
+		 * back a 30 step sequence. */
+		runner.add(new Benchmark("tick.playback") {
+			VirtualScheduler scheduler;
+			SimonEngine engine;
+			
+			protected void setUp() {
+				scheduler = new VirtualScheduler();
+				engine = newEngine(scheduler, 1, 4);
+				engine.setCurrent(PackedSequence.fromDigits(SEQUENCE_31.substring(0, 30)));
+				engine.playCurrent();
+			}
+			
+			protected long op() {
+				if (engine.isListening()) engine.playCurrent();
+				else scheduler.runNext();
+				return scheduler.uptimeMillis();
+			}
+		});
+		
+		/* A whole round: Play back an 8 step sequence, then press and release every
+		 * button of it, ending in the pause before the next round. */
+		runner.add(new Benchmark("round.listening") {
+			VirtualScheduler scheduler;
+			SimonEngine engine;
+			
+			protected void setUp() {
+				scheduler = new VirtualScheduler();
+				engine = newEngine(scheduler, 1, 4);
+			}
+			
+			final PackedSequence round = PackedSequence.fromDigits("01230123");
+			
+			protected long op() {
+				engine.setCurrent(round);
+				engine.playCurrent();
+				while (!engine.isListening()) scheduler.runNext();
+				while (engine.isListening()) {
+					int button = engine.getExpectedButton();
+					engine.pressButton(button);
+					engine.releaseButton(button);
+				}
+				return engine.getSequenceLength();
+			}
+		});
+		
+		/* Generating a step of Simon's sequence in game 3 with two of the four colors
+		 * eliminated. */
+		runner.add(new Benchmark("colorAt.game3.twoEliminated") {
+			final long key = SequenceGenerator.roundKey(1978, 2);
+			int index;
+			
+			protected long op() {
+				return SequenceGenerator.colorAt(key, 0x5, index++);	// Green and yellow left.
+			}
+		});
+		
+		/* Lighting and darkening a button with three listeners and a frame listener
+		 * watching, then ending the frame.  Dispatch should allocate nothing. */
+		runner.add(new Benchmark("lights.dispatch") {
+			VirtualScheduler scheduler;
+			SimonEngine engine;
+			int button;
+			int changes;
+			
+			protected void setUp() {
+				scheduler = new VirtualScheduler();
+				engine = newEngine(scheduler, 1, 4);
+				for (int i = 0; i < 3; i++) {
+					engine.addListener(new SimonEngine.Listener() {
+						public void buttonStateChanged(int index) {
+							changes++;
+						}
+						
+						public void multipleButtonStateChanged() {
+						}
+					});
+				}
+				engine.addFrameListener(new SimonEngine.FrameListener() {
+					public void buttonsChanged(int changedMask) {
+						changes++;
+					}
+				});
+			}
+			
+			protected long op() {
+				button = (button + 1) & 3;
+				engine.showButtonPress(button);
+				engine.showButtonRelease(button);
+				scheduler.advanceBy(SimonEngine.FRAME_MILLIS);
+				return changes;
+			}
+		});
+		
+		/* The same with EngineMetrics attached, timing the dispatch. */
+		runner.add(new Benchmark("lights.dispatch.metered") {
+			VirtualScheduler scheduler;
+			SimonEngine engine;
+			int button;
+			int changes;
+			
+			protected void setUp() {
+				scheduler = new VirtualScheduler();
+				engine = newEngine(scheduler, 1, 4);
+				engine.addListener(new SimonEngine.Listener() {
+					public void buttonStateChanged(int index) {
+						changes++;
+					}
+					
+					public void multipleButtonStateChanged() {
+					}
+				});
+				engine.addProbe(new EngineMetrics());
+			}
+			
+			protected long op() {
+				button = (button + 1) & 3;
+				engine.showButtonPress(button);
+				engine.showButtonRelease(button);
+				return changes;
+			}
+		});
+		
+		/* Recording into a metrics histogram, as any thread may. */
+		runner.add(new Benchmark("metrics.record") {
+			final Metrics.Distribution distribution = Metrics.distribution("bench.record");
+			long value;
+			
+			protected long op() {
+				distribution.record(value++ & 4095);
+				return value;
+			}
+		});
+		
+		/* maintainLongest() as called on every correct press, once the longest is
+		 * already as long as the current sequence. */
+		runner.add(new Benchmark("maintainLongest.steady") {
+			SimonEngine engine;
+			
+			protected void setUp() {
+				engine = newEngine(new VirtualScheduler(), 1, 4);
+				engine.setCurrent(PACKED_31);
+				engine.maintainLongest();
+			}
+			
+			protected long op() {
+				engine.maintainLongest();
+				return engine.getSequenceLength();
+			}
+		});
+		
+		/* maintainLongest() copying a 31 step sequence, after clearing the longest. */
+		runner.add(new Benchmark("maintainLongest.copy") {
+			SimonEngine engine;
+			
+			protected void setUp() {
+				engine = newEngine(new VirtualScheduler(), 1, 4);
+				engine.setCurrent(PACKED_31);
+			}
+			
+			protected long op() {
+				engine.clearLongest();
+				engine.maintainLongest();
+				return engine.getSequenceLength();
+			}
+		});
+		
+		/* The binary sequence codec used by the engine's snapshot, into and out of 
+		 * buffers that are reused. */
+		runner.add(new Benchmark("codec.sequenceEncode") {
+			final byte[] buffer = new byte[PACKED_31.encodedSize()];
+			
+			protected long op() {
+				return PACKED_31.encode(buffer, 0);
+			}
+		});
+		
+		runner.add(new Benchmark("codec.sequenceDecode") {
+			final byte[] encoded = PACKED_31.toBytes();
+			final PackedSequence decoded = new PackedSequence();
+			
+			protected long op() {
+				decoded.decode(encoded, 0);
+				return decoded.get(30);
+			}
+		});
+		
+		/* The same with a new array and sequence each time, as the longest sequence
+		 * comes out of preferences. */
+		runner.add(new Benchmark("codec.sequenceToBytes") {
+			protected long op() {
+				return PACKED_31.toBytes().length;
+			}
+		});
+		
+		runner.add(new Benchmark("codec.sequenceFromBytes") {
+			final byte[] encoded = PACKED_31.toBytes();
+			
+			protected long op() {
+				return PackedSequence.fromBytes(encoded).get(30);
+			}
+		});
+		
+		/* saveState() and restoreState() of a game in progress, into a plain map.  The
+		 * map holds one snapshot, made anew by each save. */
+		runner.add(new Benchmark("state.save") {
+			SimonEngine engine;
+			MapStateMap map = new MapStateMap();
+			
+			protected void setUp() {
+				engine = snapshotEngine();
+			}
+			
+			protected long op() {
+				engine.saveState(map);
+				return map.size();
+			}
+		});
+		
+		runner.add(new Benchmark("state.restore") {
+			SimonEngine engine;
+			MapStateMap map = new MapStateMap();
+			
+			protected void setUp() {
+				engine = snapshotEngine();
+				engine.saveState(map);
+			}
+			
+			protected long op() {
+				engine.restoreState(map);
+				return engine.getSequenceLength();
+			}
+		});
+		
+		/* The snapshot alone, into and out of a buffer that is reused. */
+		runner.add(new Benchmark("state.snapshotWrite") {
+			SimonEngine engine;
+			byte[] buffer;
+			
+			protected void setUp() {
+				engine = snapshotEngine();
+				buffer = new byte[engine.snapshotSize()];
+			}
+			
+			protected long op() {
+				return engine.writeSnapshot(buffer, 0);
+			}
+		});
+		
+		runner.add(new Benchmark("state.snapshotRestore") {
+			SimonEngine engine;
+			byte[] buffer;
+			
+			protected void setUp() {
+				engine = snapshotEngine();
+				buffer = engine.snapshot();
+			}
+			
+			protected long op() {
+				return engine.restoreSnapshot(buffer, 0);
+			}
+		});
+		
+		/* Folding a press into the player's stats, and reading a percentile back out.
+		 * Neither should allocate, or take longer as the stats fill up. */
+		runner.add(new Benchmark("stats.press") {
+			final PlayerStats stats = new PlayerStats();
+			int press;
+			
+			protected long op() {
+				press++;
+				stats.pressed(press & 31, press & 3, (press >>> 5) & 3, press & 1023);
+				return stats.getReactionTrend();
+			}
+		});
+		
+		runner.add(new Benchmark("stats.percentile") {
+			final PlayerStats stats = playedBook().getStats();
+			int position;
+			
+			protected long op() {
+				position = (position + 1) & 31;
+				return stats.getReactionPercentile(position, 90);
+			}
+		});
+		
+		/* What onPause() costs the main thread to save the scores:  Write behind, as the
+		 * app does it, and written through to disk before returning, as the old
+		 * SharedPreferences commit() did.  Then reading them back, as a fresh launch does. */
+		runner.add(new Benchmark("scores.pause.writeBehind") {
+			ScoreStore store;
+			ScoreBook book;
+			SimonEngine engine;
+			
+			protected void setUp() {
+				store = newStore();
+				engine = newEngine(new VirtualScheduler(), 1, 4);
+				engine.setLongest(PACKED_31);
+				book = playedBook();
+			}
+			
+			protected long op() {
+				book.setSettings(engine.getGame(), engine.getLevel(), engine.getLongest());
+				store.saveNow(book);
+				return book.getGame();
+			}
+		});
+		
+		runner.add(new Benchmark("scores.pause.writeThrough") {
+			ScoreStore store;
+			ScoreBook book;
+			SimonEngine engine;
+			int level;
+			
+			protected void setUp() {
+				store = newStore();
+				engine = newEngine(new VirtualScheduler(), 1, 4);
+				engine.setLongest(PACKED_31);
+				book = playedBook();
+			}
+			
+			protected long op() {
+				level = level % 4 + 1;		// Something new to write each time.
+				book.setSettings(engine.getGame(), level, engine.getLongest());
+				store.saveNow(book);
+				try {
+					store.flush();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+				return book.getLevel();
+			}
+		});
+		
+		runner.add(new Benchmark("scores.resume") {
+			ScoreStore store;
+			
+			protected void setUp() {
+				store = newStore();
+				store.saveNow(playedBook());
+				try {
+					store.flush();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			
+			protected long op() {
+				return store.load().getLevel();
+			}
+		});
+		
+		/* Timers for LIVE_TIMERS games at once.  Each op is a press or release moving one
+		 * game's timeout TIMEOUT_MILLIS on; every OPS_PER_MILLI ops a millisecond passes,
+		 * and the timeouts that come due are set again.  First the TimerWheel... */
+		runner.add(new Benchmark("timers.wheel.reschedule") {
+			VirtualScheduler clock;
+			TimerWheel wheel;
+			TimerWheel.Timer[] timers;
+			int next;
+			
+			protected void setUp() {
+				clock = new VirtualScheduler();
+				wheel = new TimerWheel(clock);
+				timers = new TimerWheel.Timer[LIVE_TIMERS];
+				Random random = new Random(1978);
+				Scheduler.Target again = new Scheduler.Target() {
+					public void onEvent(int what) {
+						wheel.schedule(timers[what], TIMEOUT_MILLIS);
+					}
+				};
+				for (int i = 0; i < LIVE_TIMERS; i++) {
+					timers[i] = new TimerWheel.Timer(again, i);
+					wheel.schedule(timers[i], random.nextInt(TIMEOUT_MILLIS));
+				}
+			}
+			
+			protected long op() {
+				wheel.schedule(timers[next], TIMEOUT_MILLIS);
+				if (++next == LIVE_TIMERS) next = 0;
+				if ((next & (OPS_PER_MILLI - 1)) == 0) {
+					clock.advanceBy(1);
+					wheel.advance();
+				}
+				return wheel.size();
+			}
+		});
+		
+		/* ...then a PriorityQueue, taking the timer out and putting it back as a Handler's
+		 * removeMessages() and sendMessageDelayed() do... */
+		runner.add(new Benchmark("timers.priorityQueue.reschedule") {
+			PriorityQueue<QueuedTimer> queue;
+			QueuedTimer[] timers;
+			long now;
+			int next;
+			
+			protected void setUp() {
+				queue = new PriorityQueue<QueuedTimer>(LIVE_TIMERS);
+				timers = new QueuedTimer[LIVE_TIMERS];
+				Random random = new Random(1978);
+				for (int i = 0; i < LIVE_TIMERS; i++) {
+					timers[i] = new QueuedTimer(random.nextInt(TIMEOUT_MILLIS));
+					queue.add(timers[i]);
+				}
+			}
+			
+			protected long op() {
+				QueuedTimer timer = timers[next];
+				queue.remove(timer);
+				timer.due = now + TIMEOUT_MILLIS;
+				queue.add(timer);
+				if (++next == LIVE_TIMERS) next = 0;
+				if ((next & (OPS_PER_MILLI - 1)) == 0) {
+					now++;
+					while (queue.peek().due <= now) {
+						timer = queue.poll();
+						timer.due = now + TIMEOUT_MILLIS;
+						queue.add(timer);
+					}
+				}
+				return queue.size();
+			}
+		});
+		
+		/* ...a PriorityQueue where a moved timer leaves its old entry behind, marked stale,
+		 * to be thrown away when it comes due... */
+		runner.add(new Benchmark("timers.priorityQueue.lazyCancel") {
+			PriorityQueue<QueuedTimer> queue;
+			QueuedTimer[] timers;
+			long now;
+			int next;
+			
+			protected void setUp() {
+				queue = new PriorityQueue<QueuedTimer>(LIVE_TIMERS);
+				timers = new QueuedTimer[LIVE_TIMERS];
+				Random random = new Random(1978);
+				for (int i = 0; i < LIVE_TIMERS; i++) {
+					timers[i] = new QueuedTimer(random.nextInt(TIMEOUT_MILLIS));
+					queue.add(timers[i]);
+				}
+			}
+			
+			protected long op() {
+				timers[next].stale = true;
+				timers[next] = new QueuedTimer(now + TIMEOUT_MILLIS);
+				queue.add(timers[next]);
+				if (++next == LIVE_TIMERS) next = 0;
+				if ((next & (OPS_PER_MILLI - 1)) == 0) {
+					now++;
+					while (queue.peek().due <= now) {
+						QueuedTimer timer = queue.poll();
+						if (timer.stale) continue;
+						timer.due = now + TIMEOUT_MILLIS;
+						queue.add(timer);
+					}
+				}
+				return queue.size();
+			}
+		});
+		
+		/* ...and a DelayQueue, the same way as the first. */
+		runner.add(new Benchmark("timers.delayQueue.reschedule") {
+			final long[] now = new long[1];
+			DelayQueue<DelayedTimer> queue;
+			DelayedTimer[] timers;
+			int next;
+			
+			protected void setUp() {
+				queue = new DelayQueue<DelayedTimer>();
+				timers = new DelayedTimer[LIVE_TIMERS];
+				Random random = new Random(1978);
+				for (int i = 0; i < LIVE_TIMERS; i++) {
+					timers[i] = new DelayedTimer(now, random.nextInt(TIMEOUT_MILLIS));
+					queue.add(timers[i]);
+				}
+			}
+			
+			protected long op() {
+				DelayedTimer timer = timers[next];
+				queue.remove(timer);
+				timer.due = now[0] + TIMEOUT_MILLIS;
+				queue.add(timer);
+				if (++next == LIVE_TIMERS) next = 0;
+				if ((next & (OPS_PER_MILLI - 1)) == 0) {
+					now[0]++;
+					while ((timer = queue.poll()) != null) {
+						timer.due = now[0] + TIMEOUT_MILLIS;
+						queue.add(timer);
+					}
+				}
+				return queue.size();
+			}
+		});
+		
+		runner.run(args.length > 0 ? args[0] : null);
+		for (ScoreStore store : stores) {
+			store.close();		// Let their writers go, so we can exit.
+		}
+	}
+	
+	static SimonEngine newEngine(VirtualScheduler scheduler, int game, int level) {
+		SimonEngine engine = new SimonEngine(scheduler, scheduler, new SilentAudioSink());
+		engine.setRandom(new Random(1978));
+		engine.setGame(game);
+		engine.setLevel(level);
+		return engine;
+	}
+	
+	/* A game to save and restore:  Level 4, a sequence of 20, and the longest at 31. */
+	static SimonEngine snapshotEngine() {
+		SimonEngine engine = newEngine(new VirtualScheduler(), 1, 4);
+		engine.setLongest(PACKED_31);
+		engine.setCurrent(PackedSequence.fromDigits(SEQUENCE_31.substring(0, 20)));
+		return engine;
+	}
+	
+	/* A book with every game played at every level. */
+	static ScoreBook playedBook() {
+		ScoreBook book = new ScoreBook();
+		book.setSettings(1, 4, PACKED_31);
+		for (int game = 1; game <= ScoreBook.GAMES; game++) {
+			for (int level = 1; level <= ScoreBook.LEVELS; level++) {
+				book.record(game, level, PACKED_31, true);
+			}
+		}
+		Random random = new Random(1978);
+		for (int press = 0; press < 10000; press++) {
+			int color = random.nextInt(4);
+			book.getStats().pressed(press % 31, color, random.nextInt(20) == 0 ? color ^ 1 : color,
+					300 + random.nextInt(700));
+		}
+		return book;
+	}
+	
+	/* A store in a scratch file that goes when we do. */
+	static ScoreStore newStore() {
+		try {
+			File file = File.createTempFile("scores", null);
+			file.deleteOnExit();
+			new File(file.getPath() + ".new").deleteOnExit();
+			ScoreStore store = new ScoreStore(file);
+			stores.add(store);
+			return store;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/* A timer for the heap baselines, due on a virtual millisecond clock. */
+	static final class QueuedTimer implements Comparable<QueuedTimer> {
+		long due;
+		boolean stale;
+		
+		QueuedTimer(long due) {
+			this.due = due;
+		}
+		
+		public int compareTo(QueuedTimer other) {
+			return due < other.due ? -1 : due > other.due ? 1 : 0;
+		}
+	}
+	
+	/* The same for a DelayQueue, which asks each timer how long it has to go. */
+	static final class DelayedTimer implements Delayed {
+		final long[] now;
+		long due;
+		
+		DelayedTimer(long[] now, long due) {
+			this.now = now;
+			this.due = due;
+		}
+		
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(due - now[0], TimeUnit.MILLISECONDS);
+		}
+		
+		public int compareTo(Delayed other) {
+			long otherDue = ((DelayedTimer) other).due;
+			return due < otherDue ? -1 : due > otherDue ? 1 : 0;
+		}
+	}
+	
+	/* A StateMap on a HashMap, standing in for the Bundle. */
+	static final class MapStateMap implements StateMap {
+		private final Map<String, Object> map = new HashMap<String, Object>();
+		
+		int size() { return map.size(); }
+		
+		public void putByteArray(String key, byte[] value) { map.put(key, value); }
+		public byte[] getByteArray(String key) { return (byte[]) map.get(key); }
+	}
+}
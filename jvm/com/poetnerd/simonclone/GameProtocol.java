@@ -0,0 +1,75 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * GameProtocol
+ * 
+ * What GameServer and its clients say to each other over TCP.  Every message is two
+ * bytes, an opcode and an argument, so neither side ever has to wait for a length.
+ * 
+ * From the client:
+ *   START     game and level packed as game * 16 + level.  Any game in play is dropped.
+ *             The server picks the seed, so a client can't know the colors ahead.
+ *   PRESS     a button, 0 to 3.
+ *   RELEASE   a button.
+ * 
+ * From the server, as the game does them:
+ *   LIGHT     a button lit, or dark with DARK added.
+ *   SOUND     a sound started, AudioSink's numbering.
+ *   PLAYING   Simon is playing the sequence back; argument, its length.
+ *   LISTENING Simon is waiting for the player.
+ *   OVER      the game is over:  argument 1 if won, 0 if lost.
+ *   BYE       the server is dropping the connection:  argument, one of the reasons.
+ * 
+ * The sequence itself never goes over the wire.  A client learns it only by watching
+ * the lights, as a player does.
+ */
+final class GameProtocol {
+	
+	static final int MESSAGE_BYTES = 2;
+	
+	/* Client to server. */
+	static final int START = 1;
+	static final int PRESS = 2;
+	static final int RELEASE = 3;
+	
+	/* Server to client. */
+	static final int LIGHT = 16;
+	static final int SOUND = 17;
+	static final int PLAYING = 18;
+	static final int LISTENING = 19;
+	static final int OVER = 20;
+	static final int BYE = 21;
+	
+	static final int DARK = 0x80;
+	
+	/* Reasons for BYE. */
+	static final int BAD_MESSAGE = 1;
+	static final int TOO_SLOW = 2;		// Not reading what we send.
+	static final int SHUTDOWN = 3;
+	
+	static int startArgument(int game, int level) {
+		return game << 4 | level;
+	}
+	
+	static int gameOf(int startArgument) {
+		return startArgument >>> 4;
+	}
+	
+	static int levelOf(int startArgument) {
+		return startArgument & 15;
+	}
+	
+	private GameProtocol() {
+	}
+}
@@ -0,0 +1,423 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+ * GameServer
+ * 
+ * Simon as a service:  The rules run here, so a client can only press and release buttons
+ * and watch what happens, as a player would.  See GameProtocol for what goes over the wire.
+ * 
+ * Each connection is a Session:  a SimonEngine with a silent AudioSink, small fixed read and
+ * write buffers, and a few pending deadlines; a couple of kilobytes in all.  The endless level
+ * isn't offered, so no session's sequence grows without bound, and a client that doesn't read
+ * what we send is dropped once its write buffer is full rather than have it grow.
+ * 
+ * Sessions are dealt out across a few Loops, one thread each.  A Loop is a Selector for its
+ * sessions' sockets and a Clock and a TimerWheel for all their engines:  The playback ticks
+ * and the listening timeouts of every session on the loop are timers on the one wheel, and
+ * the loop sleeps in select() until the next is due or a socket is ready.  A session is only
+ * ever touched by its own loop's thread, so nothing in it is locked.
+ * 
+ * Sessions, games, messages and deadlines are counted in Metrics, when they're enabled;
+ * main() enables them and dumps them every ten seconds.
+ * 
+ * Usage: java com.poetnerd.simonclone.GameServer
+ *   -Dserver.port=N    (default 7978)
+ *   -Dserver.loops=N   (default: one per core)
+ */
+public final class GameServer {
+	
+	static final int DEFAULT_PORT = 7978;
+	static final int MAX_LEVEL = 4;
+	
+	private static final int READ_BYTES = 16;		// A client has no call to send more than a few at once.
+	private static final int WRITE_BYTES = 512;		// A long sequence played back, and then some.
+	private static final int BACKLOG = 4096;
+	
+	private final Metrics.Counter sessionCount = Metrics.counter("server.sessions");	// Up and down, from every loop.
+	private final Metrics.Counter accepted = Metrics.counter("server.accepted");
+	private final Metrics.Counter dropped = Metrics.counter("server.dropped");		// By us, not the client.
+	private final Metrics.Counter games = Metrics.counter("server.games");
+	private final Metrics.Counter messagesIn = Metrics.counter("server.messagesIn");
+	private final Metrics.Counter messagesOut = Metrics.counter("server.messagesOut");
+	private final Metrics.Counter deadlines = Metrics.counter("server.deadlines");
+	private final Metrics.Distribution lateness = Metrics.distribution("server.wakeLatenessMicros");
+	
+	private final ServerSocketChannel server;
+	private final Loop[] loops;
+	private final long origin = System.nanoTime();
+	private int nextLoop;
+	
+	public GameServer(InetSocketAddress address, int loopCount) throws IOException {
+		server = ServerSocketChannel.open();
+		server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+		server.bind(address, BACKLOG);
+		server.configureBlocking(false);
+		loops = new Loop[loopCount];
+		for (int i = 0; i < loopCount; i++) loops[i] = new Loop(i);
+		server.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+	}
+	
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+	
+	public void start() {
+		for (Loop loop : loops) loop.start();
+	}
+	
+	/* Drop every session, and wait for the loops to end. */
+	public void stop() throws InterruptedException, IOException {
+		for (Loop loop : loops) loop.quit();
+		for (Loop loop : loops) loop.join();
+		for (Loop loop : loops) loop.closeAdopted();	// Any the accepting loop dealt to one already gone.
+		server.close();
+	}
+	
+	public static void main(String[] args) throws Exception {
+		int port = Integer.getInteger("server.port", DEFAULT_PORT);
+		int loopCount = Integer.getInteger("server.loops", Runtime.getRuntime().availableProcessors());
+		Metrics.setEnabled(true);
+		GameServer server = new GameServer(new InetSocketAddress(port), loopCount);
+		server.start();
+		System.out.println("Serving on port " + server.getPort() + " with " + loopCount + " loops");
+		while (true) {
+			Thread.sleep(10000);
+			System.out.print(Metrics.dump());
+		}
+	}
+	
+	private final class Loop extends Thread implements Clock {
+		final Selector selector;
+		final TimerWheel wheel = new TimerWheel(this);
+		final ConcurrentLinkedQueue<SocketChannel> adopted = new ConcurrentLinkedQueue<SocketChannel>();
+		final ArrayList<Session> dirty = new ArrayList<Session>();
+		final SecureRandom seeds = new SecureRandom();
+		volatile boolean quitting;
+		
+		Loop(int number) throws IOException {
+			super("GameServer " + number);
+			selector = Selector.open();
+		}
+		
+		public long uptimeMillis() {
+			return (System.nanoTime() - origin) / 1000000L;
+		}
+		
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+		
+		/* From the accepting loop's thread. */
+		void adopt(SocketChannel channel) {
+			adopted.add(channel);
+			if (this != Thread.currentThread()) selector.wakeup();
+		}
+		
+		void quit() {
+			quitting = true;
+			selector.wakeup();
+		}
+		
+		@Override
+		public void run() {
+			try {
+				while (!quitting) {
+					runDeadlines();
+					flush();
+					long next = wheel.nextDue();
+					if (next == TimerWheel.NOT_PENDING) {
+						selector.select();
+					} else {
+						long wait = next - uptimeMillis();
+						if (wait > 0) selector.select(wait);
+						else selector.selectNow();
+					}
+					handleKeys();
+					adoptChannels();
+				}
+			} catch (IOException e) {
+				System.err.println(getName() + ": " + e);
+			} finally {
+				for (SelectionKey key : selector.keys()) {
+					if (key.attachment() instanceof Session) ((Session) key.attachment()).close(GameProtocol.SHUTDOWN);
+				}
+				closeAdopted();
+				try {
+					selector.close();
+				} catch (IOException e) {
+					// Going anyway.
+				}
+			}
+		}
+		
+		/* Close what was accepted but never made a session.  Once the loop has ended, it's
+		 * only called again from stop(), when every loop has. */
+		void closeAdopted() {
+			SocketChannel channel;
+			while ((channel = adopted.poll()) != null) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					// Going anyway.
+				}
+			}
+		}
+		
+		private void runDeadlines() {
+			long next = wheel.nextDue();
+			if (next == TimerWheel.NOT_PENDING) return;
+			boolean measured = Metrics.isEnabled();
+			long late = measured ? (System.nanoTime() - origin) / 1000 - next * 1000 : -1;
+			int fired = wheel.advance();
+			if (measured) {
+				if (fired > 0 && late >= 0) lateness.record(late);	// How long after the first was due we got to it.
+				deadlines.add(fired);
+			}
+		}
+		
+		private void flush() {
+			for (int i = 0; i < dirty.size(); i++) dirty.get(i).flush();
+			dirty.clear();
+		}
+		
+		private void handleKeys() throws IOException {
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				if (!key.isValid()) continue;
+				if (key.isAcceptable()) {
+					accept();
+					continue;
+				}
+				Session session = (Session) key.attachment();
+				if (key.isReadable()) session.read();
+				if (key.isValid() && key.isWritable()) session.flush();
+			}
+		}
+		
+		private void accept() throws IOException {
+			SocketChannel channel;
+			while ((channel = server.accept()) != null) {
+				if (Metrics.isEnabled()) accepted.increment();
+				loops[nextLoop].adopt(channel);
+				nextLoop = (nextLoop + 1) % loops.length;
+			}
+		}
+		
+		private void adoptChannels() {
+			SocketChannel channel;
+			while ((channel = adopted.poll()) != null) {
+				try {
+					channel.configureBlocking(false);
+					channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+					Session session = new Session(this, channel);
+					session.key = channel.register(selector, SelectionKey.OP_READ, session);
+					if (Metrics.isEnabled()) sessionCount.increment();
+				} catch (IOException e) {
+					try {
+						channel.close();
+					} catch (IOException ignored) {
+						// Never mind.
+					}
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Session
+	 * 
+	 * One client's game:  An engine, its deadlines timers on the loop's wheel, and a probe on
+	 * it, sending the lights, sounds and modes to the client.
+	 */
+	private final class Session extends EngineProbe {
+		final Loop loop;
+		final SocketChannel channel;
+		final SimonEngine engine;
+		final ByteBuffer in = ByteBuffer.allocate(READ_BYTES);
+		final ByteBuffer out = ByteBuffer.allocate(WRITE_BYTES);
+		final WheelScheduler scheduler;
+		SelectionKey key;
+		boolean queued;		// For a flush at the end of the loop's turn.
+		int closing = -1;	// Why it's to be dropped at that flush, from inside the engine.
+		
+		Session(Loop loop, SocketChannel channel) {
+			this.loop = loop;
+			this.channel = channel;
+			scheduler = new WheelScheduler(loop.wheel);
+			engine = new SimonEngine(loop, scheduler, new SilentAudioSink());
+			engine.addProbe(this);
+		}
+		
+		/* Still in play:  Not closed, nor waiting to be. */
+		boolean isOpen() {
+			return closing < 0 && channel.isOpen();
+		}
+		
+		/* EngineProbe:  What the client sees. */
+		
+		@Override
+		public void onLight(int index, boolean on, long scheduledNanos, long actualNanos) {
+			send(GameProtocol.LIGHT, on ? index : index | GameProtocol.DARK);
+		}
+		
+		@Override
+		public void onSound(int sound, long scheduledNanos, long actualNanos) {
+			send(GameProtocol.SOUND, sound);
+		}
+		
+		@Override
+		public void onModeChange(int mode) {
+			if (engine.isPlayingBack()) {
+				send(GameProtocol.PLAYING, Math.min(255, engine.getSequenceLength()));
+			} else if (engine.isListening()) {
+				send(GameProtocol.LISTENING, 0);
+			} else if (engine.isFinished()) {
+				if (Metrics.isEnabled()) games.increment();
+				send(GameProtocol.OVER, engine.isWon() ? 1 : 0);
+			}
+		}
+		
+		/* The socket */
+		
+		void read() {
+			int count;
+			try {
+				count = channel.read(in);
+			} catch (IOException e) {
+				count = -1;
+			}
+			if (count < 0) {
+				close(0);
+				return;
+			}
+			in.flip();
+			while (in.remaining() >= GameProtocol.MESSAGE_BYTES && isOpen()) {
+				handle(in.get() & 0xff, in.get() & 0xff);
+			}
+			in.compact();
+		}
+		
+		private void handle(int opcode, int argument) {
+			if (Metrics.isEnabled()) messagesIn.increment();
+			switch (opcode) {
+			case GameProtocol.START:
+				int game = GameProtocol.gameOf(argument);
+				int level = GameProtocol.levelOf(argument);
+				if (game < 1 || game > ScoreBook.GAMES || level < 1 || level > MAX_LEVEL) break;
+				engine.setGame(game);
+				engine.setLevel(level);
+				engine.gameStart(loop.seeds.nextLong());
+				return;
+			case GameProtocol.PRESS:
+				if (argument >= 4) break;
+				engine.pressButton(argument);
+				return;
+			case GameProtocol.RELEASE:
+				if (argument >= 4) break;
+				engine.releaseButton(argument);
+				return;
+			}
+			close(GameProtocol.BAD_MESSAGE);
+		}
+		
+		private void send(int opcode, int argument) {
+			if (!isOpen()) return;
+			if (out.remaining() < GameProtocol.MESSAGE_BYTES) {
+				closeLater(GameProtocol.TOO_SLOW);	// With no room left even to say so.
+				return;
+			}
+			out.put((byte) opcode).put((byte) argument);
+			if (Metrics.isEnabled()) messagesOut.increment();
+			queue();
+		}
+		
+		private void queue() {
+			if (!queued) {
+				queued = true;
+				loop.dirty.add(this);
+			}
+		}
+		
+		/*
+		 * From a probe callback the engine is still partway through its update, and would arm
+		 * its timers again after a dispose, so just stop sending and leave the rest to the flush.
+		 */
+		private void closeLater(int reason) {
+			closing = reason;
+			queue();
+		}
+		
+		void flush() {
+			queued = false;
+			if (closing >= 0) {
+				close(closing);
+				return;
+			}
+			if (!isOpen()) return;
+			out.flip();
+			try {
+				channel.write(out);
+			} catch (IOException e) {
+				out.clear();
+				close(0);
+				return;
+			}
+			out.compact();
+			int ops = out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+			if (key.interestOps() != ops) key.interestOps(ops);
+		}
+		
+		/* Drop the client, saying why if there's a reason and room to. */
+		void close(int reason) {
+			if (!channel.isOpen()) return;
+			if (reason != 0 && out.remaining() >= GameProtocol.MESSAGE_BYTES) {
+				out.put((byte) GameProtocol.BYE).put((byte) reason);
+				out.flip();
+				try {
+					channel.write(out);
+				} catch (IOException e) {
+					// Going anyway.
+				}
+			}
+			if (Metrics.isEnabled()) {
+				if (reason == GameProtocol.BAD_MESSAGE || reason == GameProtocol.TOO_SLOW) dropped.increment();
+				sessionCount.add(-1);
+			}
+			engine.removeProbe(this);
+			engine.dispose();
+			scheduler.cancelAll();
+			if (key != null) key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// Closed enough.
+			}
+		}
+	}
+}
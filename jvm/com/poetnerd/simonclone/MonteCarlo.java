@@ -0,0 +1,236 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * MonteCarlo
+ * 
+ * Plays the real game rules -- SimonEngine on a VirtualScheduler -- many times over for
+ * every game at every level, with a SyntheticPlayer, and prints how often they win and
+ * how long a sequence they reach.  Use it to settle how hard each level and game is.
+ * 
+ * The games are dealt out in chunks of CHUNK_GAMES across all the cores with fork/join.
+ * Each chunk has its own Random, seeded from the run's seed and the chunk's number
+ * alone, so a run gives the same tables to the last digit however many threads play it.
+ * 
+ * Usage: java com.poetnerd.simonclone.MonteCarlo
+ *   -Dsim.games=N      games for each game and level (default 100000)
+ *   -Dsim.seed=N       (default 1978)
+ *   -Dsim.threads=N    (default: one per core)
+ *   -Dsim.game=N       just the one game (default: all three)
+ *   -Dsim.timing=T     a TimingProfile (default: the original)
+ *   -Dplayer.span=N and the rest, as SyntheticPlayer describes
+ */
+public final class MonteCarlo {
+	
+	static final int CHUNK_GAMES = 2048;
+	static final int MAX_LENGTH = 1000;		// An endless game gives up here.
+	
+	static final int GAMES = ScoreBook.GAMES;
+	static final int LEVELS = ScoreBook.LEVELS;
+	
+	/* What we know about one game at one level.  Adding tallies is all the merging needed. */
+	static final class Tally {
+		long games;
+		long wins;
+		long lengths;
+		long lengthSquares;
+		long timeouts;		// Games where the player was too slow at least once.
+		long timeoutLosses;	// Games lost, in the end, to being too slow.
+		long longest;
+		long millis;		// Playing time, start to finish.
+		
+		void add(Tally other) {
+			games += other.games;
+			wins += other.wins;
+			lengths += other.lengths;
+			lengthSquares += other.lengthSquares;
+			timeouts += other.timeouts;
+			timeoutLosses += other.timeoutLosses;
+			millis += other.millis;
+			longest = Math.max(longest, other.longest);
+		}
+		
+		double winRate() {
+			return games == 0 ? 0 : (double) wins / games;
+		}
+		
+		double meanLength() {
+			return games == 0 ? 0 : (double) lengths / games;
+		}
+		
+		double lengthError() {		// 95% either side of the mean.
+			if (games < 2) return 0;
+			double mean = meanLength();
+			double variance = ((double) lengthSquares / games - mean * mean) * games / (games - 1);
+			return 1.96 * Math.sqrt(Math.max(variance, 0) / games);
+		}
+		
+		double meanSeconds() {
+			return games == 0 ? 0 : millis / 1000.0 / games;
+		}
+		
+		double winError() {
+			if (games == 0) return 0;
+			double p = winRate();
+			return 1.96 * Math.sqrt(p * (1 - p) / games);
+		}
+	}
+	
+	private final SyntheticPlayer player;
+	private final TimingProfile timing;
+	private final long seed;
+	private final int chunksPerCell;
+	private int firstGame = 1;
+	private int lastGame = GAMES;
+	
+	public MonteCarlo(SyntheticPlayer player, TimingProfile timing, long seed, int gamesPerCell) {
+		this.player = player;
+		this.timing = timing;
+		this.seed = seed;
+		this.chunksPerCell = (gamesPerCell + CHUNK_GAMES - 1) / CHUNK_GAMES;
+	}
+	
+	/* Play only the one game; or 0 for all of them. */
+	public MonteCarlo setGame(int game) {
+		firstGame = game == 0 ? 1 : game;
+		lastGame = game == 0 ? GAMES : game;
+		return this;
+	}
+	
+	public static void main(String[] args) {
+		SyntheticPlayer player = SyntheticPlayer.fromProperties();
+		int games = Integer.getInteger("sim.games", 100000);
+		long seed = Long.getLong("sim.seed", 1978);
+		int threads = Integer.getInteger("sim.threads", Runtime.getRuntime().availableProcessors());
+		TimingProfile timing = TimingProfile.parse(System.getProperty("sim.timing", TimingProfile.ORIGINAL.toString()));
+		
+		System.out.println("Player: " + player + ", timing: " + timing);
+		long start = System.nanoTime();
+		Tally[] tallies = new MonteCarlo(player, timing, seed, games)
+				.setGame(Integer.getInteger("sim.game", 0))
+				.run(new ForkJoinPool(threads));
+		double seconds = (System.nanoTime() - start) / 1e9;
+		print(tallies);
+		long played = 0;
+		for (Tally tally : tallies) played += tally.games;
+		System.out.println(String.format(Locale.US, "%d games on %d threads in %.1f s, %.0f games/s",
+				played, threads, seconds, played / seconds));
+	}
+	
+	/* A Tally for every game at every level, game 1 level 1 first.  Games not played
+	 * have empty tallies. */
+	public Tally[] run(ForkJoinPool pool) {
+		int first = (firstGame - 1) * LEVELS * chunksPerCell;
+		int last = lastGame * LEVELS * chunksPerCell;
+		return pool.invoke(new Chunks(first, last));
+	}
+	
+	/* Chunks numbered from first up to but not including last. */
+	private final class Chunks extends RecursiveTask<Tally[]> {
+		private static final long serialVersionUID = 1L;
+		
+		private final int first;
+		private final int last;
+		
+		Chunks(int first, int last) {
+			this.first = first;
+			this.last = last;
+		}
+		
+		@Override
+		protected Tally[] compute() {
+			if (last - first == 1) return playChunk(first);
+			int middle = (first + last) >>> 1;
+			Chunks left = new Chunks(first, middle);
+			left.fork();
+			Tally[] tallies = new Chunks(middle, last).compute();
+			Tally[] others = left.join();
+			for (int i = 0; i < tallies.length; i++) tallies[i].add(others[i]);
+			return tallies;
+		}
+	}
+	
+	private Tally[] playChunk(int chunk) {
+		Tally[] tallies = new Tally[GAMES * LEVELS];
+		for (int i = 0; i < tallies.length; i++) tallies[i] = new Tally();
+		int cell = chunk / chunksPerCell;
+		Tally tally = tallies[cell];
+		
+		/* Mixed as the rounds' keys are, so neighbouring chunks get seeds with nothing in common. */
+		Random random = new Random(SequenceGenerator.roundKey(seed, chunk));
+		VirtualScheduler scheduler = new VirtualScheduler();
+		SimonEngine engine = new SimonEngine(scheduler, scheduler, new SilentAudioSink());
+		engine.setGame(cell / LEVELS + 1);
+		engine.setLevel(cell % LEVELS + 1);
+		engine.setTiming(timing);
+		for (int i = 0; i < CHUNK_GAMES; i++) {
+			playGame(engine, scheduler, random, tally);
+		}
+		return tallies;
+	}
+	
+	private void playGame(SimonEngine engine, VirtualScheduler scheduler, Random random, Tally tally) {
+		long start = scheduler.uptimeMillis();
+		engine.gameStart(random.nextLong());
+		int longest = 0;
+		boolean timedOut = false;
+		boolean lastTimedOut = false;
+		while (!engine.isFinished() && longest < MAX_LENGTH) {
+			if (!engine.isListening()) {
+				if (!scheduler.runNext()) break;
+				continue;
+			}
+			long think = player.reactionMillis(random);
+			scheduler.advanceBy(think);
+			lastTimedOut = !engine.isListening();
+			if (lastTimedOut) {		// Too slow:  Simon moved on without us.
+				timedOut = true;
+				continue;
+			}
+			int button = player.choose(engine, random);
+			engine.pressButton(button);
+			scheduler.advanceBy(player.hold);
+			engine.releaseButton(button);
+			longest = Math.max(longest, engine.getSequenceLength());
+		}
+		if (!engine.isFinished()) engine.gameClearTimeout();	// Gave up on an endless game.
+		
+		tally.games++;
+		if (engine.isWon()) tally.wins++;
+		else if (lastTimedOut) tally.timeoutLosses++;
+		if (timedOut) tally.timeouts++;
+		tally.millis += scheduler.uptimeMillis() - start;
+		tally.lengths += longest;
+		tally.lengthSquares += (long) longest * longest;
+		tally.longest = Math.max(tally.longest, longest);
+	}
+	
+	static void print(Tally[] tallies) {
+		System.out.println(String.format(Locale.US, "%4s %5s %10s %8s %7s %9s %7s %7s %8s %8s",
+				"game", "level", "games", "win %", "+/-", "length", "+/-", "max", "timeout%", "seconds"));
+		for (int cell = 0; cell < tallies.length; cell++) {
+			Tally tally = tallies[cell];
+			if (tally.games == 0) continue;
+			System.out.println(String.format(Locale.US, "%4d %5s %10d %8.2f %7.2f %9.2f %7.2f %7d %8.2f %8.1f",
+					cell / LEVELS + 1, cell % LEVELS + 1 == SimonEngine.ENDLESS_LEVEL ? "end" : String.valueOf(cell % LEVELS + 1),
+					tally.games, 100 * tally.winRate(), 100 * tally.winError(),
+					tally.meanLength(), tally.lengthError(), tally.longest,
+					100.0 * tally.timeouts / tally.games, tally.meanSeconds()));
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * ReplayRecordings
+ * 
+ * Replays game recordings made by GameRecorder and checks each one does again just what
+ * it did the first time.  Give it recording files, or directories of them; it prints each
+ * one that differs, and says how many passed.  The exit status is the number that failed,
+ * up to 100, so it can stand as a regression test.
+ * 
+ * Usage: java com.poetnerd.simonclone.ReplayRecordings file-or-directory...
+ *   -Dreplay.speed=X   1 for the pace they were recorded at (default: as fast as we can)
+ */
+public final class ReplayRecordings {
+	
+	public static void main(String[] args) throws IOException {
+		double speed = Double.parseDouble(System.getProperty("replay.speed", "0"));
+		List<File> files = new ArrayList<File>();
+		for (String arg : args) {
+			collect(new File(arg), files);
+		}
+		
+		int failed = 0;
+		long inputs = 0;
+		long start = System.nanoTime();
+		for (File file : files) {
+			String difference;
+			try {
+				GameReplayer replayer = new GameReplayer(GameRecording.open(file));
+				difference = replayer.replay(speed);
+				inputs += replayer.getInputs();
+			} catch (IllegalArgumentException e) {
+				difference = e.getMessage();
+			}
+			if (difference != null) {
+				failed++;
+				System.out.println(file + ": " + difference);
+			}
+		}
+		long millis = (System.nanoTime() - start) / 1000000L;
+		System.out.println((files.size() - failed) + " of " + files.size() + " recordings replayed the same ("
+				+ inputs + " inputs in " + millis + " ms)");
+		System.exit(Math.min(failed, 100));
+	}
+	
+	private static void collect(File file, List<File> files) {
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			if (children == null) return;
+			Arrays.sort(children);
+			for (File child : children) {
+				collect(child, files);
+			}
+		} else {
+			files.add(file);
+		}
+	}
+}
@@ -0,0 +1,390 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/*
+ * ServerLoad
+ * 
+ * Plays many clients at once against a GameServer over loopback, to see how it holds up.
+ * Each client is a SyntheticPlayer that knows only what comes over the wire:  It learns the
+ * sequence from the lights as Simon plays it back, and when Simon listens, it presses and
+ * releases the buttons back in the player's own time, slips and all.  When a game ends it
+ * starts another.
+ * 
+ * What we measure is how long the server takes to light a button after a press -- on a
+ * real board, the time between a finger going down and the light coming on.  If that, or
+ * the deadline lateness the server reports, climbs with the client count, the loops are
+ * falling behind.
+ * 
+ * All the clients share one Selector and one thread here; they're cheap, as the player
+ * spends nearly all their time waiting.
+ * 
+ * Usage: java com.poetnerd.simonclone.ServerLoad
+ *   -Dload.clients=N   (default 1000)
+ *   -Dload.seconds=N   how long to play (default 30)
+ *   -Dload.host=H      (default localhost)
+ *   -Dload.port=N      a running server.  Without one, we start our own, with -Dserver.loops.
+ *   -Dload.game=N      1 or 2 (default 1).  Game 3 needs several players to a board.
+ *   -Dload.level=N     1 to GameServer.MAX_LEVEL (default 1)
+ *   -Dload.seed=N      (default 1978)
+ *   -Dplayer.span=N and the rest, as SyntheticPlayer describes
+ * 
+ * The file limit can stop a run short of the clients asked for.  Each client is a socket
+ * here and another in the server, so for many thousands, run the server in another process.
+ */
+public final class ServerLoad {
+	
+	private static final int CONNECT_BATCH = 256;	// Opened at each turn, so the accept backlog keeps up.
+	private static final int MAX_SEQUENCE = 64;
+	private static final long RESTART_MILLIS = 1500;	// Let the win or razz play out.
+	private static final long REPORT_NANOS = 5000000000L;
+	
+	private static final int PRESS = 0;
+	private static final int RELEASE = 1;
+	private static final int START = 2;
+	
+	private final InetSocketAddress address;
+	private final int clientCount;
+	private final int game;
+	private final int level;
+	private final SyntheticPlayer player;
+	private final Random seeds;
+	
+	private final Selector selector;
+	private final PriorityQueue<Action> actions = new PriorityQueue<Action>(1024, BY_DUE);
+	private final Histogram pressToLight = new Histogram();
+	private final Histogram pressToLightTotal = new Histogram();
+	private int opened;
+	private int connected;
+	private int failed;
+	private int byes;
+	private long games;
+	private long wins;
+	private long presses;
+	
+	public ServerLoad(InetSocketAddress address, int clientCount, int game, int level,
+			SyntheticPlayer player, long seed) throws IOException {
+		this.address = address;
+		this.clientCount = clientCount;
+		this.game = game;
+		this.level = level;
+		this.player = player;
+		this.seeds = new Random(seed);
+		this.selector = Selector.open();
+	}
+	
+	public static void main(String[] args) throws Exception {
+		int clientCount = Integer.getInteger("load.clients", 1000);
+		int seconds = Integer.getInteger("load.seconds", 30);
+		int game = Integer.getInteger("load.game", 1);
+		int level = Integer.getInteger("load.level", 1);
+		if (game < 1 || game > 2 || level < 1 || level > GameServer.MAX_LEVEL) {
+			System.err.println("load.game must be 1 or 2, and load.level 1 to " + GameServer.MAX_LEVEL);
+			System.exit(2);
+		}
+		SyntheticPlayer player = SyntheticPlayer.fromProperties();
+		
+		GameServer server = null;
+		InetSocketAddress address;
+		String host = System.getProperty("load.host", "localhost");
+		Integer port = Integer.getInteger("load.port");
+		if (port != null) {
+			address = new InetSocketAddress(host, port);
+		} else {
+			int loopCount = Integer.getInteger("server.loops", Runtime.getRuntime().availableProcessors());
+			Metrics.setEnabled(true);		// For the server's counts, dumped at the end.
+			server = new GameServer(new InetSocketAddress(host, 0), loopCount);
+			server.start();
+			address = new InetSocketAddress(host, server.getPort());
+		}
+		
+		System.out.println("Load: " + clientCount + " clients on " + address + ", game " + game
+				+ " level " + level + ", " + player);
+		ServerLoad load = new ServerLoad(address, clientCount, game, level, player,
+				Long.getLong("load.seed", 1978));
+		boolean allConnected = load.run(seconds * 1000000000L);
+		
+		if (server != null) {
+			server.stop();
+			System.out.print(Metrics.dump());
+		}
+		System.exit(allConnected ? 0 : 1);
+	}
+	
+	/* Something a client means to do, unless a game has started or ended since. */
+	private static final class Action {
+		final long due;
+		final Client client;
+		final int what;
+		final int generation;
+		
+		Action(long due, Client client, int what) {
+			this.due = due;
+			this.client = client;
+			this.what = what;
+			this.generation = client.generation;
+		}
+	}
+	
+	private static final Comparator<Action> BY_DUE = new Comparator<Action>() {
+		public int compare(Action a, Action b) {
+			return a.due < b.due ? -1 : a.due > b.due ? 1 : 0;
+		}
+	};
+	
+	private void later(Client client, int what, long millis) {
+		actions.add(new Action(System.nanoTime() + millis * 1000000L, client, what));
+	}
+	
+	/* Play for runNanos, and say whether every client was still connected at the end. */
+	boolean run(long runNanos) throws IOException {
+		long start = System.nanoTime();
+		long end = start + runNanos;
+		long nextReport = start + REPORT_NANOS;
+		while (true) {
+			long now = System.nanoTime();
+			if (now >= end) break;
+			if (now >= nextReport) {
+				report((now - start) / 1000000000L);
+				nextReport += REPORT_NANOS;
+			}
+			openSome();
+			Action action;
+			while ((action = actions.peek()) != null && action.due <= now) {
+				actions.poll();
+				if (action.client.isOpen() && action.client.generation == action.generation) {
+					action.client.act(action.what);
+				}
+			}
+			long wait = Math.min(end, nextReport) - now;
+			if (action != null) wait = Math.min(wait, action.due - now);
+			if (opened < clientCount) wait = Math.min(wait, 1000000L);
+			long waitMillis = wait / 1000000L;
+			if (waitMillis > 0) selector.select(waitMillis);
+			else selector.selectNow();
+			handleKeys();
+		}
+		report((System.nanoTime() - start) / 1000000000L);
+		pressToLightTotal.add(pressToLight);
+		System.out.println(String.format(Locale.US, "Done: %d connected, %d failed, %d dropped; %d games, %d won;"
+				+ " press to light over the run %s ms",
+				connected, failed, byes, games, wins, pressToLightTotal.summary(1000000L)));
+		boolean allConnected = connected == clientCount;
+		for (SelectionKey key : selector.keys()) ((Client) key.attachment()).close();
+		selector.close();
+		return allConnected;
+	}
+	
+	private void report(long seconds) {
+		System.out.println(String.format(Locale.US, "%4ds  %6d clients  %8d games  %8d presses  press to light %s ms",
+				seconds, connected, games, presses, pressToLight.summary(1000000L)));
+		pressToLightTotal.add(pressToLight);
+		pressToLight.reset();
+	}
+	
+	private void openSome() {
+		for (int i = 0; i < CONNECT_BATCH && opened < clientCount; i++) {
+			opened++;
+			try {
+				SocketChannel channel = SocketChannel.open();
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				Client client = new Client(channel, new Random(seeds.nextLong()));
+				client.key = channel.register(selector, SelectionKey.OP_CONNECT, client);
+				if (channel.connect(address)) client.connected();
+			} catch (IOException e) {
+				failed++;
+				if (failed == 1) System.err.println("Can't connect: " + e);
+			}
+		}
+	}
+	
+	private void handleKeys() {
+		Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+		while (keys.hasNext()) {
+			SelectionKey key = keys.next();
+			keys.remove();
+			Client client = (Client) key.attachment();
+			if (!key.isValid()) continue;
+			if (key.isConnectable()) {
+				try {
+					client.channel.finishConnect();
+					client.connected();
+				} catch (IOException e) {
+					failed++;
+					if (failed == 1) System.err.println("Can't connect: " + e);
+					client.close();
+				}
+			} else if (key.isReadable()) {
+				client.read();
+			}
+		}
+	}
+	
+	private final class Client {
+		final SocketChannel channel;
+		final Random random;
+		final ByteBuffer in = ByteBuffer.allocate(256);
+		final ByteBuffer out = ByteBuffer.allocate(GameProtocol.MESSAGE_BYTES);
+		final int[] sequence = new int[MAX_SEQUENCE];
+		SelectionKey key;
+		int learned;			// Of the sequence, from the lights.
+		int pressed;			// Of it, played back.  In game 2, the steps we added are learned too.
+		boolean listening;
+		int generation;			// Moves on at each change of turn, so stale actions are dropped.
+		int button = -1;		// Down, waiting for its light...
+		long pressNanos;		// ...since then.
+		
+		Client(SocketChannel channel, Random random) {
+			this.channel = channel;
+			this.random = random;
+		}
+		
+		boolean isOpen() {
+			return channel.isOpen();
+		}
+		
+		void connected() {
+			connected++;
+			key.interestOps(SelectionKey.OP_READ);
+			send(GameProtocol.START, GameProtocol.startArgument(game, level));
+		}
+		
+		void act(int what) {
+			switch (what) {
+			case START:
+				send(GameProtocol.START, GameProtocol.startArgument(game, level));
+				break;
+			case PRESS:
+				int ours;
+				if (pressed < learned) {
+					ours = player.choose(sequence[pressed], learned, random);
+				} else {
+					ours = random.nextInt(4);	// Game 2: our own step, for the next player to follow.
+					if (learned < MAX_SEQUENCE) sequence[learned] = ours;
+				}
+				button = ours;
+				pressNanos = System.nanoTime();
+				presses++;
+				send(GameProtocol.PRESS, ours);
+				later(this, RELEASE, player.hold);
+				break;
+			case RELEASE:
+				send(GameProtocol.RELEASE, button);
+				button = -1;
+				pressed++;
+				if (game == 2) {		// Simon never plays it back.  Whoever's next repeats it all, and adds one.
+					if (pressed > learned) {
+						learned = Math.min(pressed, MAX_SEQUENCE);
+						pressed = 0;
+					}
+					later(this, PRESS, player.reactionMillis(random));
+				} else if (pressed < learned) {
+					later(this, PRESS, player.reactionMillis(random));
+				}
+				break;
+			}
+		}
+		
+		void read() {
+			int count;
+			try {
+				count = channel.read(in);
+			} catch (IOException e) {
+				count = -1;
+			}
+			if (count < 0) {
+				byes++;
+				close();
+				return;
+			}
+			in.flip();
+			while (in.remaining() >= GameProtocol.MESSAGE_BYTES && isOpen()) {
+				handle(in.get() & 0xff, in.get() & 0xff);
+			}
+			in.compact();
+		}
+		
+		private void handle(int opcode, int argument) {
+			switch (opcode) {
+			case GameProtocol.LIGHT:
+				if ((argument & GameProtocol.DARK) != 0) break;
+				if (listening) {
+					if (argument == button && pressNanos != 0) {
+						pressToLight.record(System.nanoTime() - pressNanos);
+						pressNanos = 0;
+					}
+				} else if (learned < MAX_SEQUENCE) {
+					sequence[learned++] = argument;
+				}
+				break;
+			case GameProtocol.PLAYING:
+				generation++;
+				listening = false;
+				learned = 0;
+				break;
+			case GameProtocol.LISTENING:
+				generation++;
+				listening = true;
+				pressed = 0;
+				later(this, PRESS, player.reactionMillis(random));
+				break;
+			case GameProtocol.OVER:
+				generation++;
+				listening = false;
+				games++;
+				if (argument == 1) wins++;
+				later(this, START, RESTART_MILLIS);
+				break;
+			case GameProtocol.BYE:
+				byes++;
+				close();
+				break;
+			}
+		}
+		
+		private void send(int opcode, int argument) {
+			out.clear();
+			out.put((byte) opcode).put((byte) argument);
+			out.flip();
+			try {
+				channel.write(out);		// Two bytes always fit; the server reads what we send.
+			} catch (IOException e) {
+				close();
+			}
+		}
+		
+		void close() {
+			if (!isOpen()) return;
+			connected--;
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// Closed enough.
+			}
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.util.Random;
+
+/*
+ * SyntheticPlayer
+ * 
+ * A made up player for the simulators, described by a few numbers:
+ * 
+ *   span       how many steps they can hold in mind.  Up to that, they slip only at
+ *              the base error rate.
+ *   error      the chance of pressing a wrong button on any one step.
+ *   overload   the chance of a slip added for each step the sequence has past span.
+ *   reaction   the median time they take to press, in ms...
+ *   spread     ...and how widely that varies:  The sigma of a log-normal around it.
+ *              Slow enough and Simon's three second timeout gets them.
+ *   hold       how long they hold a button down, in ms.
+ * 
+ * A player draws on the Random it's given, so with the same Random it plays the same.
+ */
+public final class SyntheticPlayer {
+	
+	public final int span;
+	public final double error;
+	public final double overload;
+	public final double reaction;
+	public final double spread;
+	public final long hold;
+	
+	public SyntheticPlayer(int span, double error, double overload, double reaction, double spread, long hold) {
+		this.span = span;
+		this.error = error;
+		this.overload = overload;
+		this.reaction = reaction;
+		this.spread = spread;
+		this.hold = hold;
+	}
+	
+	/* A player as described by -Dplayer.span=N and so on, with defaults for the rest. */
+	public static SyntheticPlayer fromProperties() {
+		return new SyntheticPlayer(
+				Integer.getInteger("player.span", 12),
+				Double.parseDouble(System.getProperty("player.error", "0.01")),
+				Double.parseDouble(System.getProperty("player.overload", "0.03")),
+				Double.parseDouble(System.getProperty("player.reaction", "450")),
+				Double.parseDouble(System.getProperty("player.spread", "0.35")),
+				Long.getLong("player.hold", 150));
+	}
+	
+	/* How long before the next press. */
+	public long reactionMillis(Random random) {
+		return Math.round(reaction * Math.exp(spread * random.nextGaussian()));
+	}
+	
+	/* Which button to press now, listening to engine. */
+	public int choose(SimonEngine engine, Random random) {
+		int length = engine.getSequenceLength();
+		if (engine.getPlayerIndex() >= length) return random.nextInt(4);	// Game 2: our own step.
+		return choose(engine.getExpectedButton(), length, random);
+	}
+	
+	/* Which button to press now, when expected is due in a sequence of length. */
+	public int choose(int expected, int length, Random random) {
+		double slip = error;
+		if (length > span) slip += overload * (length - span);
+		if (random.nextDouble() >= slip) return expected;
+		return (expected + 1 + random.nextInt(3)) & 3;		// Any of the other three.
+	}
+	
+	@Override
+	public String toString() {
+		return "span=" + span + " error=" + error + " overload=" + overload
+				+ " reaction=" + reaction + " spread=" + spread + " hold=" + hold;
+	}
+}
@@ -0,0 +1,104 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/*
+ * ThreadScheduler
+ * 
+ * A Clock, Scheduler and Executor on a thread of its own, standing in on a plain JVM for
+ * the device's main looper:  Events wait in a DeadlineQueue against the real monotonic
+ * clock, and the thread sleeps until the earliest is due or something is posted.  Posted
+ * work runs before any event, in the order it was posted.  Everything the engine does
+ * happens on this one thread, as on the device it happens on the main thread.
+ */
+final class ThreadScheduler implements Clock, Scheduler, Executor {
+	
+	private final DeadlineQueue queue = new DeadlineQueue();
+	private final ArrayDeque<Runnable> posted = new ArrayDeque<Runnable>();
+	private final long origin = System.nanoTime();
+	private final Thread thread;
+	private boolean quitting;
+	private Target target;
+	
+	ThreadScheduler(String name) {
+		thread = new Thread(name) {
+			@Override
+			public void run() {
+				loop();
+			}
+		};
+		thread.start();
+	}
+	
+	public long uptimeMillis() {
+		return (System.nanoTime() - origin) / 1000000L;
+	}
+	
+	public long nanoTime() {
+		return System.nanoTime();
+	}
+	
+	public void setTarget(Target target) {
+		this.target = target;
+	}
+	
+	public synchronized void schedule(int what, long delayMillis) {
+		queue.set(what, uptimeMillis() + Math.max(0, delayMillis));
+		notify();
+	}
+	
+	public synchronized void cancel(int what) {
+		queue.clear(what);
+	}
+	
+	public synchronized void execute(Runnable command) {
+		posted.add(command);
+		notify();
+	}
+	
+	/* Finish what's posted, drop what's scheduled, and wait for the thread to end. */
+	public void quit() throws InterruptedException {
+		synchronized (this) {
+			quitting = true;
+			notify();
+		}
+		thread.join();
+	}
+	
+	private void loop() {
+		while (true) {
+			Runnable command = null;
+			int what = -1;
+			synchronized (this) {
+				while (true) {
+					command = posted.poll();
+					if (command != null) break;
+					if (quitting) return;
+					long now = uptimeMillis();
+					what = queue.poll(now);
+					if (what >= 0) break;
+					long next = queue.nextDue();
+					try {
+						wait(next == DeadlineQueue.NOT_PENDING ? 0 : next - now);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+			if (command != null) command.run();
+			else if (target != null) target.onEvent(what);
+		}
+	}
+}
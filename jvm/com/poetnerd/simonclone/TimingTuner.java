@@ -0,0 +1,99 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+/*
+ * TimingTuner
+ * 
+ * What other timeouts and pauses would do to the game:  For each pair from a grid of
+ * them, MonteCarlo plays a SyntheticPlayer through every level, and we print the loss
+ * rate, the share lost to the timeout, the length reached, and how long a game lasts.
+ * Then for each level, the shortest timeout that loses no more than tune.maxTimeoutLoss
+ * of games to slowness, as a TimingProfile to paste into SimonClone.
+ * 
+ * Each player's think and press times are sleeps on its own VirtualScheduler, against
+ * the engine's real scheduling, so every game of the grid is in play at once across the
+ * cores and none of them waits on the wall clock.
+ * 
+ * Usage: java com.poetnerd.simonclone.TimingTuner
+ *   -Dtune.timeouts=a,b,...     timeouts to try, ms (default 2000,2500,3000,4000,5000)
+ *   -Dtune.pauses=a,b,...       pauses to try, ms (default 400,800,1200)
+ *   -Dtune.game=N               (default 1)
+ *   -Dtune.maxTimeoutLoss=P     percent (default 5)
+ *   -Dsim.games=N, -Dsim.seed=N, -Dsim.threads=N and the player, as for MonteCarlo
+ */
+public final class TimingTuner {
+	
+	private static final int LEVELS = ScoreBook.LEVELS;
+	
+	public static void main(String[] args) {
+		long[] timeouts = parseList(System.getProperty("tune.timeouts", "2000,2500,3000,4000,5000"));
+		long[] pauses = parseList(System.getProperty("tune.pauses", "400,800,1200"));
+		int game = Integer.getInteger("tune.game", 1);
+		double maxTimeoutLoss = Double.parseDouble(System.getProperty("tune.maxTimeoutLoss", "5"));
+		int games = Integer.getInteger("sim.games", 20000);
+		long seed = Long.getLong("sim.seed", 1978);
+		int threads = Integer.getInteger("sim.threads", Runtime.getRuntime().availableProcessors());
+		SyntheticPlayer player = SyntheticPlayer.fromProperties();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		long winPause = TimingProfile.ORIGINAL.getWinPause(1);
+		
+		System.out.println("Player: " + player + ", game " + game);
+		System.out.println(String.format(Locale.US, "%7s %6s %5s %8s %9s %8s %8s",
+				"timeout", "pause", "level", "loss %", "timeout %", "length", "seconds"));
+		
+		List<long[]> chosen = new ArrayList<long[]>();		// For each level: timeout, pause.
+		for (int level = 0; level < LEVELS; level++) chosen.add(null);
+		for (long timeout : timeouts) {
+			for (long pause : pauses) {
+				if (pause >= timeout) continue;		// Not a profile TimingProfile allows.
+				TimingProfile timing = new TimingProfile(timeout, pause, winPause);
+				MonteCarlo.Tally[] tallies = new MonteCarlo(player, timing, seed, games).setGame(game).run(pool);
+				for (int level = 1; level <= LEVELS; level++) {
+					MonteCarlo.Tally tally = tallies[(game - 1) * LEVELS + level - 1];
+					double timeoutLoss = 100.0 * tally.timeoutLosses / tally.games;
+					System.out.println(String.format(Locale.US, "%7d %6d %5s %8.2f %9.2f %8.2f %8.1f",
+							timeout, pause, level == SimonEngine.ENDLESS_LEVEL ? "end" : String.valueOf(level),
+							100 * (1 - tally.winRate()), timeoutLoss, tally.meanLength(), tally.meanSeconds()));
+					if (timeoutLoss <= maxTimeoutLoss && chosen.get(level - 1) == null
+							&& pause == TimingProfile.ORIGINAL.getPause(level)) {
+						chosen.set(level - 1, new long[] { timeout, pause });
+					}
+				}
+			}
+		}
+		
+		TimingProfile suggested = TimingProfile.ORIGINAL;
+		for (int level = 1; level <= LEVELS; level++) {
+			long[] pick = chosen.get(level - 1);
+			if (pick == null) {
+				System.out.println("Level " + level + ": no timeout tried keeps losses to slowness under "
+						+ maxTimeoutLoss + "%");
+				continue;
+			}
+			suggested = suggested.withLevel(level, pick[0], pick[1], winPause);
+		}
+		System.out.println("Suggested timing: " + suggested);
+	}
+	
+	private static long[] parseList(String text) {
+		String[] parts = text.split(",");
+		long[] values = new long[parts.length];
+		for (int i = 0; i < parts.length; i++) values[i] = Long.parseLong(parts[i].trim());
+		return values;
+	}
+}
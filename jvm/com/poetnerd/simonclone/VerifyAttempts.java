@@ -0,0 +1,255 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * VerifyAttempts
+ * 
+ * Runs MoveVerifier over a batch of attempts, on every core, and says how fast it went.
+ * 
+ * Given recording files, or directories of them, it checks every game in them and prints
+ * each verdict.  Given none, it makes its own batch:  SyntheticPlayers play every game at
+ * levels 1 to 4 on the real engine, recorded; each game becomes an attempt claiming the
+ * length the engine reached, and a few are tampered with, a press changed or a longer
+ * length claimed.  Every honest attempt must come out legal, with the engine's own result,
+ * and we count how many of the tampered ones are caught.  The exit status is the number
+ * of honest attempts the verifier got wrong, up to 100.
+ * 
+ * Usage: java com.poetnerd.simonclone.VerifyAttempts [file-or-directory...]
+ *   -Dverify.games=N      attempts to make (default 100000)
+ *   -Dverify.seed=N       (default 1978)
+ *   -Dverify.tamper=X     the share tampered with (default 0.1)
+ *   -Dverify.threads=N    (default: one per core)
+ *   -Dverify.rounds=N     times over the batch, for timing (default 5)
+ *   -Dplayer.span=N and the rest, as SyntheticPlayer describes
+ */
+public final class VerifyAttempts {
+	
+	private static final int CHUNK = 1024;		// Attempts a fork/join task checks.
+	private static final int LEVELS = 4;
+	
+	public static void main(String[] args) throws IOException {
+		int threads = Integer.getInteger("verify.threads", Runtime.getRuntime().availableProcessors());
+		int rounds = Integer.getInteger("verify.rounds", 5);
+		
+		if (args.length > 0) {
+			List<File> files = new ArrayList<File>();
+			for (String arg : args) collect(new File(arg), files);
+			MoveVerifier verifier = new MoveVerifier();
+			int illegal = 0;
+			for (File file : files) {
+				List<MoveVerifier.Attempt> attempts = MoveVerifier.Attempt.fromRecording(GameRecording.open(file));
+				for (int i = 0; i < attempts.size(); i++) {
+					MoveVerifier.Verdict verdict = verifier.verify(attempts.get(i));
+					if (!verdict.isLegal()) illegal++;
+					System.out.println(file + " game " + (i + 1) + ": " + verdict);
+				}
+			}
+			System.exit(Math.min(illegal, 100));
+		}
+		
+		int games = Integer.getInteger("verify.games", 100000);
+		long seed = Long.getLong("verify.seed", 1978);
+		double tamper = Double.parseDouble(System.getProperty("verify.tamper", "0.1"));
+		SyntheticPlayer player = SyntheticPlayer.fromProperties();
+		
+		System.out.println("Player: " + player);
+		long start = System.nanoTime();
+		Batch batch = new Batch(games);
+		batch.play(player, seed, tamper);
+		System.out.println(String.format(Locale.US, "Made %d attempts (%d moves, %d tampered with) in %.1f s",
+				games, batch.moves, batch.tampered, (System.nanoTime() - start) / 1e9));
+		
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		for (int round = 0; round < rounds; round++) {
+			long single = time(batch, null);
+			long parallel = time(batch, pool);
+			System.out.println(String.format(Locale.US, "Round %d:  %,.0f attempts/s on one thread, %,.0f on %d",
+					round + 1, games * 1e9 / single, games * 1e9 / parallel, threads));
+		}
+		
+		int wrong = batch.check();
+		System.exit(Math.min(wrong, 100));
+	}
+	
+	/* Check the whole batch, on the pool or on this thread alone, and return how long it took. */
+	private static long time(Batch batch, ForkJoinPool pool) {
+		long start = System.nanoTime();
+		if (pool == null) new Chunks(batch, 0, batch.attempts.length).compute();
+		else pool.invoke(new Chunks(batch, 0, batch.attempts.length));
+		return System.nanoTime() - start;
+	}
+	
+	/* Attempts from first up to but not including last. */
+	private static final class Chunks extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final Batch batch;
+		private final int first;
+		private final int last;
+		
+		Chunks(Batch batch, int first, int last) {
+			this.batch = batch;
+			this.first = first;
+			this.last = last;
+		}
+		
+		@Override
+		protected void compute() {
+			if (last - first <= CHUNK) {
+				MoveVerifier verifier = new MoveVerifier();
+				for (int i = first; i < last; i++) verifier.verify(batch.attempts[i], batch.verdicts[i]);
+				return;
+			}
+			int middle = (first + last) >>> 1;
+			invokeAll(new Chunks(batch, first, middle), new Chunks(batch, middle, last));
+		}
+	}
+	
+	/* The attempts, what the engine made of each, and the verdicts. */
+	private static final class Batch {
+		final MoveVerifier.Attempt[] attempts;
+		final MoveVerifier.Verdict[] verdicts;
+		final boolean[] won;
+		final int[] lengths;
+		final boolean[] tamperedWith;
+		long moves;
+		int tampered;
+		
+		Batch(int size) {
+			attempts = new MoveVerifier.Attempt[size];
+			verdicts = new MoveVerifier.Verdict[size];
+			won = new boolean[size];
+			lengths = new int[size];
+			tamperedWith = new boolean[size];
+			for (int i = 0; i < size; i++) verdicts[i] = new MoveVerifier.Verdict();
+		}
+		
+		/* Play and record the games, a cell of game and level at a time. */
+		void play(SyntheticPlayer player, long seed, double tamper) throws IOException {
+			Random random = new Random(seed);
+			int cells = ScoreBook.GAMES * LEVELS;
+			int made = 0;
+			for (int cell = 0; cell < cells; cell++) {
+				int count = (attempts.length - made) / (cells - cell);
+				VirtualScheduler scheduler = new VirtualScheduler();
+				SimonEngine engine = new SimonEngine(scheduler, scheduler, new SilentAudioSink());
+				engine.setGame(cell / LEVELS + 1);
+				engine.setLevel(cell % LEVELS + 1);
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				GameRecorder recorder = new GameRecorder(Channels.newChannel(bytes));
+				recorder.attach(engine);
+				for (int i = 0; i < count; i++) {
+					playGame(engine, scheduler, player, random);
+					won[made + i] = engine.isWon();
+					lengths[made + i] = engine.getSequenceLength();
+				}
+				recorder.close();
+				
+				List<MoveVerifier.Attempt> played = MoveVerifier.Attempt.fromRecording(
+						new GameRecording(ByteBuffer.wrap(bytes.toByteArray())));
+				if (played.size() != count) throw new IllegalStateException(played.size() + " games recorded, not " + count);
+				for (int i = 0; i < count; i++, made++) {
+					MoveVerifier.Attempt attempt = played.get(i);
+					attempts[made] = attempt.setClaimedLength(lengths[made]);
+					moves += attempt.getPresses().length();
+					if (random.nextDouble() < tamper) {
+						tamperWith(attempt, random);
+						tamperedWith[made] = true;
+						tampered++;
+					}
+				}
+			}
+		}
+		
+		/* A press changed, or a longer length claimed. */
+		private void tamperWith(MoveVerifier.Attempt attempt, Random random) {
+			PackedSequence presses = attempt.getPresses();
+			if (presses.length() > 0 && random.nextBoolean()) {
+				int move = random.nextInt(presses.length());
+				presses.set(move, (presses.get(move) + 1 + random.nextInt(3)) & 3);
+			} else {
+				attempt.setClaimedLength(attempt.claimedLength + 1);
+			}
+		}
+		
+		/* Print how the verdicts went, and return how many honest attempts came out wrong. */
+		int check() {
+			int wrong = 0;
+			int caught = 0;
+			int wins = 0;
+			for (int i = 0; i < attempts.length; i++) {
+				MoveVerifier.Verdict verdict = verdicts[i];
+				if (tamperedWith[i]) {
+					if (!verdict.isLegal()) caught++;
+					continue;
+				}
+				if (verdict.isWon()) wins++;
+				if (!verdict.isLegal() || verdict.isWon() != won[i] || verdict.getLength() != lengths[i]) {
+					if (wrong++ < 10) {
+						MoveVerifier.Attempt attempt = attempts[i];
+						System.out.println("Attempt " + i + " (game " + attempt.getGame() + " level " + attempt.getLevel()
+								+ " seed " + attempt.getSeed() + "): " + verdict + ", but the engine "
+								+ (won[i] ? "won" : "didn't win") + " at length " + lengths[i]);
+					}
+				}
+			}
+			int honest = attempts.length - tampered;
+			System.out.println(String.format(Locale.US, "%d of %d honest attempts verified as the engine played them (%d won);"
+					+ " %d of %d tampered with caught", honest - wrong, honest, wins, caught, tampered));
+			return wrong;
+		}
+	}
+	
+	private static void playGame(SimonEngine engine, VirtualScheduler scheduler, SyntheticPlayer player, Random random) {
+		engine.gameStart(random.nextLong());
+		while (!engine.isFinished()) {
+			if (!engine.isListening()) {
+				if (!scheduler.runNext()) break;
+				continue;
+			}
+			scheduler.advanceBy(player.reactionMillis(random));
+			if (!engine.isListening()) continue;		// Too slow:  Simon moved on without us.
+			int button = player.choose(engine, random);
+			engine.pressButton(button);
+			scheduler.advanceBy(player.hold);
+			engine.releaseButton(button);
+		}
+		while (scheduler.runNext()) {
+			// Let the win or the razz play out.
+		}
+	}
+	
+	private static void collect(File file, List<File> files) {
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			if (children == null) return;
+			Arrays.sort(children);
+			for (File child : children) collect(child, files);
+		} else {
+			files.add(file);
+		}
+	}
+}
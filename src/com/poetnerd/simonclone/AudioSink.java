@@ -0,0 +1,49 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * AudioSink
+ * 
+ * Where the game engine sends its sounds.  There is only ever one sound playing:
+ * Starting a new one stops the old one, just like the single speaker in the real game.
+ * 
+ * A sink may need time to get its sounds ready.  Until isReady(), play() may be silent,
+ * so the engine holds off starting anything and asks to be told with whenReady().
+ */
+public interface AudioSink {
+	
+	/* Names for the sounds we make.  The four colors come first so a button index
+	 * can be used as a sound directly. */
+	
+	public static final int GREEN = 0;
+	public static final int RED = 1;
+	public static final int YELLOW = 2;
+	public static final int BLUE = 3;
+	public static final int VICTORY_SOUND = 4;
+	public static final int LOSE_SOUND = 5;
+	public static final int SPECIAL_RAZZ = 6;
+	
+	public static final int SOUND_COUNT = 7;
+	
+	void play(int sound);
+	
+	void stop();
+	
+	boolean isReady();
+	
+	/* Run action on the engine's thread once every sound is ready; right away if they are.
+	 * An action still waiting is replaced. */
+	void whenReady(Runnable action);
+	
+	void release();
+}
@@ -0,0 +1,148 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.util.concurrent.locks.LockSupport;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Process;
+
+/*
+ * AudioTrackAudioSink
+ * 
+ * Plays the game's sounds from a ToneSynth, through a streaming AudioTrack fed by a thread
+ * of our own.  Nothing to load or decode, and a sound starts within one small buffer of
+ * being asked for instead of whenever SoundPool gets round to it.
+ * 
+ * The track keeps running between sounds, so tones follow each other without a gap.  After
+ * a second of silence it is paused and the thread parks until the next sound.
+ * 
+ * Start latency -- from play() to the sound's first sample leaving the track, as near as
+ * the track's playback position tells us -- goes into the histogram we're given, in
+ * microseconds.  Lock the histogram to read it.
+ */
+final class AudioTrackAudioSink implements AudioSink {
+	
+	private static final int SAMPLE_RATE = 22050;
+	private static final int BLOCK_FRAMES = 256;		// About 12 ms.
+	private static final int IDLE_FRAMES = SAMPLE_RATE;	// A second.
+	
+	private final ToneSynth synth = new ToneSynth(SAMPLE_RATE);
+	private final Histogram startLatency;
+	private final AudioTrack track;
+	private final AudioThread thread;
+	
+	public AudioTrackAudioSink(Histogram startLatency) {
+		this.startLatency = startLatency;
+		int minBytes = AudioTrack.getMinBufferSize(SAMPLE_RATE, AudioFormat.CHANNEL_CONFIGURATION_MONO,
+				AudioFormat.ENCODING_PCM_16BIT);
+		track = new AudioTrack(AudioManager.STREAM_MUSIC, SAMPLE_RATE, AudioFormat.CHANNEL_CONFIGURATION_MONO,
+				AudioFormat.ENCODING_PCM_16BIT, Math.max(minBytes, BLOCK_FRAMES * 2 * 2), AudioTrack.MODE_STREAM);
+		thread = new AudioThread();
+		thread.start();
+	}
+
+	public void play(int sound) {
+		synth.play(sound, System.nanoTime());	// The synth cuts off whatever we were playing.
+		LockSupport.unpark(thread);
+	}
+
+	public void stop() {
+		synth.stop();
+		LockSupport.unpark(thread);
+	}
+	
+	/* Nothing to load. */
+	public boolean isReady() {
+		return true;
+	}
+	
+	public void whenReady(Runnable action) {
+		action.run();
+	}
+	
+	public void release() {
+		thread.finish();
+		track.release();
+	}
+	
+	private final class AudioThread extends Thread {
+		private volatile boolean running = true;
+		private final short[] block = new short[BLOCK_FRAMES];
+		private long written;		// Frames, since the track last started.
+		private long headBase;		// The track's position when it last started.
+		private int silentFrames;
+		
+		AudioThread() {
+			super("AudioTrackAudioSink");
+		}
+		
+		@Override
+		public void run() {
+			Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+			if (track.getState() != AudioTrack.STATE_INITIALIZED) return;
+			boolean playing = false;
+			while (running) {
+				if (synth.isIdle() && (!playing || silentFrames >= IDLE_FRAMES)) {
+					if (playing) {
+						track.pause();
+						track.flush();
+						playing = false;
+					}
+					LockSupport.park(this);
+					continue;
+				}
+				if (!playing) {
+					track.play();
+					playing = true;
+					written = 0;
+					headBase = track.getPlaybackHeadPosition() & 0xffffffffL;
+					silentFrames = 0;
+				}
+				
+				synth.render(block, 0, BLOCK_FRAMES);
+				silentFrames = synth.isIdle() ? silentFrames + BLOCK_FRAMES : 0;
+				
+				long asked = synth.getStartedNanos();
+				if (asked >= 0) {
+					long played = (track.getPlaybackHeadPosition() & 0xffffffffL) - headBase;
+					long ahead = written - played + synth.getStartedFrame();
+					long latency = System.nanoTime() - asked + ahead * 1000000000L / SAMPLE_RATE;
+					synchronized (startLatency) {
+						startLatency.record(latency / 1000);
+					}
+				}
+				
+				track.write(block, 0, BLOCK_FRAMES);
+				written += BLOCK_FRAMES;
+			}
+			if (playing) track.stop();
+		}
+		
+		/* Stop, and wait until we have. */
+		void finish() {
+			running = false;
+			LockSupport.unpark(this);
+			boolean interrupted = false;
+			while (isAlive()) {
+				try {
+					join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+/*
+ * ButtonAtlas
+ * 
+ * All eight button images, decoded at the size they are drawn and packed into one bitmap:
+ * one row per button, off in the left column and on in the right.
+ * 
+ * The images are big, and the board is usually a good deal smaller, so we decode each one
+ * subsampled by the largest power of two that still leaves it at least as big as a button,
+ * and then scale it the rest of the way.  Only the atlas stays resident.
+ * 
+ * Atlases are shared.  Every ButtonGridView of the same size draws from the same one, and the
+ * most recent atlas is kept after its last view lets go, so the new view made after a
+ * configuration change finds it already built.  An atlas of another size replaces it once
+ * nobody is using it.
+ */
+public final class ButtonAtlas {
+	
+	private static final int[] OFF_IDS = {
+		R.drawable.ex_green_off, R.drawable.ex_red_off, R.drawable.ex_yellow_off, R.drawable.ex_blue_off
+	};
+	private static final int[] ON_IDS = {
+		R.drawable.ex_green_on, R.drawable.ex_red_on, R.drawable.ex_yellow_on, R.drawable.ex_blue_on
+	};
+	
+	public static final int BUTTON_COUNT = ON_IDS.length;
+	
+	private static ButtonAtlas cached;		// Only touched from the UI thread.
+	
+	private final int buttonSize;
+	private final Bitmap bitmap;
+	private final Rect[] offRects = new Rect[BUTTON_COUNT];
+	private final Rect[] onRects = new Rect[BUTTON_COUNT];
+	private int users;
+	
+	/*
+	 * obtain
+	 * 
+	 * An atlas with buttons buttonSize pixels square, building it if need be.
+	 * Hand it back with release() when done.
+	 */
+	public static ButtonAtlas obtain(Resources resources, int buttonSize) {
+		if (cached != null && cached.buttonSize == buttonSize && !cached.bitmap.isRecycled()) {
+			cached.users++;
+			return cached;
+		}
+		ButtonAtlas atlas = new ButtonAtlas(resources, buttonSize);
+		if (cached == null || cached.users == 0) {
+			if (cached != null) cached.bitmap.recycle();
+			cached = atlas;
+		}
+		atlas.users++;
+		return atlas;
+	}
+	
+	public void release() {
+		if (users == 0) return;
+		users--;
+		if (users == 0 && this != cached) bitmap.recycle();
+	}
+	
+	/* The bytes held by the shared atlas, for the memory report. */
+	public static long residentBytes() {
+		if (cached == null || cached.bitmap.isRecycled()) return 0;
+		return cached.getByteCount();
+	}
+	
+	private ButtonAtlas(Resources resources, int buttonSize) {
+		this.buttonSize = buttonSize;
+		bitmap = Bitmap.createBitmap(buttonSize * 2, buttonSize * BUTTON_COUNT, Bitmap.Config.ARGB_8888);
+		
+		Canvas canvas = new Canvas(bitmap);
+		Rect dst = new Rect();
+		for (int i = 0; i < BUTTON_COUNT; i++) {
+			int top = i * buttonSize;
+			offRects[i] = new Rect(0, top, buttonSize, top + buttonSize);
+			onRects[i] = new Rect(buttonSize, top, buttonSize * 2, top + buttonSize);
+			
+			Bitmap off = decode(resources, OFF_IDS[i], buttonSize);
+			dst.set(offRects[i]);
+			canvas.drawBitmap(off, null, dst, null);
+			off.recycle();
+			
+			Bitmap on = decode(resources, ON_IDS[i], buttonSize);
+			dst.set(onRects[i]);
+			canvas.drawBitmap(on, null, dst, null);
+			on.recycle();
+		}
+	}
+	
+	/* Decode a resource no bigger than it needs to be to fill size pixels. */
+	private static Bitmap decode(Resources resources, int id, int size) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inScaled = false;		// We do our own scaling.
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeResource(resources, id, options);
+		
+		options.inSampleSize = sampleSize(Math.min(options.outWidth, options.outHeight), size);
+		options.inJustDecodeBounds = false;
+		return BitmapFactory.decodeResource(resources, id, options);
+	}
+	
+	/* The largest power of two by which we can shrink from source and still cover target. */
+	static int sampleSize(int source, int target) {
+		int sample = 1;
+		if (target <= 0) return sample;
+		while (source / (sample * 2) >= target) {
+			sample *= 2;
+		}
+		return sample;
+	}
+	
+	public Bitmap getBitmap() {
+		return bitmap;
+	}
+	
+	public int getButtonSize() {
+		return buttonSize;
+	}
+	
+	/* Where in the atlas to find a button; the same Rect every time, so drawing needn't allocate. */
+	public Rect getSource(int button, boolean on) {
+		return on ? onRects[button] : offRects[button];
+	}
+	
+	public long getByteCount() {
+		return (long) bitmap.getRowBytes() * bitmap.getHeight();	// Bitmap.getByteCount() is API 12.
+	}
+}
@@ -0,0 +1,197 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.util.FloatMath;
+import android.view.MotionEvent;
+import android.view.View.MeasureSpec;
+
+/*
+ * ButtonBoard
+ * 
+ * What the two board views have in common: where the buttons go, how to draw them from
+ * the atlas, which button a touch lands on (the TouchTracker does the rest), and the
+ * bookkeeping of what has been drawn.
+ * ButtonGridView draws it on the main thread; ButtonSurfaceView on a render thread of its
+ * own.  Either way, drawing goes by a light state from SimonEngine.getLightState(), never
+ * by asking the engine, so it is safe off the main thread.
+ */
+final class ButtonBoard {
+
+	// measurements
+	
+	private static final int BUTTON_GRID_SIZE = 2;
+	
+	static final int BUTTON_COUNT = ButtonAtlas.BUTTON_COUNT;
+	
+	private static final float BUTTON_PADDING = 0.01f;
+	
+	private static final float BUTTON_CELL_SIZE = 1.0f / BUTTON_GRID_SIZE;
+	
+	private static final int PREFERRED_SIZE = 300;
+	
+	private static final Metrics.Distribution DRAW_MICROS = Metrics.distribution("board.drawMicros");
+	
+	private float scale;
+	
+	private int buttonSize;
+	
+	/* Where each button goes, in pixels.  Worked out once per size, in layout(). */
+	private final Rect[] buttonRects = new Rect[BUTTON_COUNT];
+	
+	/* The button images at exactly the size they are drawn, shared with other boards. */
+	private ButtonAtlas atlas;
+	
+	// timing trace
+	
+	private ToneTracer toneTracer;
+	private TouchLatency touchLatency;
+	private FrameStats frameStats;
+	private int drawnMask;
+	
+	private final TouchTracker touches = new TouchTracker(this);
+	
+	ButtonBoard() {
+		for (int i = 0; i < BUTTON_COUNT; i++) {
+			buttonRects[i] = new Rect();
+		}
+	}
+	
+	/* A square as big as we're allowed. */
+	static int measure(int widthMeasureSpec, int heightMeasureSpec) {
+		return Math.min(chooseDimension(widthMeasureSpec), chooseDimension(heightMeasureSpec));
+	}
+	
+	private static int chooseDimension(int measureSpec) {
+		int mode = MeasureSpec.getMode(measureSpec);
+		if (mode == MeasureSpec.AT_MOST || mode == MeasureSpec.EXACTLY) {
+			return MeasureSpec.getSize(measureSpec);
+		} else { // (mode == MeasureSpec.UNSPECIFIED)
+			return PREFERRED_SIZE;
+		} 
+	}
+	
+	/* Lay the buttons out on a board width pixels square. */
+	void layout(Resources resources, int width) {
+		scale = width;
+		buttonSize = (int) ((BUTTON_CELL_SIZE - BUTTON_PADDING * 2) * scale);
+		for (int row = 0; row < BUTTON_GRID_SIZE; ++row) {
+			for (int col = 0; col < BUTTON_GRID_SIZE; ++col) {
+				int left = (int) ((col * BUTTON_CELL_SIZE + BUTTON_PADDING) * scale);
+				int top = (int) ((row * BUTTON_CELL_SIZE + BUTTON_PADDING) * scale);
+				buttonRects[getButtonIndex(row, col)].set(left, top, left + buttonSize, top + buttonSize);
+			}
+		}
+		obtainAtlas(resources);
+	}
+	
+	/*
+	 * The images are decoded once we know how big to make them, in layout(),
+	 * and let go of when the view leaves the window.
+	 */
+	void obtainAtlas(Resources resources) {
+		if (atlas != null && atlas.getButtonSize() == buttonSize) return;
+		releaseAtlas();
+		if (buttonSize > 0) atlas = ButtonAtlas.obtain(resources, buttonSize);
+	}
+	
+	void releaseAtlas() {
+		if (atlas != null) {
+			atlas.release();
+			atlas = null;
+		}
+	}
+	
+	Rect getButtonRect(int index) {
+		return buttonRects[index];
+	}
+	
+	void setToneTracer(ToneTracer toneTracer) {
+		this.toneTracer = toneTracer;
+	}
+	
+	void setTouchLatency(TouchLatency touchLatency) {
+		this.touchLatency = touchLatency;
+		touches.setTouchLatency(touchLatency);
+	}
+	
+	void setFrameStats(FrameStats frameStats) {
+		this.frameStats = frameStats;
+	}
+	
+	/*
+	 * draw
+	 * 
+	 * Runs for every frame, so it must not allocate.  Draws just the buttons inside clip,
+	 * each straight from the atlas, then notes how long the lights took to get here.
+	 */
+	void draw(Canvas canvas, Rect clip, SimonEngine model, long lightState) {
+		long drawStart = Metrics.isEnabled() ? System.nanoTime() : 0;
+		if (frameStats != null) frameStats.beginFrame();
+		
+		int mask = SimonEngine.lightMask(lightState);
+		if (atlas != null) {
+			Bitmap bitmap = atlas.getBitmap();
+			for (int i = 0; i < BUTTON_COUNT; i++) {
+				Rect rect = buttonRects[i];
+				if (!Rect.intersects(clip, rect)) continue;
+				canvas.drawBitmap(bitmap, atlas.getSource(i, (mask & (1 << i)) != 0), rect, null);
+			}
+		}
+		
+		if (mask != drawnMask) {
+			long now = System.nanoTime();
+			if (frameStats != null) frameStats.recordLatency(now - model.lightChangeNanos(lightState));
+			if (toneTracer != null || touchLatency != null) traceRendered(mask, now);
+			drawnMask = mask;
+		}
+		if (frameStats != null) frameStats.endFrame();
+		if (drawStart != 0) DRAW_MICROS.record((System.nanoTime() - drawStart) / 1000);
+		StartupTrace.frameDrawn();
+	}
+	
+	/* Tell the tracers about any button we've just drawn in a new state. */
+	private void traceRendered(int mask, long now) {
+		int changed = mask ^ drawnMask;
+		for (int i = 0; i < BUTTON_COUNT; i++) {
+			if ((changed & (1 << i)) == 0) continue;
+			boolean on = (mask & (1 << i)) != 0;
+			if (toneTracer != null) toneTracer.onRendered(i, on, now);
+			if (touchLatency != null) touchLatency.onRendered(i, on, now);
+		}
+	}
+	
+	private int getButtonIndex(int row, int col) {
+		return row * BUTTON_GRID_SIZE + col;
+	}
+	
+	boolean onTouchEvent(MotionEvent event, SimonEngine model) {
+		return touches.onTouchEvent(event, model);
+	}
+
+	/* The button under x, y; or -1 if it's off the board. */
+	int getButtonAt(float x, float y) {
+		if (x < 0 || y < 0 || x >= scale || y >= scale) return -1;
+		
+		float scaledX = x / scale;
+		float scaledY = y / scale;
+		
+		float buttonCellX = FloatMath.floor(scaledX / BUTTON_CELL_SIZE); 
+		float buttonCellY = FloatMath.floor(scaledY / BUTTON_CELL_SIZE);
+		
+		return getButtonIndex((int) buttonCellY, (int) buttonCellX);
+	}
+}
@@ -0,0 +1,29 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * ButtonBoardView
+ * 
+ * A view that shows the board and takes presses on it.  ButtonGridView draws on the main
+ * thread, ButtonSurfaceView on a thread of its own.
+ */
+public interface ButtonBoardView {
+	void setSimonCloneModel(SimonEngine model);
+	
+	void setToneTracer(ToneTracer toneTracer);
+	
+	void setTouchLatency(TouchLatency touchLatency);
+	
+	/* Measure every frame drawn from now on. */
+	void setFrameStats(FrameStats frameStats);
+}
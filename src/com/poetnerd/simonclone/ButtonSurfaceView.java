@@ -0,0 +1,207 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.util.concurrent.locks.LockSupport;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.os.Process;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+/*
+ * ButtonSurfaceView
+ * 
+ * The board drawn on a render thread of its own, so the lights don't wait on whatever else
+ * the main thread is doing: dialogs, saving preferences, loading sounds.
+ * 
+ * The engine still runs on the main thread.  When it changes a light it tells us, and we
+ * wake the render thread, which reads the engine's light state -- one volatile word, no
+ * lock -- and draws the whole board from it.  Nothing is drawn while the lights stay as
+ * they are.  The thread lives from surfaceChanged() to surfaceDestroyed().
+ * 
+ * Touches still arrive on the main thread and go straight to the engine.
+ */
+public class ButtonSurfaceView extends SurfaceView implements ButtonBoardView, SimonEngine.Listener,
+		SurfaceHolder.Callback {
+
+	private final ButtonBoard board = new ButtonBoard();
+	
+	private final Rect surfaceBounds = new Rect();
+	
+	private RenderThread renderThread;		// Only touched from the main thread.
+	
+	// model
+	
+	private volatile SimonEngine model;
+
+	public ButtonSurfaceView(Context context, AttributeSet attrs, int defStyle) {
+		super(context, attrs, defStyle);
+		getHolder().addCallback(this);
+	}
+
+	public ButtonSurfaceView(Context context, AttributeSet attrs) {
+		super(context, attrs);
+		getHolder().addCallback(this);
+	}
+
+	public ButtonSurfaceView(Context context) {
+		super(context);
+		getHolder().addCallback(this);
+	}
+	
+	public void setSimonCloneModel(SimonEngine model) {
+		if (this.model != null) {
+			this.model.removeListener(this);
+		}
+		this.model = model;
+		if (model != null) {
+			model.addListener(this);
+		}
+		wake();
+	}
+	
+	public void setToneTracer(ToneTracer toneTracer) {
+		board.setToneTracer(toneTracer);
+	}
+	
+	public void setTouchLatency(TouchLatency touchLatency) {
+		board.setTouchLatency(touchLatency);
+	}
+	
+	public void setFrameStats(FrameStats frameStats) {
+		board.setFrameStats(frameStats);
+	}
+	
+	@Override
+	protected void onDetachedFromWindow() {
+		stopRendering();
+		board.releaseAtlas();
+		super.onDetachedFromWindow();
+	}
+
+	@Override
+	protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+		int chosenDimension = ButtonBoard.measure(widthMeasureSpec, heightMeasureSpec);
+		setMeasuredDimension(chosenDimension, chosenDimension);
+	}
+
+	@Override
+	public boolean onTouchEvent(MotionEvent event) {
+		return board.onTouchEvent(event, model);
+	}
+	
+	public void surfaceCreated(SurfaceHolder holder) {
+		// Nothing to draw until we know how big.
+	}
+	
+	public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+		stopRendering();		// The board is laid out only while nobody is drawing it.
+		board.layout(getContext().getResources(), Math.min(width, height));
+		surfaceBounds.set(0, 0, width, height);
+		renderThread = new RenderThread(holder);
+		renderThread.start();
+	}
+	
+	public void surfaceDestroyed(SurfaceHolder holder) {
+		stopRendering();		// We mustn't touch the surface after we return.
+	}
+	
+	private void stopRendering() {
+		if (renderThread == null) return;
+		renderThread.finish();
+		renderThread = null;
+	}
+	
+	private void wake() {
+		if (renderThread != null) LockSupport.unpark(renderThread);
+	}
+
+	@Override
+	public void buttonStateChanged(int index) {
+		wake();
+	}
+
+	@Override
+	public void multipleButtonStateChanged() {
+		wake();
+	}
+	
+	/*
+	 * RenderThread
+	 * 
+	 * Draws whenever the light state differs from what it last drew, and otherwise parks.
+	 * The engine publishes its light state before telling its listeners, and an unpark
+	 * that comes before the park isn't lost, so no change goes undrawn.
+	 */
+	private final class RenderThread extends Thread {
+		private final SurfaceHolder holder;
+		private volatile boolean running = true;
+		private boolean drawnAny;
+		private long drawnState;
+		
+		RenderThread(SurfaceHolder holder) {
+			super("ButtonSurfaceView");
+			this.holder = holder;
+		}
+		
+		@Override
+		public void run() {
+			Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+			while (running) {
+				SimonEngine model = ButtonSurfaceView.this.model;
+				if (model == null) {
+					LockSupport.park(this);
+					continue;
+				}
+				long state = model.getLightState();
+				if (drawnAny && state == drawnState) {
+					LockSupport.park(this);
+					continue;
+				}
+				Canvas canvas = holder.lockCanvas();
+				if (canvas == null) {		// The surface is going away.
+					LockSupport.park(this);
+					continue;
+				}
+				try {
+					canvas.drawColor(Color.BLACK);
+					board.draw(canvas, surfaceBounds, model, state);
+				} finally {
+					holder.unlockCanvasAndPost(canvas);
+				}
+				drawnAny = true;
+				drawnState = state;
+			}
+		}
+		
+		/* Stop, and wait until we have. */
+		void finish() {
+			running = false;
+			LockSupport.unpark(this);
+			boolean interrupted = false;
+			while (isAlive()) {
+				try {
+					join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+	}
+}
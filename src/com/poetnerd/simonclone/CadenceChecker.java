@@ -0,0 +1,232 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * CadenceChecker
+ * 
+ * Holds the lights to the original game's cadences and counts every one that strays
+ * by more than a tolerance.  ToneTracer shows how the timing is spread; this says
+ * whether it passes.  From the actual times the engine lit and darkened each button:
+ * 
+ *   beep     a played-back light, against .42, .32 or .22 s. for the length of the sequence
+ *   gap      between played-back lights, against .05 s.
+ *   pause    from the player's last release to the first tone after it, against the
+ *            TimingProfile's pause, or its win pause for the winning tone and the razz
+ *   win      the winning tone's beeps, .02 s. then .07 s., against .02 s. gaps
+ *   razz     the razz's beeps, .05 s. then .1 s., against .05 s. gaps
+ * 
+ * On a VirtualScheduler everything should land exactly, with no tolerance at all.
+ * Everything is reported from the engine's thread, but a report may be asked for
+ * from anywhere, so what touches the counts is synchronized.
+ */
+public final class CadenceChecker extends EngineProbe {
+	
+	/* What we check. */
+	private static final int BEEP = 0;
+	private static final int GAP = 1;
+	private static final int PAUSE = 2;
+	private static final int WIN_BEEP = 3;
+	private static final int WIN_GAP = 4;
+	private static final int RAZZ_BEEP = 5;
+	private static final int RAZZ_GAP = 6;
+	private static final int KINDS = 7;
+	private static final String[] KIND_NAMES = { "beep", "gap", "pause", "win beep", "win gap",
+		"razz beep", "razz gap" };
+	
+	/* The original game's cadences, ms. */
+	private static final long SHORT_BEEP_MILLIS = 420;		// Sequences of up to 5.
+	private static final long MEDIUM_BEEP_MILLIS = 320;		// Up to 13.
+	private static final long LONG_BEEP_MILLIS = 220;		// Longer.
+	private static final long GAP_MILLIS = 50;
+	private static final long WIN_FIRST_MILLIS = 20;
+	private static final long WIN_MILLIS = 70;
+	private static final long WIN_GAP_MILLIS = 20;
+	private static final long RAZZ_FIRST_MILLIS = 50;
+	private static final long RAZZ_MILLIS = 100;
+	private static final long RAZZ_GAP_MILLIS = 50;
+	
+	private static final int FAILURES_KEPT = 16;
+	
+	private final SimonEngine engine;
+	private final long toleranceNanos;
+	
+	private final Histogram[] error = new Histogram[KINDS];
+	private final long[] checked = new long[KINDS];
+	private final long[] failed = new long[KINDS];
+	private final long[] worstNanos = new long[KINDS];
+	private final StringBuilder failures = new StringBuilder();
+	private int failuresKept;
+	
+	/* The run of lights we're in:  Which kind of beep, how many so far, and when the
+	 * last one went off.  A new mode starts a new run. */
+	private int runBeep = -1;
+	private int runCount;
+	private long onNanos = -1;
+	private long expectedOnMillis;
+	private long offNanos = -1;
+	private long releaseNanos = -1;		// The player's last release, if nothing has lit since.
+	private int mode;
+	
+	public CadenceChecker(SimonEngine engine, long toleranceMillis) {
+		this.engine = engine;
+		this.toleranceNanos = toleranceMillis * 1000000L;
+		for (int i = 0; i < KINDS; i++) error[i] = new Histogram();
+	}
+	
+	@Override
+	public synchronized void onModeChange(int mode) {
+		this.mode = mode;
+		runBeep = -1;
+		runCount = 0;
+		offNanos = -1;
+	}
+	
+	@Override
+	public synchronized void onLight(int button, boolean on, long scheduledNanos, long actualNanos) {
+		if (button >= SimonEngine.TOTAL_BUTTONS) return;
+		if (engine.isListening()) {		// The player's doing; the start of a pause if anything.
+			onNanos = -1;
+			releaseNanos = on ? -1 : actualNanos;
+			return;
+		}
+		
+		int beep = engine.isPlayingBack() ? BEEP : engine.isWinning() ? WIN_BEEP
+				: engine.isRazzing() ? RAZZ_BEEP : -1;
+		if (on) {
+			if (beep < 0) {
+				runBeep = -1;
+			} else {
+				if (runBeep == beep && offNanos >= 0) {
+					check(beep + 1, actualNanos - offNanos, gapMillis(beep));
+				} else if (releaseNanos >= 0) {
+					check(PAUSE, actualNanos - releaseNanos, pauseMillis(beep));
+				}
+				expectedOnMillis = beepMillis(beep, runBeep == beep ? runCount : 0);
+				runCount = runBeep == beep ? runCount + 1 : 1;
+				runBeep = beep;
+			}
+			onNanos = actualNanos;
+			releaseNanos = -1;
+		} else {
+			if (runBeep >= 0 && runBeep == beep && onNanos >= 0) {
+				check(beep, actualNanos - onNanos, expectedOnMillis);
+				offNanos = actualNanos;
+			}
+			onNanos = -1;
+		}
+	}
+	
+	private long beepMillis(int beep, int count) {
+		switch (beep) {
+		case WIN_BEEP:
+			return count == 0 ? WIN_FIRST_MILLIS : WIN_MILLIS;
+		case RAZZ_BEEP:
+			return count == 0 ? RAZZ_FIRST_MILLIS : RAZZ_MILLIS;
+		default:
+			return specBeepMillis(SimonEngine.isLongPlayingMode(mode) 
+					? engine.getLongestLength() : engine.getSequenceLength());
+		}
+	}
+	
+	/* The beep for a sequence of length, worked out here rather than asked of the engine,
+	 * so a wrong tier there counts as a stray. */
+	static long specBeepMillis(int length) {
+		if (length <= 5) return SHORT_BEEP_MILLIS;
+		if (length <= 13) return MEDIUM_BEEP_MILLIS;
+		return LONG_BEEP_MILLIS;
+	}
+	
+	private static long gapMillis(int beep) {
+		switch (beep) {
+		case WIN_BEEP:
+			return WIN_GAP_MILLIS;
+		case RAZZ_BEEP:
+			return RAZZ_GAP_MILLIS;
+		default:
+			return GAP_MILLIS;
+		}
+	}
+	
+	private long pauseMillis(int beep) {
+		TimingProfile timing = engine.getTiming();
+		int level = engine.getLevel();
+		return beep == BEEP ? timing.getPause(level) : timing.getWinPause(level);
+	}
+	
+	private void check(int kind, long actualNanos, long expectedMillis) {
+		long errorNanos = actualNanos - expectedMillis * 1000000L;
+		long size = Math.abs(errorNanos);
+		error[kind].record(errorNanos / 1000);
+		checked[kind]++;
+		if (size > worstNanos[kind]) worstNanos[kind] = size;
+		if (size <= toleranceNanos) return;
+		failed[kind]++;
+		if (failuresKept++ < FAILURES_KEPT) {
+			failures.append("  ").append(KIND_NAMES[kind]).append(' ').append(runCount)
+					.append(" of ").append(SimonEngine.modeName(mode)).append(": ")
+					.append(actualNanos / 1000 / 1000.0).append(" ms, not ").append(expectedMillis).append('\n');
+		}
+	}
+	
+	/* Start a new session. */
+	public synchronized void reset() {
+		for (int i = 0; i < KINDS; i++) {
+			error[i].reset();
+			checked[i] = 0;
+			failed[i] = 0;
+			worstNanos[i] = 0;
+		}
+		failures.setLength(0);
+		failuresKept = 0;
+		runBeep = -1;
+		runCount = 0;
+		onNanos = -1;
+		offNanos = -1;
+		releaseNanos = -1;
+	}
+	
+	public synchronized long getChecked() {
+		long total = 0;
+		for (int i = 0; i < KINDS; i++) total += checked[i];
+		return total;
+	}
+	
+	public synchronized long getFailures() {
+		long total = 0;
+		for (int i = 0; i < KINDS; i++) total += failed[i];
+		return total;
+	}
+	
+	/* True if something was checked and nothing strayed. */
+	public synchronized boolean isPassing() {
+		return getFailures() == 0 && getChecked() > 0;
+	}
+	
+	/* Each kind's count, failures, worst miss and spread in ms, then the first failures. */
+	public synchronized String report() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Cadence, ms (tolerance ").append(toleranceNanos / 1000 / 1000.0).append("):\n");
+		for (int i = 0; i < KINDS; i++) {
+			if (checked[i] == 0) continue;
+			sb.append("  ").append(KIND_NAMES[i]).append(": ").append(checked[i]).append(" checked, ")
+					.append(failed[i]).append(" failed, worst ").append(worstNanos[i] / 1000 / 1000.0)
+					.append(", error ").append(error[i].summary(1000)).append('\n');
+		}
+		if (failuresKept > 0) {
+			sb.append("First failures:\n").append(failures);
+			if (failuresKept > FAILURES_KEPT) sb.append("  and ").append(failuresKept - FAILURES_KEPT).append(" more\n");
+		}
+		sb.append(isPassing() ? "PASS\n" : "FAIL\n");
+		return sb.toString();
+	}
+}
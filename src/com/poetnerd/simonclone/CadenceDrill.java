@@ -0,0 +1,116 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.util.concurrent.Executor;
+
+/*
+ * CadenceDrill
+ * 
+ * Puts an engine through everything that has a cadence to keep, for a CadenceChecker
+ * to hold to the original game:  A game at the given level played without a miss, so
+ * sequences are played back after the player's pause and the winning tone follows;
+ * the longest sequence at a length in each tier of beep duration; and the razz.
+ * 
+ * The drill plays the part of the player, pressing and releasing each expected button
+ * one after another, the moment Simon starts listening.  It needs an engine of its own, since it sets the
+ * longest sequence, and an Executor that runs things later on the engine's thread:
+ * A Handler on the device, the event loop of whatever drives a VirtualScheduler.
+ */
+final class CadenceDrill extends EngineProbe {
+	
+	/* Lengths of the longest sequence to play back:  One in each tier of beep duration. */
+	static final int[] TIER_LENGTHS = { 5, 13, 31 };
+	
+	private static final int GAME = 0;
+	private static final int TIERS = GAME + 1;
+	private static final int RAZZ = TIERS + TIER_LENGTHS.length;
+	
+	private final SimonEngine engine;
+	private final Executor executor;
+	private final CadenceChecker checker;
+	private int level;
+	private long seed;
+	private Runnable whenDone;
+	private int step;
+	private boolean waiting;		// For the engine to come to rest after the step.
+	
+	/* Press and release the next button, and go on until Simon stops listening. */
+	private final Runnable press = new Runnable() {
+		public void run() {
+			if (!engine.isListening()) return;
+			int button = engine.getExpectedButton();
+			engine.pressButton(button);
+			engine.releaseButton(button);
+			if (engine.isListening()) executor.execute(this);
+		}
+	};
+	
+	CadenceDrill(SimonEngine engine, Executor executor, CadenceChecker checker) {
+		this.engine = engine;
+		this.executor = executor;
+		this.checker = checker;
+	}
+	
+	/* Begin on the engine's thread.  whenDone runs there too, once the razz is over. */
+	void start(int level, long seed, Runnable whenDone) {
+		this.level = level;
+		this.seed = seed;
+		this.whenDone = whenDone;
+		engine.addProbe(this);
+		engine.addProbe(checker);
+		step = GAME;
+		next();
+	}
+	
+	CadenceChecker getChecker() {
+		return checker;
+	}
+	
+	private void next() {
+		waiting = false;
+		if (step == GAME) {
+			engine.setGame(1);
+			engine.setLevel(level);
+			engine.gameStart(seed);
+		} else if (step < RAZZ) {
+			int length = TIER_LENGTHS[step - TIERS];
+			PackedSequence longest = new PackedSequence(length);
+			for (int i = 0; i < length; i++) longest.set(i, (i * 3 + 1) & 3);	// No color twice running.
+			engine.setLongest(longest);
+			engine.playLongest();
+		} else if (step == RAZZ) {
+			engine.razzWin();
+		} else {
+			engine.removeProbe(checker);
+			engine.removeProbe(this);
+			if (whenDone != null) whenDone.run();
+			return;
+		}
+		step++;
+		waiting = true;
+	}
+	
+	@Override
+	public void onModeChange(int mode) {
+		if (engine.isListening()) {
+			executor.execute(press);
+		} else if (waiting && (engine.isIdle() || engine.isFinished())) {
+			waiting = false;
+			executor.execute(new Runnable() {
+				public void run() {
+					next();
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * Clock
+ * 
+ * The source of time for the game engine.  On the device this is the uptime clock
+ * that the Handler schedules against.  Off the device it can be a virtual clock
+ * that only moves when we tell it to, so a whole game can be run in no time at all.
+ */
+public interface Clock {
+	
+	/* Milliseconds on a monotonic time base.  Never goes backwards. */
+	long uptimeMillis();
+	
+	/* Nanoseconds on a monotonic time base, for measuring how late things happen. */
+	long nanoTime();
+}
@@ -0,0 +1,91 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * DeadlineQueue
+ * 
+ * The pending events of one Scheduler, ordered by when they are due.  Each class of
+ * event ("what") has at most one deadline; setting it again moves it.  A scheduler
+ * needs only one real wakeup, armed for nextDue(), however many events are pending,
+ * and none at all when the queue is empty.
+ * 
+ * Events due at the same moment come out in the order they were set.  There are only
+ * ever a handful of event classes, so a scan beats any heap.
+ */
+final class DeadlineQueue {
+	
+	static final int MAX_EVENTS = 8;
+	static final long NOT_PENDING = -1;
+	
+	private final long[] due = new long[MAX_EVENTS];
+	private final long[] order = new long[MAX_EVENTS];
+	private long setCount;
+	
+	DeadlineQueue() {
+		for (int i = 0; i < MAX_EVENTS; i++) {
+			due[i] = NOT_PENDING;
+		}
+	}
+	
+	void set(int what, long time) {
+		due[what] = time;
+		order[what] = setCount++;
+	}
+	
+	void clear(int what) {
+		due[what] = NOT_PENDING;
+	}
+	
+	boolean isPending(int what) {
+		return due[what] != NOT_PENDING;
+	}
+	
+	long dueTime(int what) {
+		return due[what];
+	}
+	
+	boolean isEmpty() {
+		return next() < 0;
+	}
+	
+	/* The time the earliest event is due, or NOT_PENDING. */
+	long nextDue() {
+		int next = next();
+		return next < 0 ? NOT_PENDING : due[next];
+	}
+	
+	/*
+	 * poll
+	 * 
+	 * Take the earliest event due at or before now off the queue and return it,
+	 * or return -1 if nothing is due yet.
+	 */
+	int poll(long now) {
+		int next = next();
+		if (next < 0 || due[next] > now) return -1;
+		due[next] = NOT_PENDING;
+		return next;
+	}
+	
+	/* The earliest pending event, or -1. */
+	int next() {
+		int next = -1;
+		for (int i = 0; i < MAX_EVENTS; i++) {
+			if (due[i] == NOT_PENDING) continue;
+			if (next < 0 || due[i] < due[next] || (due[i] == due[next] && order[i] < order[next])) {
+				next = i;
+			}
+		}
+		return next;
+	}
+}
@@ -0,0 +1,85 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * DeviceTiming
+ * 
+ * What this device does to our timing, as TimingCalibrator measured it, and what the
+ * engine does about it:
+ * 
+ *   tick lead    how late the main thread typically wakes for a delayed message, ms.
+ *                The engine asks to be woken this much early, so steps land on time.
+ *   sound lead   how long a sound typically takes from being asked for to being heard, ms.
+ *                The engine starts each played-back tone this much ahead of its light,
+ *                so both come on together.  No more than the .05 s. between tones.
+ * 
+ * Each is -1 until it has been measured, which the engine takes as 0.  They are measured
+ * on one build of the system, named by its fingerprint; when the system is updated they
+ * are measured again.  Like a TimingProfile, a DeviceTiming can't change.
+ */
+public final class DeviceTiming {
+	
+	public static final DeviceTiming NONE = new DeviceTiming("", -1, -1);
+	
+	static final long MAX_SOUND_LEAD = 50;		// The time between tones.
+	
+	private final String build;
+	private final long tickLead;
+	private final long soundLead;
+	
+	public DeviceTiming(String build, long tickLead, long soundLead) {
+		this.build = build;
+		this.tickLead = tickLead;
+		this.soundLead = Math.min(soundLead, MAX_SOUND_LEAD);
+	}
+	
+	public String getBuild() {
+		return build;
+	}
+	
+	/* True if measured on this build of the system. */
+	public boolean isFor(String build) {
+		return this.build.equals(build);
+	}
+	
+	public boolean isTickMeasured() {
+		return tickLead >= 0;
+	}
+	
+	public boolean isSoundMeasured() {
+		return soundLead >= 0;
+	}
+	
+	public long getTickLead() {
+		return Math.max(0, tickLead);
+	}
+	
+	public long getSoundLead() {
+		return Math.max(0, soundLead);
+	}
+	
+	public DeviceTiming withTickLead(long tickLead) {
+		return new DeviceTiming(build, tickLead, soundLead);
+	}
+	
+	public DeviceTiming withSoundLead(long soundLead) {
+		return new DeviceTiming(build, tickLead, soundLead);
+	}
+	
+	/* For logs:  "tick lead/sound lead", with "?" for what hasn't been measured. */
+	@Override
+	public String toString() {
+		return (isTickMeasured() ? String.valueOf(tickLead) : "?") + "/"
+				+ (isSoundMeasured() ? String.valueOf(soundLead) : "?");
+	}
+}
@@ -0,0 +1,60 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * EngineMetrics
+ * 
+ * The engine's hot paths, in Metrics:  How late each update() tick is, how many steps
+ * playNext() takes in each mode, sounds started and stopped, and how long it takes to
+ * tell the listeners about a change.  Attach it only while metrics are enabled; an
+ * engine with no probes does none of the timing.
+ */
+final class EngineMetrics extends EngineProbe {
+	
+	private final Metrics.Distribution tickLag = Metrics.distribution("engine.tickLagMicros");
+	private final Metrics.Counter[] steps = new Metrics.Counter[SimonEngine.MODE_COUNT];
+	private final Metrics.Counter sounds = Metrics.counter("engine.sounds");
+	private final Metrics.Counter soundStops = Metrics.counter("engine.soundStops");
+	private final Metrics.Distribution listeners = Metrics.distribution("engine.listenerNanos");
+	
+	EngineMetrics() {
+		for (int mode = 0; mode < steps.length; mode++) {
+			steps[mode] = Metrics.counter("engine.steps." + SimonEngine.modeName(mode));
+		}
+	}
+	
+	@Override
+	public void onTick(long scheduledNanos, long actualNanos) {
+		tickLag.record((actualNanos - scheduledNanos) / 1000);
+	}
+	
+	@Override
+	public void onStep(int mode) {
+		if (mode >= 0 && mode < steps.length) steps[mode].increment();
+	}
+	
+	@Override
+	public void onSound(int sound, long scheduledNanos, long actualNanos) {
+		sounds.increment();
+	}
+	
+	@Override
+	public void onSoundStop() {
+		soundStops.increment();
+	}
+	
+	@Override
+	public void onListenersTold(int count, long nanos) {
+		listeners.record(nanos);
+	}
+}
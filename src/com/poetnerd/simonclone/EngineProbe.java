@@ -0,0 +1,92 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * EngineProbe
+ * 
+ * Something that wants to watch the engine work:  Tracing, measurement and the like.
+ * Probes are told about every light and sound as it happens, with the time it was
+ * meant to happen and the time it did, both from Clock.nanoTime().  When a change
+ * comes straight from the player's touch rather than from a scheduled tick, the two
+ * times are the same.
+ * 
+ * Probes also hear about everything that comes into the engine -- the player's presses,
+ * the buttons and menus, the scheduled events it is woken for -- as it arrives, and about
+ * the colors it adds to the sequence and the modes it goes through.  Together those are
+ * enough to play a game over again exactly; see GameRecorder.  And they can watch the
+ * engine's own workings -- ticks, steps, listener calls -- to measure it; see EngineMetrics.
+ * 
+ * All the methods do nothing here, so a probe overrides only what it cares about.
+ * An engine with no probes doesn't so much as read the clock for them.
+ */
+public abstract class EngineProbe {
+	
+	/* The inputs, for onInput(). */
+	
+	public static final int PRESS = 0;			// argument: the button
+	public static final int RELEASE = 1;		// argument: the button
+	public static final int RELEASE_ALL = 2;
+	public static final int PLAY_LAST = 3;
+	public static final int PLAY_LONGEST = 4;
+	public static final int SET_GAME = 5;		// argument: the game
+	public static final int SET_LEVEL = 6;		// argument: the level
+	public static final int CLEAR_LONGEST = 7;
+	public static final int DISPATCH = 8;		// argument: the Scheduler event, about to be handled
+	
+	public static final int INPUT_COUNT = 9;
+	
+	public void onLight(int index, boolean on, long scheduledNanos, long actualNanos) {
+	}
+	
+	public void onSound(int sound, long scheduledNanos, long actualNanos) {
+	}
+	
+	public void onInput(int input, int argument) {
+	}
+	
+	/* A game is starting from seed.  (gameStart() is the one input with a long to it.) */
+	public void onGameStart(long seed) {
+	}
+	
+	/* The longest sequence has been set to longest, for playLongest() to play. */
+	public void onLongestSet(PackedSequence longest) {
+	}
+	
+	/* The engine now allows for the device's timing this way. */
+	public void onDeviceTiming(DeviceTiming timing) {
+	}
+	
+	/* The sequence has grown to index + 1 steps, the last being color. */
+	public void onColorAdded(int index, int color) {
+	}
+	
+	public void onModeChange(int mode) {
+	}
+	
+	/* For measuring the engine itself rather than the game. */
+	
+	/* An update() tick, due at scheduledNanos, has arrived. */
+	public void onTick(long scheduledNanos, long actualNanos) {
+	}
+	
+	/* playNext() is taking a step in mode. */
+	public void onStep(int mode) {
+	}
+	
+	public void onSoundStop() {
+	}
+	
+	/* Telling count listeners about a change took nanos. */
+	public void onListenersTold(int count, long nanos) {
+	}
+}
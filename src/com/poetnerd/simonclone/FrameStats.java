@@ -0,0 +1,105 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import android.os.Debug;
+
+/*
+ * FrameStats
+ * 
+ * How long frames take to draw, whether drawing them allocated anything, and how long
+ * after the lights changed they got drawn.  Wrap each frame in beginFrame() and endFrame(),
+ * on the thread that draws; report() may be called from any thread.  Allocations are counted with the
+ * VM's per-thread allocation counter, which start() switches on for the whole process,
+ * so only turn it on when measuring.
+ */
+public final class FrameStats {
+	
+	private final Histogram frameMicros = new Histogram();
+	private final Histogram latencyMicros = new Histogram();
+	private long frames;
+	private long allocatingFrames;
+	private long allocations;
+	
+	private volatile boolean countAllocations;
+	private long frameStart;
+	private int allocationsAtStart;
+	
+	/* Count allocations as well as time. */
+	public void start() {
+		countAllocations = true;
+		Debug.startAllocCounting();
+	}
+	
+	public void stop() {
+		countAllocations = false;
+		Debug.stopAllocCounting();
+	}
+	
+	public void beginFrame() {
+		if (countAllocations) allocationsAtStart = Debug.getThreadAllocCount();
+		frameStart = System.nanoTime();
+	}
+	
+	public synchronized void endFrame() {
+		long elapsed = System.nanoTime() - frameStart;
+		frameMicros.record(elapsed / 1000);
+		frames++;
+		if (countAllocations) {
+			int allocated = Debug.getThreadAllocCount() - allocationsAtStart;
+			if (allocated > 0) {
+				allocatingFrames++;
+				allocations += allocated;
+			}
+		}
+	}
+	
+	/* From a change of the lights to the frame that shows it. */
+	public synchronized void recordLatency(long nanos) {
+		latencyMicros.record(nanos / 1000);
+	}
+	
+	public Histogram getFrameMicros() {
+		return frameMicros;
+	}
+	
+	public Histogram getLatencyMicros() {
+		return latencyMicros;
+	}
+	
+	public long getFrames() {
+		return frames;
+	}
+	
+	public long getAllocatingFrames() {
+		return allocatingFrames;
+	}
+	
+	public synchronized void reset() {
+		frameMicros.reset();
+		latencyMicros.reset();
+		frames = 0;
+		allocatingFrames = 0;
+		allocations = 0;
+	}
+	
+	public synchronized String report() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Frames, us: ").append(frameMicros.summary(1));
+		sb.append("; light to frame, us: ").append(latencyMicros.summary(1));
+		if (countAllocations) {
+			sb.append("; ").append(allocatingFrames).append(" of ").append(frames)
+				.append(" frames allocated, ").append(allocations).append(" objects");
+		}
+		return sb.toString();
+	}
+}
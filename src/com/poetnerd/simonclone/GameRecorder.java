@@ -0,0 +1,238 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/*
+ * GameRecorder
+ * 
+ * Writes down everything that happens to an engine, as it happens, in the compact form
+ * GameRecording describes: every input, so the game can be played again exactly, and
+ * every color, light, sound and mode, so the replay can be checked.
+ * 
+ * Events are encoded into a buffer on the engine's thread.  A full buffer is handed to a
+ * writer thread, which puts it to the channel, and the engine carries on in a fresh one;
+ * it never waits on the disk.  If the writer falls behind, we make more buffers rather
+ * than wait.  If the channel fails, recording stops, and close() says why.
+ */
+public final class GameRecorder extends EngineProbe {
+	
+	private static final int BUFFER_SIZE = 4096;
+	private static final int MAX_EVENT = 1 + 10 + 10 + 10;	// Kind, time and the widest arguments.
+	private static final int MAX_HEAD = 1 + 10;				// Kind and time.
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+	
+	private final WritableByteChannel channel;
+	private final LinkedBlockingQueue<ByteBuffer> full = new LinkedBlockingQueue<ByteBuffer>();
+	private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final Thread writer;
+	private volatile IOException failure;
+	
+	private SimonEngine engine;
+	private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private long lastMillis;
+	private long events;
+	
+	public GameRecorder(WritableByteChannel channel) {
+		this.channel = channel;
+		writer = new Thread("GameRecorder") {
+			@Override
+			public void run() {
+				writeBuffers();
+			}
+		};
+		writer.start();
+	}
+	
+	/* Start recording engine, which should be at rest. */
+	public void attach(SimonEngine engine) {
+		if (this.engine != null) throw new IllegalStateException("Already recording");
+		this.engine = engine;
+		lastMillis = engine.getClock().uptimeMillis();
+		
+		PackedSequence longest = engine.getLongest();
+		byte[] packed = longest.toBytes();
+		ByteBuffer header = ByteBuffer.allocate(GameRecording.MAGIC.length + 1 + 10 * 6 + packed.length);	// Six varints.
+		header.put(GameRecording.MAGIC);
+		header.put((byte) GameRecording.FORMAT_VERSION);
+		putVarlong(header, lastMillis);
+		putVarlong(header, engine.getGame());
+		putVarlong(header, engine.getLevel());
+		putVarlong(header, packed.length);
+		header.put(packed);
+		putVarlong(header, engine.getDeviceTiming().getTickLead());
+		putVarlong(header, engine.getDeviceTiming().getSoundLead());
+		header.flip();
+		full.add(header);
+		
+		engine.addProbe(this);
+	}
+	
+	public void detach() {
+		if (engine == null) return;
+		engine.removeProbe(this);
+		engine = null;
+	}
+	
+	/* How many events so far. */
+	public long getEvents() {
+		return events;
+	}
+	
+	/* Hand what we have to the writer now rather than when the buffer fills. */
+	public void flush() {
+		if (buffer.position() == 0) return;
+		handOff();
+	}
+	
+	/* Stop recording, and wait for everything to be written. */
+	public void close() throws IOException {
+		detach();
+		flush();
+		full.add(END);
+		boolean interrupted = false;
+		while (writer.isAlive()) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+		channel.close();
+		if (failure != null) throw failure;
+	}
+	
+	@Override
+	public void onInput(int input, int argument) {
+		ByteBuffer out = begin(input);
+		if (out == null) return;
+		putVarlong(out, ((argument << 1) ^ (argument >> 31)) & 0xffffffffL);
+	}
+	
+	@Override
+	public void onGameStart(long seed) {
+		ByteBuffer out = begin(GameRecording.GAME_START);
+		if (out == null) return;
+		out.putLong(seed);
+	}
+	
+	@Override
+	public void onLongestSet(PackedSequence longest) {
+		byte[] packed = longest.toBytes();
+		ByteBuffer out = begin(GameRecording.LONGEST, MAX_HEAD + 5 + packed.length);
+		if (out == null) return;
+		putVarlong(out, packed.length);
+		out.put(packed);
+	}
+	
+	@Override
+	public void onDeviceTiming(DeviceTiming timing) {
+		ByteBuffer out = begin(GameRecording.DEVICE_TIMING);
+		if (out == null) return;
+		putVarlong(out, timing.getTickLead());
+		putVarlong(out, timing.getSoundLead());
+	}
+	
+	@Override
+	public void onColorAdded(int index, int color) {
+		ByteBuffer out = begin(GameRecording.COLOR);
+		if (out == null) return;
+		putVarlong(out, index);
+		out.put((byte) color);
+	}
+	
+	@Override
+	public void onLight(int index, boolean on, long scheduledNanos, long actualNanos) {
+		ByteBuffer out = begin(on ? GameRecording.LIGHT_ON : GameRecording.LIGHT_OFF);
+		if (out == null) return;
+		putVarlong(out, index);
+	}
+	
+	@Override
+	public void onSound(int sound, long scheduledNanos, long actualNanos) {
+		ByteBuffer out = begin(GameRecording.SOUND);
+		if (out == null) return;
+		putVarlong(out, sound);
+	}
+	
+	@Override
+	public void onModeChange(int mode) {
+		ByteBuffer out = begin(GameRecording.MODE);
+		if (out == null) return;
+		putVarlong(out, mode);
+	}
+	
+	/* Room for an event, its kind and time written; or null if we're not recording. */
+	private ByteBuffer begin(int kind) {
+		return begin(kind, MAX_EVENT);
+	}
+	
+	/* The same for an event of up to size bytes, which may be more than a buffer holds. */
+	private ByteBuffer begin(int kind, int size) {
+		if (engine == null || failure != null) return null;
+		if (buffer.remaining() < size) {
+			if (buffer.position() > 0) handOff();
+			if (buffer.remaining() < size) buffer = ByteBuffer.allocate(size);	// Written once, not reused.
+		}
+		long now = engine.getClock().uptimeMillis();
+		buffer.put((byte) kind);
+		putVarlong(buffer, now - lastMillis);
+		lastMillis = now;
+		events++;
+		return buffer;
+	}
+	
+	private void handOff() {
+		buffer.flip();
+		full.add(buffer);
+		buffer = free.poll();
+		if (buffer == null) buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	}
+	
+	/* The writer thread. */
+	private void writeBuffers() {
+		while (true) {
+			ByteBuffer next;
+			try {
+				next = full.take();
+			} catch (InterruptedException e) {
+				continue;		// Only END stops us.
+			}
+			if (next == END) return;
+			try {
+				if (failure == null) {
+					while (next.hasRemaining()) channel.write(next);
+				}
+			} catch (IOException e) {
+				failure = e;
+			}
+			if (next.capacity() == BUFFER_SIZE) {
+				next.clear();
+				free.add(next);
+			}
+		}
+	}
+	
+	static void putVarlong(ByteBuffer out, long n) {
+		while ((n & ~0x7FL) != 0) {
+			out.put((byte) ((n & 0x7F) | 0x80));
+			n >>>= 7;
+		}
+		out.put((byte) n);
+	}
+}
@@ -0,0 +1,266 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * GameRecording
+ * 
+ * A game as GameRecorder wrote it down, read back one event at a time.
+ * 
+ * The format, all varints unsigned LEB128 unless noted:
+ * 
+ *   header   'S' 'I' 'M' 'R', FORMAT_VERSION, the engine clock's uptime at the start
+ *            (varint ms), game, level, then the longest sequence: its size in bytes and
+ *            its PackedSequence binary form; then the DeviceTiming's tick lead and
+ *            sound lead, ms, which version 1 didn't have.
+ *   events   kind (a byte), time since the event before or the start (varint ms), and
+ *            then by kind:
+ *              an input (kinds 0 to 8, the EngineProbe inputs): argument (zigzag varint)
+ *              GAME_START: seed (8 bytes, big endian)
+ *              LONGEST: size in bytes (varint), then the sequence's PackedSequence binary
+ *                form; an input, new in version 3
+ *              DEVICE_TIMING: tick lead, sound lead (varint ms each); an input, new in
+ *                version 4
+ *              COLOR: index (varint), color (a byte)
+ *              LIGHT_ON, LIGHT_OFF: button (varint)
+ *              SOUND: sound (varint)
+ *              MODE: mode (varint)
+ * 
+ * An event is three or four bytes, mostly.  A recording cut short -- the app killed
+ * before it closed the file -- reads fine up to the last whole event.
+ * 
+ * The inputs are what a replay feeds back into an engine; the rest are what the engine
+ * did about them, to check a replay against.
+ */
+public final class GameRecording {
+	
+	static final byte[] MAGIC = { 'S', 'I', 'M', 'R' };
+	static final int FORMAT_VERSION = 4;
+	
+	/* Kinds of event beyond the inputs. */
+	public static final int GAME_START = 16;
+	public static final int COLOR = 17;
+	public static final int LIGHT_ON = 18;
+	public static final int LIGHT_OFF = 19;
+	public static final int SOUND = 20;
+	public static final int MODE = 21;
+	public static final int LONGEST = 22;
+	public static final int DEVICE_TIMING = 23;
+	
+	private final ByteBuffer in;
+	
+	private final long startMillis;
+	private final int game;
+	private final int level;
+	private final PackedSequence longest;
+	private final DeviceTiming deviceTiming;
+	private final int eventsStart;
+	
+	/* The current event. */
+	private int kind = -1;
+	private long time;
+	private int argument;
+	private int argument2;
+	private long seed;
+	private PackedSequence sequence;
+	
+	public GameRecording(ByteBuffer in) {
+		this.in = in;
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (in.get() != MAGIC[i]) throw new IllegalArgumentException("Not a game recording");
+		}
+		int version = in.get();
+		if (version < 1 || version > FORMAT_VERSION) throw new IllegalArgumentException("Unknown recording format " + version);
+		startMillis = readVarlong(in);
+		game = (int) readVarlong(in);
+		level = (int) readVarlong(in);
+		byte[] packed = new byte[(int) readVarlong(in)];
+		in.get(packed);
+		longest = PackedSequence.fromBytes(packed);
+		if (version >= 2) {
+			long tickLead = readVarlong(in);
+			deviceTiming = new DeviceTiming("", tickLead, readVarlong(in));
+		} else {
+			deviceTiming = DeviceTiming.NONE;
+		}
+		eventsStart = in.position();
+		time = startMillis;
+	}
+	
+	/* Map a recording file for reading. */
+	public static GameRecording open(File file) throws IOException {
+		FileInputStream stream = new FileInputStream(file);
+		try {
+			FileChannel channel = stream.getChannel();
+			return new GameRecording(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			stream.close();		// The mapping outlives the channel.
+		}
+	}
+	
+	public long getStartMillis() {
+		return startMillis;
+	}
+	
+	public int getGame() {
+		return game;
+	}
+	
+	public int getLevel() {
+		return level;
+	}
+	
+	public PackedSequence getLongest() {
+		return longest;
+	}
+	
+	/* How the engine allowed for the device it was recorded on. */
+	public DeviceTiming getDeviceTiming() {
+		return deviceTiming;
+	}
+	
+	/* Back to before the first event. */
+	public void rewind() {
+		in.position(eventsStart);
+		kind = -1;
+		time = startMillis;
+	}
+	
+	/*
+	 * next
+	 * 
+	 * Move on to the next event.  Returns false at the end, or at an event cut short.
+	 */
+	public boolean next() {
+		int mark = in.position();
+		try {
+			int k = in.get();
+			long t = time + readVarlong(in);
+			int a = 0, a2 = 0;
+			long s = 0;
+			PackedSequence q = null;
+			if (k >= 0 && k < EngineProbe.INPUT_COUNT) {
+				long z = readVarlong(in);
+				a = (int) ((z >>> 1) ^ -(z & 1));
+			} else {
+				switch (k) {
+				case GAME_START:
+					s = in.getLong();
+					break;
+				case COLOR:
+					a = (int) readVarlong(in);
+					a2 = in.get();
+					break;
+				case LIGHT_ON:
+				case LIGHT_OFF:
+				case SOUND:
+				case MODE:
+					a = (int) readVarlong(in);
+					break;
+				case LONGEST:
+					byte[] packed = new byte[(int) readVarlong(in)];
+					in.get(packed);
+					q = PackedSequence.fromBytes(packed);
+					break;
+				case DEVICE_TIMING:
+					a = (int) readVarlong(in);
+					a2 = (int) readVarlong(in);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown event kind " + k + " at " + mark);
+				}
+			}
+			kind = k;
+			time = t;
+			argument = a;
+			argument2 = a2;
+			seed = s;
+			sequence = q;
+			return true;
+		} catch (BufferUnderflowException e) {
+			in.position(mark);
+			return false;
+		}
+	}
+	
+	public int kind() {
+		return kind;
+	}
+	
+	/* Something that came into the engine, rather than something it did: one of the
+	 * EngineProbe inputs, a game starting, the longest sequence or the device timing
+	 * being set. */
+	public boolean isInput() {
+		return (kind >= 0 && kind < EngineProbe.INPUT_COUNT) 
+				|| kind == GAME_START || kind == LONGEST || kind == DEVICE_TIMING;
+	}
+	
+	/* On the engine's clock, in ms. */
+	public long time() {
+		return time;
+	}
+	
+	/* The input's argument; or the button, sound, mode, a color's index or the tick lead. */
+	public int argument() {
+		return argument;
+	}
+	
+	/* A color's color, or the sound lead. */
+	public int argument2() {
+		return argument2;
+	}
+	
+	public long seed() {
+		return seed;
+	}
+	
+	/* The longest sequence, as set. */
+	public PackedSequence sequence() {
+		return sequence;
+	}
+	
+	/* The event, for messages. */
+	public String describe() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(time - startMillis).append("ms ");
+		switch (kind) {
+		case GAME_START: return sb.append("start seed ").append(seed).toString();
+		case COLOR: return sb.append("color ").append(argument).append('=').append(argument2).toString();
+		case LIGHT_ON: return sb.append("light on ").append(argument).toString();
+		case LIGHT_OFF: return sb.append("light off ").append(argument).toString();
+		case SOUND: return sb.append("sound ").append(argument).toString();
+		case MODE: return sb.append("mode ").append(argument).toString();
+		case LONGEST: return sb.append("longest ").append(sequence).toString();
+		case DEVICE_TIMING: return sb.append("timing ").append(argument).append('/').append(argument2).toString();
+		default: return sb.append("input ").append(kind).append(' ').append(argument).toString();
+		}
+	}
+	
+	static long readVarlong(ByteBuffer in) {
+		long n = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = in.get();
+			n |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return n;
+	}
+}
@@ -0,0 +1,193 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * GameReplayer
+ * 
+ * Plays a GameRecording back into a fresh engine on a VirtualScheduler, and checks that
+ * the engine does just what it did when it was recorded: the same colors, lights, sounds
+ * and modes, at the same times.
+ * 
+ * Only the inputs are fed back.  Each goes in at the time it was recorded, the clock
+ * being set to it first; scheduled events are delivered when the recording says they
+ * were, not when they fell due, so a replay sees the same lateness the device did.
+ * 
+ * At speed 1 the replay keeps to the recording's own pace, for watching; at MAX_SPEED it
+ * goes as fast as it can, for running recordings by the thousand.
+ */
+public final class GameReplayer {
+	
+	public static final double MAX_SPEED = 0;
+	
+	private final GameRecording recording;
+	
+	/* What the replay did, in order, to compare with what the recording says. */
+	private int[] kinds = new int[64];
+	private int[] arguments = new int[64];
+	private int[] arguments2 = new int[64];
+	private long[] times = new long[64];
+	private int produced;
+	
+	private VirtualScheduler scheduler;
+	private long inputs;
+	private long outputs;
+	
+	public GameReplayer(GameRecording recording) {
+		this.recording = recording;
+	}
+	
+	public long getInputs() {
+		return inputs;
+	}
+	
+	public long getOutputs() {
+		return outputs;
+	}
+	
+	/*
+	 * replay
+	 * 
+	 * Returns null if the engine did everything the recording says, and nothing else;
+	 * otherwise what first went differently.
+	 */
+	public String replay(double speed) {
+		recording.rewind();
+		inputs = 0;
+		outputs = 0;
+		produced = 0;
+		
+		scheduler = new VirtualScheduler();
+		scheduler.setTime(recording.getStartMillis());
+		SimonEngine engine = new SimonEngine(scheduler, scheduler, new SilentAudioSink());
+		engine.setGame(recording.getGame());
+		engine.setLevel(recording.getLevel());
+		engine.setLongest(recording.getLongest());
+		engine.setDeviceTiming(recording.getDeviceTiming());
+		engine.addProbe(new Checker());
+		
+		long wallStart = System.nanoTime();
+		int checked = 0;
+		while (recording.next()) {
+			if (!recording.isInput()) {
+				if (checked == produced) return "Replay didn't do " + recording.describe();
+				String difference = compare(checked++);
+				if (difference != null) return difference;
+				outputs++;
+				continue;
+			}
+			if (checked < produced) return "Replay did more: " + describe(checked);
+			checked = produced = 0;		// Everything so far matched; start afresh.
+			
+			if (speed > 0) keepPace(wallStart, speed);
+			scheduler.setTime(recording.time());
+			String difference = apply(engine);
+			if (difference != null) return difference;
+			inputs++;
+		}
+		if (checked < produced) return "Replay did more: " + describe(checked);
+		return null;
+	}
+	
+	private String apply(SimonEngine engine) {
+		int argument = recording.argument();
+		switch (recording.kind()) {
+		case EngineProbe.PRESS: engine.pressButton(argument); break;
+		case EngineProbe.RELEASE: engine.releaseButton(argument); break;
+		case EngineProbe.RELEASE_ALL: engine.releaseAllButtons(); break;
+		case EngineProbe.PLAY_LAST: engine.playLast(); break;
+		case EngineProbe.PLAY_LONGEST: engine.playLongest(); break;
+		case EngineProbe.SET_GAME: engine.setGame(argument); break;
+		case EngineProbe.SET_LEVEL: engine.setLevel(argument); break;
+		case EngineProbe.CLEAR_LONGEST: engine.clearLongest(); break;
+		case GameRecording.GAME_START: engine.gameStart(recording.seed()); break;
+		case GameRecording.LONGEST: engine.setLongest(recording.sequence()); break;
+		case GameRecording.DEVICE_TIMING: 
+			engine.setDeviceTiming(new DeviceTiming("", recording.argument(), recording.argument2())); 
+			break;
+		case EngineProbe.DISPATCH:
+			if (!scheduler.deliver(argument)) {
+				return "Replay had nothing pending for " + recording.describe();
+			}
+			break;
+		}
+		return null;
+	}
+	
+	private void keepPace(long wallStart, double speed) {
+		long due = wallStart + (long) ((recording.time() - recording.getStartMillis()) * 1000000L / speed);
+		long wait = due - System.nanoTime();
+		if (wait <= 0) return;
+		try {
+			Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private String compare(int i) {
+		if (kinds[i] != recording.kind() || arguments[i] != recording.argument()
+				|| arguments2[i] != recording.argument2() || times[i] != recording.time()) {
+			return "Recording says " + recording.describe() + " but replay did " + describe(i);
+		}
+		return null;
+	}
+	
+	private String describe(int i) {
+		return (times[i] - recording.getStartMillis()) + "ms kind " + kinds[i] + " " + arguments[i]
+				+ (kinds[i] == GameRecording.COLOR ? "=" + arguments2[i] : "");
+	}
+	
+	private void produce(int kind, int argument, int argument2) {
+		if (produced == kinds.length) {
+			int size = produced * 2;
+			int[] k = new int[size], a = new int[size], a2 = new int[size];
+			long[] t = new long[size];
+			System.arraycopy(kinds, 0, k, 0, produced);
+			System.arraycopy(arguments, 0, a, 0, produced);
+			System.arraycopy(arguments2, 0, a2, 0, produced);
+			System.arraycopy(times, 0, t, 0, produced);
+			kinds = k;
+			arguments = a;
+			arguments2 = a2;
+			times = t;
+		}
+		kinds[produced] = kind;
+		arguments[produced] = argument;
+		arguments2[produced] = argument2;
+		times[produced] = scheduler.uptimeMillis();
+		produced++;
+	}
+	
+	/* Notes what the replaying engine does.  Its inputs we know: we gave them. */
+	private final class Checker extends EngineProbe {
+		@Override
+		public void onColorAdded(int index, int color) {
+			produce(GameRecording.COLOR, index, color);
+		}
+		
+		@Override
+		public void onLight(int index, boolean on, long scheduledNanos, long actualNanos) {
+			produce(on ? GameRecording.LIGHT_ON : GameRecording.LIGHT_OFF, index, 0);
+		}
+		
+		@Override
+		public void onSound(int sound, long scheduledNanos, long actualNanos) {
+			produce(GameRecording.SOUND, sound, 0);
+		}
+		
+		@Override
+		public void onModeChange(int mode) {
+			produce(GameRecording.MODE, mode, 0);
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import android.os.Handler;
+import android.os.Message;
+import android.os.SystemClock;
+
+/*
+ * HandlerScheduler
+ * 
+ * The Android Scheduler.  All pending events, the UI ticks and the listening timeout
+ * alike, wait in one DeadlineQueue, and we keep exactly one message in the main
+ * thread's queue:  A wakeup at the earliest deadline.  Moving a deadline that isn't
+ * the earliest costs nothing, and when nothing is pending we don't wake at all.
+ */
+final class HandlerScheduler extends Handler implements Scheduler {
+	
+	private static final int WAKE = 0;
+	
+	private final DeadlineQueue queue = new DeadlineQueue();
+	private final WakeupMeter wakeups = new WakeupMeter();
+	private long armedFor = DeadlineQueue.NOT_PENDING;
+	private boolean dispatching;
+	private Target target;
+	
+	public void setTarget(Target target) {
+		this.target = target;
+	}
+	
+	public WakeupMeter getWakeupMeter() {
+		return wakeups;
+	}
+
+	public void schedule(int what, long delayMillis) {
+		queue.set(what, SystemClock.uptimeMillis() + Math.max(0, delayMillis));
+		arm();
+	}
+
+	public void cancel(int what) {
+		queue.clear(what);
+		arm();
+	}
+	
+	@Override
+	public void handleMessage(Message msg) {
+		long now = SystemClock.uptimeMillis();
+		armedFor = DeadlineQueue.NOT_PENDING;
+		wakeups.record(now);
+		
+		/* Deliver everything that's due.  Events can schedule or cancel others as we go,
+		 * and we re-arm once when they're done. */
+		dispatching = true;
+		try {
+			int what;
+			while ((what = queue.poll(now)) >= 0) {
+				if (target != null) target.onEvent(what);
+			}
+		} finally {
+			dispatching = false;
+		}
+		arm();
+	}
+	
+	/* Make sure our one wakeup is set for the earliest deadline, or not set at all. */
+	private void arm() {
+		if (dispatching) return;
+		long next = queue.nextDue();
+		if (next == armedFor) return;
+		removeMessages(WAKE);
+		armedFor = next;
+		if (next != DeadlineQueue.NOT_PENDING) sendEmptyMessageAtTime(WAKE, next);
+	}
+}
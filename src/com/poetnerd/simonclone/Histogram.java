@@ -0,0 +1,176 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * Histogram
+ * 
+ * A fixed-size histogram of long values, bucketed the way HdrHistogram does it:
+ * Small values are counted exactly, and above that each power of two is split into
+ * SUB_BUCKETS equal slices, so every value is kept to within about 6% no matter
+ * how big it is.  Recording never allocates and reading a percentile never sorts.
+ * 
+ * Values may be negative (a tone that came early), so there's a mirror image of
+ * the buckets for those.  Values beyond MAX_VALUE are counted as MAX_VALUE.
+ */
+public final class Histogram {
+	
+	private static final int SUB_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int MAX_EXPONENT = 31;
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+	
+	public static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+	
+	private final long[] positive = new long[BUCKETS];
+	private final long[] negative = new long[BUCKETS];
+	private long count;
+	private long sum;
+	private long min = Long.MAX_VALUE;
+	private long max = Long.MIN_VALUE;
+	
+	public void record(long value) {
+		if (value >= 0) {
+			positive[bucketOf(value)]++;
+		} else {
+			negative[bucketOf(-value)]++;
+		}
+		count++;
+		sum += value;
+		if (value < min) min = value;
+		if (value > max) max = value;
+	}
+	
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) positive[i] = 0;
+		for (int i = 0; i < BUCKETS; i++) negative[i] = 0;
+		count = 0;
+		sum = 0;
+		min = Long.MAX_VALUE;
+		max = Long.MIN_VALUE;
+	}
+	
+	public long getCount() {
+		return count;
+	}
+	
+	public long getMin() {
+		return count == 0 ? 0 : min;
+	}
+	
+	public long getMax() {
+		return count == 0 ? 0 : max;
+	}
+	
+	public double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+	
+	/*
+	 * getPercentile
+	 * 
+	 * The value below which the given percentage (0 to 100) of recorded values fall,
+	 * to the precision of a bucket.  Zero if nothing has been recorded.
+	 */
+	public long getPercentile(double percent) {
+		if (count == 0) return 0;
+		long rank = (long) Math.ceil(percent / 100.0 * count);
+		if (rank < 1) rank = 1;
+		if (rank > count) rank = count;
+		
+		long seen = 0;
+		if (min < 0) {			// Most negative first.
+			for (int i = BUCKETS - 1; i >= 0; i--) {
+				seen += negative[i];
+				if (seen >= rank) return clamp(-middleOf(i));
+			}
+		}
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += positive[i];
+			if (seen >= rank) return clamp(middleOf(i));
+		}
+		return max;
+	}
+	
+	/* Add counts bucket by bucket, as Metrics.Distribution keeps them, along with their
+	 * sum and extremes.  Only values of zero and up. */
+	void addBuckets(long[] counts, long sum, long min, long max) {
+		long added = 0;
+		for (int i = 0; i < BUCKETS && i < counts.length; i++) {
+			positive[i] += counts[i];
+			added += counts[i];
+		}
+		if (added == 0) return;
+		count += added;
+		this.sum += sum;
+		if (min < this.min) this.min = min;
+		if (max > this.max) this.max = max;
+	}
+	
+	static int bucketCount() {
+		return BUCKETS;
+	}
+	
+	/* Add everything recorded in another histogram to this one. */
+	public void add(Histogram other) {
+		for (int i = 0; i < BUCKETS; i++) positive[i] += other.positive[i];
+		if (other.min < 0) {
+			for (int i = 0; i < BUCKETS; i++) negative[i] += other.negative[i];
+		}
+		count += other.count;
+		sum += other.sum;
+		if (other.count > 0) {
+			if (other.min < min) min = other.min;
+			if (other.max > max) max = other.max;
+		}
+	}
+	
+	/* "n=120 mean=12.5 p50=11 p95=30 p99=42 max=57", with the values divided by scale. */
+	public String summary(long scale) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("n=").append(count);
+		sb.append(" mean=").append(Math.round(getMean() / scale * 10) / 10.0);
+		sb.append(" p50=").append(getPercentile(50) / scale);
+		sb.append(" p95=").append(getPercentile(95) / scale);
+		sb.append(" p99=").append(getPercentile(99) / scale);
+		sb.append(" max=").append(getMax() / scale);
+		return sb.toString();
+	}
+	
+	private long clamp(long value) {
+		if (value < min) return min;
+		if (value > max) return max;
+		return value;
+	}
+	
+	static int bucketOf(long value) {
+		if (value > MAX_VALUE) value = MAX_VALUE;
+		if (value < SUB_BUCKETS) return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BITS;
+		int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+		return (shift + 1) * SUB_BUCKETS + sub;
+	}
+	
+	static long lowestOf(int bucket) {
+		if (bucket < SUB_BUCKETS) return bucket;
+		int shift = bucket / SUB_BUCKETS - 1;
+		int sub = bucket % SUB_BUCKETS;
+		return (long) (SUB_BUCKETS + sub) << shift;
+	}
+	
+	private static long middleOf(int bucket) {
+		if (bucket < SUB_BUCKETS) return bucket;
+		int shift = bucket / SUB_BUCKETS - 1;
+		return lowestOf(bucket) + ((1L << shift) >> 1);
+	}
+}
@@ -0,0 +1,215 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Metrics
+ * 
+ * Counters, gauges and histograms for the hot paths, by name, for collecting from devices
+ * in the field.  Any thread may record into them without a lock:  Counters are atomic
+ * adds, gauges a volatile write, and a Distribution is a Histogram's buckets kept in an
+ * AtomicLongArray, so a record is a few atomic adds and never allocates.
+ * 
+ * Nothing is recorded unless metrics are enabled.  Code in a hot path checks isEnabled(),
+ * one volatile read, or is an EngineProbe that is only attached when they are (see
+ * EngineMetrics); so switched off they cost next to nothing.  dump() writes them all
+ * out as text, for logcat or a file.
+ * 
+ * Making a metric takes a lock and may allocate, so get them once, up front, and keep
+ * them.  Asking again for the same name gets the same metric.
+ */
+public final class Metrics {
+	
+	private Metrics() {
+	}
+	
+	public static abstract class Metric {
+		final String name;
+		
+		Metric(String name) {
+			this.name = name;
+		}
+		
+		abstract void dump(StringBuilder sb);
+		
+		abstract void reset();
+	}
+	
+	public static final class Counter extends Metric {
+		private final AtomicLong value = new AtomicLong();
+		
+		Counter(String name) {
+			super(name);
+		}
+		
+		public void increment() {
+			value.incrementAndGet();
+		}
+		
+		public void add(long n) {
+			value.addAndGet(n);
+		}
+		
+		public long get() {
+			return value.get();
+		}
+		
+		void dump(StringBuilder sb) {
+			sb.append("counter ").append(name).append(' ').append(value.get()).append('\n');
+		}
+		
+		void reset() {
+			value.set(0);
+		}
+	}
+	
+	/* A value that's set rather than added to:  The last one set wins. */
+	public static final class Gauge extends Metric {
+		private volatile long value;
+		
+		Gauge(String name) {
+			super(name);
+		}
+		
+		public void set(long value) {
+			this.value = value;
+		}
+		
+		public long get() {
+			return value;
+		}
+		
+		void dump(StringBuilder sb) {
+			sb.append("gauge ").append(name).append(' ').append(value).append('\n');
+		}
+		
+		void reset() {
+			value = 0;
+		}
+	}
+	
+	/* A histogram of values zero and up, bucketed as Histogram does it.  Negative
+	 * values are counted as zero. */
+	public static final class Distribution extends Metric {
+		private final AtomicLongArray counts = new AtomicLongArray(Histogram.bucketCount());
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+		private final AtomicLong max = new AtomicLong();
+		
+		Distribution(String name) {
+			super(name);
+		}
+		
+		public void record(long value) {
+			if (value < 0) value = 0;
+			counts.incrementAndGet(Histogram.bucketOf(value));
+			sum.addAndGet(value);
+			long m;
+			while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+			}
+			while (value < (m = min.get()) && !min.compareAndSet(m, value)) {
+			}
+		}
+		
+		/* What's been recorded so far, as a Histogram.  Records that race with this
+		 * may or may not be in it. */
+		public Histogram snapshot() {
+			long[] copy = new long[counts.length()];
+			for (int i = 0; i < copy.length; i++) copy[i] = counts.get(i);
+			Histogram histogram = new Histogram();
+			histogram.addBuckets(copy, sum.get(), min.get(), max.get());
+			return histogram;
+		}
+		
+		void dump(StringBuilder sb) {
+			sb.append("histogram ").append(name).append(' ').append(snapshot().summary(1)).append('\n');
+		}
+		
+		void reset() {
+			for (int i = 0; i < counts.length(); i++) counts.set(i, 0);
+			sum.set(0);
+			min.set(Long.MAX_VALUE);
+			max.set(0);
+		}
+	}
+	
+	private static volatile boolean enabled;
+	private static volatile Metric[] metrics = new Metric[0];		// Copy on write, under Metrics.class.
+	
+	public static boolean isEnabled() {
+		return enabled;
+	}
+	
+	public static void setEnabled(boolean enabled) {
+		Metrics.enabled = enabled;
+	}
+	
+	public static Counter counter(String name) {
+		return (Counter) register(name, Counter.class);
+	}
+	
+	public static Gauge gauge(String name) {
+		return (Gauge) register(name, Gauge.class);
+	}
+	
+	public static Distribution distribution(String name) {
+		return (Distribution) register(name, Distribution.class);
+	}
+	
+	private static synchronized Metric register(String name, Class<? extends Metric> kind) {
+		for (Metric metric : metrics) {
+			if (!metric.name.equals(name)) continue;
+			if (metric.getClass() != kind) throw new IllegalArgumentException(name + " is a " + metric.getClass().getSimpleName());
+			return metric;
+		}
+		Metric metric;
+		if (kind == Counter.class) metric = new Counter(name);
+		else if (kind == Gauge.class) metric = new Gauge(name);
+		else metric = new Distribution(name);
+		
+		Metric[] grown = new Metric[metrics.length + 1];
+		System.arraycopy(metrics, 0, grown, 0, metrics.length);
+		grown[metrics.length] = metric;
+		metrics = grown;
+		return metric;
+	}
+	
+	/* Every metric, a line each, in the order they were made. */
+	public static String dump() {
+		StringBuilder sb = new StringBuilder();
+		for (Metric metric : metrics) metric.dump(sb);
+		return sb.toString();
+	}
+	
+	/* Add a dump to the end of file, under a heading. */
+	public static void appendTo(File file, String heading) throws IOException {
+		Writer out = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+		try {
+			out.write("# " + heading + "\n");
+			out.write(dump());
+		} finally {
+			out.close();
+		}
+	}
+	
+	public static void reset() {
+		for (Metric metric : metrics) metric.reset();
+	}
+}
@@ -0,0 +1,490 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * MoveVerifier
+ * 
+ * Checks a submitted game after the fact:  Given the seed, and the buttons the player
+ * pressed, it works out by the rules of games 1, 2 and 3 what Simon would have made of
+ * them, and says whether the run is one the game could have played, how it ended, and
+ * how long a sequence it reached.  No engine, clock or scheduler is involved, and nothing
+ * is changed but the verifier's own scratch space, so one verifier a thread can check
+ * thousands of runs a second.
+ * 
+ * Simon's sequence for a round comes from SequenceGenerator, as the engine has it; in
+ * game 2 the players build it, one step a turn.  Each turn the presses must repeat the
+ * sequence so far, and we compare the two a word, thirty-two steps, at a time.
+ * 
+ * If the times of the presses and releases are given, the player must never have taken
+ * the level's timeout or longer between releasing one button and pressing the next.  The
+ * wait for the first press of a turn runs from the end of Simon's playback, which we
+ * don't time here; a timeout there the attempt must list, as a recording does.  If it
+ * lists none, we take it the player stopped when the moves run out, and let Simon time
+ * them out as it would.
+ * 
+ * Not thread safe.  Use a verifier per thread.
+ */
+public final class MoveVerifier {
+	
+	/* How a game ended. */
+	public static final int WON = 0;
+	public static final int LOST = 1;
+	public static final int UNFINISHED = 2;		// The moves ran out, and the listed timeouts say Simon hadn't called one.
+	
+	private static final int STEPS_PER_WORD = 32;
+	
+	/*
+	 * Attempt
+	 * 
+	 * A game as submitted:  which game and level, the seed it was started with, and one
+	 * button for each press that counted.  Optionally, the time of each press and release
+	 * on the player's clock in ms (-1 for a release never heard); the moves before which
+	 * Simon timed the player out, ascending; and the final length the player claims.
+	 */
+	public static final class Attempt {
+		final int game;
+		final int level;
+		final long seed;
+		final PackedSequence presses;
+		long[] pressTimes;
+		long[] releaseTimes;
+		int[] timeouts;
+		int claimedLength = -1;
+		
+		public Attempt(int game, int level, long seed, PackedSequence presses) {
+			this.game = game;
+			this.level = level;
+			this.seed = seed;
+			this.presses = presses;
+		}
+		
+		public Attempt setTimes(long[] pressTimes, long[] releaseTimes) {
+			this.pressTimes = pressTimes;
+			this.releaseTimes = releaseTimes;
+			return this;
+		}
+		
+		public Attempt setTimeouts(int[] timeouts) {
+			this.timeouts = timeouts;
+			return this;
+		}
+		
+		public Attempt setClaimedLength(int claimedLength) {
+			this.claimedLength = claimedLength;
+			return this;
+		}
+		
+		public int getGame() {
+			return game;
+		}
+		
+		public int getLevel() {
+			return level;
+		}
+		
+		public long getSeed() {
+			return seed;
+		}
+		
+		public PackedSequence getPresses() {
+			return presses;
+		}
+		
+		/*
+		 * fromRecording
+		 * 
+		 * The games in a recording, as attempts.  A press counts if it came while Simon was
+		 * listening, as the recording's modes tell; so does its release, and a timeout.
+		 */
+		public static List<Attempt> fromRecording(GameRecording recording) {
+			List<Attempt> attempts = new ArrayList<Attempt>();
+			int game = recording.getGame();
+			int level = recording.getLevel();
+			boolean listening = false;
+			boolean down = false;		// A press that counted, not yet released.
+			Builder builder = null;
+			
+			recording.rewind();
+			while (recording.next()) {
+				int argument = recording.argument();
+				switch (recording.kind()) {
+				case GameRecording.MODE:
+					listening = SimonEngine.isListeningMode(argument);
+					break;
+				case EngineProbe.SET_GAME:
+					game = argument;
+					break;
+				case EngineProbe.SET_LEVEL:
+					level = argument;
+					break;
+				case GameRecording.GAME_START:
+					if (builder != null) attempts.add(builder.build());
+					builder = new Builder(game, level, recording.seed());
+					down = false;
+					break;
+				case EngineProbe.PRESS:
+					if (builder == null || !listening) break;
+					builder.press(argument, recording.time());
+					down = true;
+					break;
+				case EngineProbe.RELEASE:
+					if (builder == null || !listening || !down) break;
+					builder.release(recording.time());
+					down = false;
+					break;
+				case EngineProbe.DISPATCH:
+					if (builder != null && listening && argument == SimonEngine.TIMEOUT) builder.timeout();
+					break;
+				}
+			}
+			if (builder != null) attempts.add(builder.build());
+			return attempts;
+		}
+	}
+	
+	/* Gathers an Attempt a move at a time. */
+	static final class Builder {
+		private final int game;
+		private final int level;
+		private final long seed;
+		private final PackedSequence presses = new PackedSequence();
+		private long[] pressTimes = new long[32];
+		private long[] releaseTimes = new long[32];
+		private int[] timeouts = new int[4];
+		private int timeoutCount;
+		
+		Builder(int game, int level, long seed) {
+			this.game = game;
+			this.level = level;
+			this.seed = seed;
+		}
+		
+		void press(int button, long time) {
+			int move = presses.length();
+			if (move == pressTimes.length) {
+				pressTimes = grow(pressTimes);
+				releaseTimes = grow(releaseTimes);
+			}
+			presses.append(button);
+			pressTimes[move] = time;
+			releaseTimes[move] = -1;
+		}
+		
+		void release(long time) {
+			releaseTimes[presses.length() - 1] = time;
+		}
+		
+		void timeout() {
+			if (timeoutCount == timeouts.length) {
+				int[] grown = new int[timeoutCount * 2];
+				System.arraycopy(timeouts, 0, grown, 0, timeoutCount);
+				timeouts = grown;
+			}
+			timeouts[timeoutCount++] = presses.length();
+		}
+		
+		Attempt build() {
+			int moves = presses.length();
+			long[] p = new long[moves], r = new long[moves];
+			int[] t = new int[timeoutCount];
+			System.arraycopy(pressTimes, 0, p, 0, moves);
+			System.arraycopy(releaseTimes, 0, r, 0, moves);
+			System.arraycopy(timeouts, 0, t, 0, timeoutCount);
+			return new Attempt(game, level, seed, presses).setTimes(p, r).setTimeouts(t);
+		}
+		
+		private static long[] grow(long[] array) {
+			long[] grown = new long[array.length * 2];
+			System.arraycopy(array, 0, grown, 0, array.length);
+			return grown;
+		}
+	}
+	
+	/* What the verifier made of an attempt. */
+	public static final class Verdict {
+		boolean legal;
+		int outcome;
+		int length;			// The sequence's length when the game ended, or the moves ran out.
+		int moves;			// How many of the moves the game took up.
+		String reason;		// Why it isn't legal.
+		
+		public boolean isLegal() {
+			return legal;
+		}
+		
+		public int getOutcome() {
+			return outcome;
+		}
+		
+		public boolean isWon() {
+			return legal && outcome == WON;
+		}
+		
+		public int getLength() {
+			return length;
+		}
+		
+		public int getMoves() {
+			return moves;
+		}
+		
+		public String getReason() {
+			return reason;
+		}
+		
+		@Override
+		public String toString() {
+			if (!legal) return "illegal at move " + moves + ": " + reason;
+			return (outcome == WON ? "won" : outcome == LOST ? "lost" : "unfinished") + " at length " + length
+					+ " after " + moves + " moves";
+		}
+	}
+	
+	private final TimingProfile timing;
+	private final PackedSequence sequence = new PackedSequence(64);	// Simon's, or in game 2, the players'.
+	
+	/* The state of the game being checked. */
+	private Attempt attempt;
+	private int roundNumber;
+	private long roundKey;
+	private int activeMask;
+	private int generated;		// Of Simon's sequence this round, so far.
+	private int nextTimeout;	// Of the attempt's timeouts.
+	
+	public MoveVerifier() {
+		this(TimingProfile.ORIGINAL);
+	}
+	
+	public MoveVerifier(TimingProfile timing) {
+		this.timing = timing;
+	}
+	
+	public Verdict verify(Attempt attempt) {
+		Verdict verdict = new Verdict();
+		verify(attempt, verdict);
+		return verdict;
+	}
+	
+	/* Check attempt, putting what we find in verdict. */
+	public void verify(Attempt attempt, Verdict verdict) {
+		this.attempt = attempt;
+		try {
+			verdict.legal = true;
+			verdict.reason = null;
+			play(verdict);
+			if (!verdict.legal) return;
+			int count = attempt.presses.length();
+			if (verdict.moves < count) {
+				illegal(verdict, verdict.moves, (count - verdict.moves) + " moves after the game ended");
+			} else if (attempt.timeouts != null && nextTimeout < attempt.timeouts.length) {
+				illegal(verdict, count, "a timeout after the game ended");
+			} else if (attempt.claimedLength >= 0 && attempt.claimedLength != verdict.length) {
+				illegal(verdict, count, "claims length " + attempt.claimedLength + " but reached " + verdict.length);
+			}
+		} finally {
+			this.attempt = null;
+		}
+	}
+	
+	/*
+	 * play
+	 * 
+	 * Go through the attempt a turn at a time, as the engine's pressButton() and
+	 * releaseButton() would, until the game ends or the moves run out.
+	 */
+	private void play(Verdict verdict) {
+		Attempt attempt = this.attempt;
+		int game = attempt.game;
+		int total = SimonEngine.totalLengthFor(attempt.level);
+		long timeout = timing.getTimeout(attempt.level);
+		PackedSequence presses = attempt.presses;
+		int count = presses.length();
+		
+		if (game < 1 || game > 3 || attempt.level < 1 || attempt.level > SimonEngine.ENDLESS_LEVEL) {
+			illegal(verdict, 0, "no game " + game + " level " + attempt.level);
+			return;
+		}
+		if (attempt.pressTimes != null && (attempt.pressTimes.length != count
+				|| attempt.releaseTimes == null || attempt.releaseTimes.length != count)) {
+			illegal(verdict, 0, "times for " + count + " moves don't match");
+			return;
+		}
+		
+		nextTimeout = 0;
+		activeMask = SequenceGenerator.ALL_COLORS;
+		startRound(0);
+		if (game == 2) sequence.set(0, SequenceGenerator.colorAt(roundKey, activeMask, 0));	// Simon's one.
+		int length = 1;
+		int move = 0;
+		while (true) {
+			int turn = game == 2 ? length + 1 : length;		// Game 2:  Repeat them all, and add one.
+			if (game != 2) generate(length);
+			
+			/* How far this turn goes:  all the way, or to a listed timeout, or to the end of the moves. */
+			int timeoutAt = attempt.timeouts != null && nextTimeout < attempt.timeouts.length
+					? attempt.timeouts[nextTimeout] : Integer.MAX_VALUE;
+			if (timeoutAt < move) {
+				illegal(verdict, move, "timeouts out of order");
+				return;
+			}
+			int reach = Math.min(turn, count - move);
+			int limit = Math.min(reach, timeoutAt - move);
+			int wrong = mismatch(presses, move, Math.min(limit, length));
+			
+			if (attempt.pressTimes != null) {
+				int checked = wrong >= 0 ? wrong + 1 : limit;
+				int late = checkTimes(verdict, move, checked, timeout);
+				if (!verdict.legal) return;
+				if (late < checked) {		// Too slow, and no timeout listed for it.
+					if (attempt.timeouts != null) {
+						illegal(verdict, move + late, "too slow, with no timeout");
+						return;
+					}
+					limit = late;
+					timeoutAt = move + late;
+					wrong = -1;				// It was too late to count.
+				} else if (wrong < 0 && limit > 0 && limit < reach && !isLate(move + limit, timeout)) {
+					illegal(verdict, move + limit, "a timeout before Simon would have called one");
+					return;
+				}
+			}
+			
+			if (wrong >= 0) {
+				int button = presses.get(move + wrong);
+				move += wrong + 1;
+				if (game != 3 || eliminate(button)) {
+					end(verdict, game == 3 ? WON : LOST, length, move);
+					return;
+				}
+				length = 1;
+				continue;
+			}
+			
+			if (limit == turn) {
+				if (game == 2) sequence.set(length, presses.get(move + length));	// The players' new step.
+				move += turn;
+				if (game == 2) length++;
+				if (length == total) {
+					end(verdict, WON, length, move);
+					return;
+				}
+				if (game != 2) length++;
+				continue;
+			}
+			
+			move += limit;
+			if (move != timeoutAt && attempt.timeouts != null) {
+				end(verdict, UNFINISHED, length, move);
+				return;
+			}
+			
+			/* Too slow.  In game 3 the color Simon was waiting for is out. */
+			if (attempt.timeouts != null) nextTimeout++;
+			if (game != 3 || eliminate(sequence.get(limit))) {
+				end(verdict, game == 3 ? WON : LOST, length, move);
+				return;
+			}
+			length = 1;
+		}
+	}
+	
+	/*
+	 * checkTimes
+	 * 
+	 * Check that the count moves from move came in order, and return how many came
+	 * before one the player took the timeout or longer over, if they did, or count.
+	 * The first move of a turn can't be late:  Simon played before it.
+	 */
+	private int checkTimes(Verdict verdict, int move, int count, long timeout) {
+		long[] pressTimes = attempt.pressTimes;
+		long[] releaseTimes = attempt.releaseTimes;
+		for (int i = 0; i < count; i++) {
+			int m = move + i;
+			if (releaseTimes[m] >= 0 && releaseTimes[m] < pressTimes[m]) {
+				illegal(verdict, m, "released before it was pressed");
+				return 0;
+			}
+			if (m > 0 && pressTimes[m] < Math.max(pressTimes[m - 1], releaseTimes[m - 1])) {
+				illegal(verdict, m, "pressed before the move before it");
+				return 0;
+			}
+			if (i == 0) continue;
+			if (releaseTimes[m - 1] < 0) {
+				illegal(verdict, m, "the button before was never released");
+				return 0;
+			}
+			if (isLate(m, timeout)) return i;
+		}
+		return count;
+	}
+	
+	/* Whether the press at move came the timeout or more after the release before it. */
+	private boolean isLate(int move, long timeout) {
+		return attempt.pressTimes[move] - attempt.releaseTimes[move - 1] >= timeout;
+	}
+	
+	/*
+	 * mismatch
+	 * 
+	 * Where the count presses from move first differ from Simon's sequence, or -1 if
+	 * they don't:  Thirty-two steps at a time, the first differing bit pair found in
+	 * their exclusive or.
+	 */
+	private int mismatch(PackedSequence presses, int move, int count) {
+		for (int i = 0; i < count; i += STEPS_PER_WORD) {
+			long difference = presses.stepsAt(move + i) ^ sequence.stepsAt(i);
+			int left = count - i;
+			if (left < STEPS_PER_WORD) difference &= (1L << (left << 1)) - 1;
+			if (difference != 0) return i + (Long.numberOfTrailingZeros(difference) >>> 1);
+		}
+		return -1;
+	}
+	
+	/* Game 3:  Put a color out.  Returns whether that leaves just one, the winner. */
+	private boolean eliminate(int color) {
+		activeMask &= ~(1 << color);
+		if (Integer.bitCount(activeMask) == 1) return true;
+		startRound(roundNumber + 1);
+		return false;
+	}
+	
+	private void startRound(int round) {
+		roundNumber = round;
+		roundKey = SequenceGenerator.roundKey(attempt.seed, round);
+		sequence.clear();
+		generated = 0;
+	}
+	
+	/* Have Simon's sequence for this round out to length. */
+	private void generate(int length) {
+		while (generated < length) {
+			sequence.set(generated, SequenceGenerator.colorAt(roundKey, activeMask, generated));
+			generated++;
+		}
+	}
+	
+	private static void end(Verdict verdict, int outcome, int length, int moves) {
+		verdict.outcome = outcome;
+		verdict.length = length;
+		verdict.moves = moves;
+	}
+	
+	private static void illegal(Verdict verdict, int move, String reason) {
+		verdict.legal = false;
+		verdict.moves = move;
+		verdict.reason = reason;
+	}
+}
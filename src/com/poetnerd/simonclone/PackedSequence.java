@@ -0,0 +1,259 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * PackedSequence
+ * 
+ * A sequence of colors, two bits each, thirty-two to a long.  Reading a step is a
+ * shift and a mask.  The sequence grows as steps are set past its end:  When the words
+ * run out they are copied into an array twice the size, so there is no limit on
+ * length.  Bits past the end are always zero, so two sequences of the same length
+ * can be compared a word at a time.
+ * 
+ * The binary form is a version byte, the length as a varint, then the steps packed
+ * four to a byte, first step in the low bits.  31 steps take 10 bytes.
+ */
+public final class PackedSequence {
+	
+	private static final int STEPS_PER_WORD = 32;
+	private static final int WORD_SHIFT = 5;
+	private static final int STEP_MASK = 3;
+	
+	static final int FORMAT_VERSION = 1;
+	
+	private long[] words;
+	private int length;
+	
+	public PackedSequence() {
+		words = new long[1];
+	}
+	
+	public PackedSequence(int capacity) {
+		words = new long[Math.max(1, wordsFor(capacity))];
+	}
+	
+	public int length() {
+		return length;
+	}
+	
+	/* Steps past the end read as zero (green). */
+	public int get(int index) {
+		int word = index >>> WORD_SHIFT;
+		if (word >= words.length) return 0;
+		return (int) (words[word] >>> ((index & (STEPS_PER_WORD - 1)) << 1)) & STEP_MASK;
+	}
+	
+	/* Set a step, growing the sequence if the step is past the end. */
+	public void set(int index, int color) {
+		if (index >= length) {
+			ensureCapacity(index + 1);
+			length = index + 1;
+		}
+		int word = index >>> WORD_SHIFT;
+		int shift = (index & (STEPS_PER_WORD - 1)) << 1;
+		words[word] = (words[word] & ~((long) STEP_MASK << shift)) | ((long) (color & STEP_MASK) << shift);
+	}
+	
+	public void append(int color) {
+		set(length, color);
+	}
+	
+	/* Shorten the sequence, or lengthen it with zeros (green). */
+	public void setLength(int newLength) {
+		if (newLength > length) {
+			ensureCapacity(newLength);
+		} else {
+			clearFrom(newLength);
+		}
+		length = newLength;
+	}
+	
+	public void clear() {
+		setLength(0);
+	}
+	
+	/* Make this a copy of the first count steps of another sequence. */
+	public void copyFrom(PackedSequence other, int count) {
+		ensureCapacity(count);
+		int fullWords = wordsFor(count);
+		System.arraycopy(other.words, 0, words, 0, Math.min(fullWords, other.words.length));
+		int oldLength = length;
+		length = count;
+		clearFrom(count);
+		if (oldLength > count) {
+			for (int w = fullWords; w < wordsFor(oldLength); w++) words[w] = 0;
+		}
+	}
+	
+	/* The raw words, for comparing sequences a word at a time. */
+	int wordCount() {
+		return wordsFor(length);
+	}
+	
+	long word(int index) {
+		return words[index];
+	}
+	
+	/* The thirty-two steps from index on, packed as a word is, for comparing runs that
+	 * don't start on a word boundary.  Steps past the end are zero. */
+	long stepsAt(int index) {
+		int word = index >>> WORD_SHIFT;
+		if (word >= words.length) return 0;
+		int shift = (index & (STEPS_PER_WORD - 1)) << 1;
+		long steps = words[word] >>> shift;
+		if (shift != 0 && word + 1 < words.length) steps |= words[word + 1] << (64 - shift);
+		return steps;
+	}
+	
+	/* Room for this many steps. */
+	private void ensureCapacity(int steps) {
+		int needed = wordsFor(steps);
+		if (needed > words.length) {
+			long[] grown = new long[Math.max(needed, words.length * 2)];
+			System.arraycopy(words, 0, grown, 0, words.length);
+			words = grown;
+		}
+	}
+	
+	/* Zero every step from index to the end of its word, keeping the bits past the end clear. */
+	private void clearFrom(int index) {
+		int word = index >>> WORD_SHIFT;
+		if (word >= words.length) return;
+		int shift = (index & (STEPS_PER_WORD - 1)) << 1;
+		words[word] &= shift == 0 ? 0 : (-1L >>> (64 - shift));
+		for (int w = word + 1; w < wordsFor(length); w++) words[w] = 0;
+	}
+	
+	private static int wordsFor(int steps) {
+		return (steps + STEPS_PER_WORD - 1) >>> WORD_SHIFT;
+	}
+	
+	/* Binary form */
+	
+	public int encodedSize() {
+		return 1 + varintSize(length) + (length + 3) / 4;
+	}
+	
+	/* Write the binary form at offset and return the offset just past it. */
+	public int encode(byte[] out, int offset) {
+		out[offset++] = FORMAT_VERSION;
+		int n = length;
+		while ((n & ~0x7F) != 0) {
+			out[offset++] = (byte) ((n & 0x7F) | 0x80);
+			n >>>= 7;
+		}
+		out[offset++] = (byte) n;
+		for (int i = 0; i < length; i += 4) {
+			/* Four steps are the next eight bits of the word. */
+			out[offset++] = (byte) (words[i >>> WORD_SHIFT] >>> ((i & (STEPS_PER_WORD - 1)) << 1));
+		}
+		return offset;
+	}
+	
+	public byte[] toBytes() {
+		byte[] out = new byte[encodedSize()];
+		encode(out, 0);
+		return out;
+	}
+	
+	/* Replace this sequence with the one encoded at offset.  Returns the offset just past it. */
+	public int decode(byte[] in, int offset) {
+		if (in[offset++] != FORMAT_VERSION) {
+			throw new IllegalArgumentException("Unknown sequence format " + in[offset - 1]);
+		}
+		int n = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = in[offset++];
+			n |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		
+		clear();
+		ensureCapacity(n);
+		for (int i = 0; i < n; i += 4) {
+			words[i >>> WORD_SHIFT] |= (long) (in[offset++] & 0xFF) << ((i & (STEPS_PER_WORD - 1)) << 1);
+		}
+		length = n;
+		clearFrom(n);
+		return offset;
+	}
+	
+	/* The offset just past the sequence encoded at offset, without decoding it; or -1 if
+	 * the bytes run out first or aren't a sequence we know. */
+	static int skip(byte[] in, int offset) {
+		if (offset >= in.length || in[offset++] != FORMAT_VERSION) return -1;
+		int n = 0;
+		int shift = 0;
+		byte b;
+		do {
+			if (offset >= in.length || shift > 28) return -1;
+			b = in[offset++];
+			n |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		if (n < 0) return -1;
+		long end = offset + ((long) n + 3) / 4;
+		return end <= in.length ? (int) end : -1;
+	}
+	
+	/* The length of the sequence encoded at offset, without decoding it; or -1 if the bytes
+	 * run out first or aren't a sequence we know. */
+	static int lengthAt(byte[] in, int offset) {
+		if (offset >= in.length || in[offset++] != FORMAT_VERSION) return -1;
+		int n = 0;
+		int shift = 0;
+		byte b;
+		do {
+			if (offset >= in.length || shift > 28) return -1;
+			b = in[offset++];
+			n |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return n < 0 ? -1 : n;
+	}
+	
+	public static PackedSequence fromBytes(byte[] in) {
+		PackedSequence sequence = new PackedSequence();
+		if (in != null && in.length > 0) sequence.decode(in, 0);
+		return sequence;
+	}
+	
+	private static int varintSize(int n) {
+		int size = 1;
+		while ((n & ~0x7F) != 0) {
+			size++;
+			n >>>= 7;
+		}
+		return size;
+	}
+	
+	/* The old preference format:  One digit per step, "0" to "3". */
+	public static PackedSequence fromDigits(String digits) {
+		PackedSequence sequence = new PackedSequence(digits.length());
+		for (int i = 0; i < digits.length(); i++) {
+			sequence.set(i, digits.charAt(i) - '0');
+		}
+		return sequence;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			sb.append((char) ('0' + get(i)));
+		}
+		return sb.toString();
+	}
+}
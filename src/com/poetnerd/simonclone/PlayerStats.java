@@ -0,0 +1,208 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.nio.ByteBuffer;
+
+/*
+ * PlayerStats
+ * 
+ * How the player plays, across every game:  How long they take to press each step of
+ * the sequence, and which colors they miss.  Everything is a running aggregate with a
+ * fixed size -- counters, histograms with fixed buckets, a moving average -- updated in
+ * constant time per press.  Nothing is kept of the presses themselves, so reading the
+ * stats never scans history and a thousand games take no more room than one.
+ * 
+ * Reaction time is from the end of Simon's playback to the first press, and from each
+ * press to the next after that.  Steps past MAX_POSITION share the last slot, and times
+ * past the last bucket share it too.
+ * 
+ * ScoreKeeper feeds this; ScoreBook keeps it with the scores.
+ */
+public final class PlayerStats {
+	
+	public static final int MAX_POSITION = 32;
+	public static final int BUCKET_MILLIS = 50;
+	public static final int BUCKETS = 40;			// Up to two seconds.
+	
+	private static final int TREND_SHIFT = 3;		// Moving averages weigh the newest 1/8.
+	private static final int TREND_SCALE = 8;		// Kept in 1/256ths.
+	
+	private final int[][] reactions = new int[MAX_POSITION][BUCKETS];
+	private final int[] reactionCounts = new int[MAX_POSITION];
+	private final long[] reactionTotals = new long[MAX_POSITION];
+	private long reactionCount;
+	private int reactionTrend;
+	
+	private final int[] presses = new int[4];		// By the color that was wanted.
+	private final int[] misses = new int[4];
+	
+	/* The player pressed button at position in the sequence, when color was wanted,
+	 * reactionMillis after their cue.  At the end of a game 2 sequence, where the player
+	 * adds a color, pass -1 for color: nothing could be missed. */
+	public void pressed(int position, int color, int button, long reactionMillis) {
+		if (reactionMillis < 0) reactionMillis = 0;
+		int slot = position < MAX_POSITION ? position : MAX_POSITION - 1;
+		int bucket = (int) Math.min(reactionMillis / BUCKET_MILLIS, BUCKETS - 1);
+		reactions[slot][bucket]++;
+		reactionCounts[slot]++;
+		reactionTotals[slot] += reactionMillis;
+		int scaled = (int) Math.min(reactionMillis, Integer.MAX_VALUE >> TREND_SCALE) << TREND_SCALE;
+		reactionTrend = ++reactionCount == 1 ? scaled : reactionTrend + ((scaled - reactionTrend) >> TREND_SHIFT);
+		
+		if (color >= 0 && color < 4) {
+			presses[color]++;
+			if (button != color) misses[color]++;
+		}
+	}
+	
+	/* Reading */
+	
+	public int getReactionCount(int position) {
+		return reactionCounts[slot(position)];
+	}
+	
+	public long getReactionMean(int position) {
+		int slot = slot(position);
+		return reactionCounts[slot] == 0 ? 0 : reactionTotals[slot] / reactionCounts[slot];
+	}
+	
+	/* The reaction time, to the nearest bucket, that percent of presses at position beat. */
+	public long getReactionPercentile(int position, double percent) {
+		int slot = slot(position);
+		int count = reactionCounts[slot];
+		if (count == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(percent / 100.0 * count));
+		long seen = 0;
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			seen += reactions[slot][bucket];
+			if (seen >= rank) return bucket * BUCKET_MILLIS + BUCKET_MILLIS / 2;
+		}
+		return BUCKETS * BUCKET_MILLIS;
+	}
+	
+	/* Copy the histogram for position into out, which has room for BUCKETS. */
+	public void getReactionBuckets(int position, int[] out) {
+		System.arraycopy(reactions[slot(position)], 0, out, 0, BUCKETS);
+	}
+	
+	/* Reaction time lately, in ms:  A moving average over about the last eight presses. */
+	public long getReactionTrend() {
+		return reactionTrend >> TREND_SCALE;
+	}
+	
+	public int getPresses(int color) {
+		return presses[color];
+	}
+	
+	public int getMisses(int color) {
+		return misses[color];
+	}
+	
+	/* The color missed most often for how often it's asked for, or -1 if none has been. */
+	public int getMostMissed() {
+		int most = -1;
+		for (int color = 0; color < 4; color++) {
+			if (misses[color] == 0) continue;
+			if (most < 0 || (long) misses[color] * presses[most] > (long) misses[most] * presses[color]) {
+				most = color;
+			}
+		}
+		return most;
+	}
+	
+	private static int slot(int position) {
+		if (position < 0) return 0;
+		return position < MAX_POSITION ? position : MAX_POSITION - 1;
+	}
+	
+	/* "reaction ms: 1st mean=820 p90=1325, 2nd ... trend=410; misses: green 2/140 ..." */
+	public String report() {
+		StringBuilder sb = new StringBuilder("reaction ms:");
+		for (int position = 0; position < MAX_POSITION; position++) {
+			if (reactionCounts[position] == 0) continue;
+			sb.append(" #").append(position + 1);
+			if (position == MAX_POSITION - 1) sb.append('+');
+			sb.append(" n=").append(reactionCounts[position]);
+			sb.append(" mean=").append(getReactionMean(position));
+			sb.append(" p90=").append(getReactionPercentile(position, 90));
+			sb.append(',');
+		}
+		sb.append(" trend=").append(getReactionTrend());
+		sb.append("; misses:");
+		for (int color = 0; color < 4; color++) {
+			sb.append(' ').append(misses[color]).append('/').append(presses[color]);
+		}
+		return sb.toString();
+	}
+	
+	/* Binary form, inside a ScoreBook:  the trend, then for each position that has
+	 * presses, its number and its non-empty buckets as (bucket, count) pairs ending in a
+	 * bucket of BUCKETS; a position of MAX_POSITION ends the list.  Then presses and
+	 * misses for each color.  The count and total at a position are remade from the
+	 * buckets and the totals are kept as such, so a mean survives exactly. */
+	
+	int maxEncodedSize() {
+		int size = 5 + 1 + 8 * 5;
+		for (int position = 0; position < MAX_POSITION; position++) {
+			if (reactionCounts[position] == 0) continue;
+			size += 1 + 10 + 1;
+			int[] buckets = reactions[position];
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				if (buckets[bucket] != 0) size += 1 + 5;
+			}
+		}
+		return size;
+	}
+	
+	void encode(ByteBuffer out) {
+		GameRecorder.putVarlong(out, reactionTrend);
+		for (int position = 0; position < MAX_POSITION; position++) {
+			if (reactionCounts[position] == 0) continue;
+			GameRecorder.putVarlong(out, position);
+			GameRecorder.putVarlong(out, reactionTotals[position]);
+			int[] buckets = reactions[position];
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				if (buckets[bucket] == 0) continue;
+				GameRecorder.putVarlong(out, bucket);
+				GameRecorder.putVarlong(out, buckets[bucket]);
+			}
+			GameRecorder.putVarlong(out, BUCKETS);
+		}
+		GameRecorder.putVarlong(out, MAX_POSITION);
+		for (int color = 0; color < 4; color++) {
+			GameRecorder.putVarlong(out, presses[color]);
+			GameRecorder.putVarlong(out, misses[color]);
+		}
+	}
+	
+	static PlayerStats decode(ByteBuffer in) {
+		PlayerStats stats = new PlayerStats();
+		stats.reactionTrend = (int) GameRecording.readVarlong(in);
+		int position;
+		while ((position = (int) GameRecording.readVarlong(in)) < MAX_POSITION) {
+			stats.reactionTotals[position] = GameRecording.readVarlong(in);
+			int bucket;
+			while ((bucket = (int) GameRecording.readVarlong(in)) < BUCKETS) {
+				int count = (int) GameRecording.readVarlong(in);
+				stats.reactions[position][bucket] = count;
+				stats.reactionCounts[position] += count;
+				stats.reactionCount += count;
+			}
+		}
+		for (int color = 0; color < 4; color++) {
+			stats.presses[color] = (int) GameRecording.readVarlong(in);
+			stats.misses[color] = (int) GameRecording.readVarlong(in);
+		}
+		return stats;
+	}
+}
@@ -0,0 +1,33 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * Scheduler
+ * 
+ * Delivers delayed events back to the game engine.  Each class of event ("what")
+ * has at most one pending delivery:  Scheduling a class that is already pending
+ * replaces the old delivery, just as removeMessages() followed by sendMessageDelayed()
+ * did with the old UpdateHandler.
+ */
+public interface Scheduler {
+
+	public interface Target {
+		void onEvent(int what);
+	}
+	
+	void setTarget(Target target);
+	
+	void schedule(int what, long delayMillis);
+	
+	void cancel(int what);
+}
@@ -0,0 +1,287 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/*
+ * ScoreBook
+ * 
+ * Everything we keep between runs of the app:  The game and level last chosen and the
+ * longest sequence, as the engine has them; for each game at each level the games
+ * played and won, the lengths reached, and the longest sequence that went with the best;
+ * the PlayerStats; and the DeviceTiming measured here.  Recording a game is constant
+ * time and reading takes no sums.
+ * 
+ * The binary form, all varints unsigned LEB128:
+ * 
+ *   'S' 'I' 'M' 'S', FORMAT_VERSION, game, level, the longest sequence (PackedSequence
+ *   binary form), the number of entries, then for each: game, level, played, won,
+ *   best, total length, length trend, longest sequence.  Then the PlayerStats, and the
+ *   DeviceTiming:  the build's length and UTF-8 bytes, then the tick lead and sound lead
+ *   plus one.  Last, the CRC32 of all that, 4 bytes big endian.
+ * 
+ * Only games that have been played get an entry, so a new book is about 20 bytes and a
+ * well used one a kilobyte or so.  A book that fails its CRC, or comes from a later version
+ * of the app, won't read at all rather than read wrong.
+ */
+public final class ScoreBook {
+	
+	static final byte[] MAGIC = { 'S', 'I', 'M', 'S' };
+	static final int FORMAT_VERSION = 1;
+	
+	private static final String UTF_8 = "UTF-8";
+	
+	public static final int GAMES = 3;
+	public static final int LEVELS = SimonEngine.ENDLESS_LEVEL;
+	
+	/* How one game at one level has gone. */
+	public static final class Entry {
+		private int played;
+		private int won;
+		private int best;
+		private long total;
+		private int trend;		// Moving average in 1/256ths, like PlayerStats' reaction trend.
+		private final PackedSequence longest = new PackedSequence();
+		
+		public int getPlayed() {
+			return played;
+		}
+		
+		public int getWon() {
+			return won;
+		}
+		
+		/* The longest sequence reached in any one game. */
+		public int getBest() {
+			return best;
+		}
+		
+		/* Percent of games won. */
+		public int getWinRate() {
+			return played == 0 ? 0 : (int) (100L * won / played);
+		}
+		
+		public double getAverage() {
+			return played == 0 ? 0 : (double) total / played;
+		}
+		
+		/* The length reached lately:  A moving average over about the last eight games. */
+		public double getTrend() {
+			return trend / 256.0;
+		}
+		
+		public PackedSequence getLongest() {
+			PackedSequence copy = new PackedSequence(longest.length());
+			copy.copyFrom(longest, longest.length());
+			return copy;
+		}
+	}
+	
+	private int game = 1;
+	private int level = 1;
+	private final PackedSequence longest = new PackedSequence();
+	private final Entry[] entries = new Entry[GAMES * LEVELS];
+	private PlayerStats stats = new PlayerStats();
+	private DeviceTiming deviceTiming = DeviceTiming.NONE;
+	
+	public int getGame() {
+		return game;
+	}
+	
+	public int getLevel() {
+		return level;
+	}
+	
+	public PackedSequence getLongest() {
+		PackedSequence copy = new PackedSequence(longest.length());
+		copy.copyFrom(longest, longest.length());
+		return copy;
+	}
+	
+	/* Take the game, level and longest sequence from the engine. */
+	public void setSettings(int game, int level, PackedSequence longest) {
+		this.game = game;
+		this.level = level;
+		this.longest.copyFrom(longest, longest.length());
+	}
+	
+	/* Put them back. */
+	public void applySettings(SimonEngine engine) {
+		engine.setLevel(level);
+		engine.setGame(game);
+		engine.setLongest(longest);
+	}
+	
+	public PlayerStats getStats() {
+		return stats;
+	}
+	
+	public DeviceTiming getDeviceTiming() {
+		return deviceTiming;
+	}
+	
+	public void setDeviceTiming(DeviceTiming deviceTiming) {
+		this.deviceTiming = deviceTiming;
+	}
+	
+	/* The entry for game at level, or null if it's never been played. */
+	public Entry getEntry(int game, int level) {
+		int slot = slot(game, level);
+		return slot < 0 ? null : entries[slot];
+	}
+	
+	/* A game has finished, having reached sequence. */
+	public void record(int game, int level, PackedSequence sequence, boolean won) {
+		int slot = slot(game, level);
+		if (slot < 0) return;
+		Entry entry = entries[slot];
+		if (entry == null) entry = entries[slot] = new Entry();
+		entry.played++;
+		if (won) entry.won++;
+		entry.total += sequence.length();
+		int scaled = sequence.length() << 8;
+		entry.trend = entry.played == 1 ? scaled : entry.trend + ((scaled - entry.trend) >> 3);
+		if (sequence.length() > entry.best) {
+			entry.best = sequence.length();
+			entry.longest.copyFrom(sequence, sequence.length());
+		}
+	}
+	
+	private static int slot(int game, int level) {
+		if (game < 1 || game > GAMES || level < 1 || level > LEVELS) return -1;
+		return (game - 1) * LEVELS + level - 1;
+	}
+	
+	/* Binary form */
+	
+	public byte[] toBytes() {
+		byte[] build = utf8(deviceTiming.getBuild());
+		int size = MAGIC.length + 1 + 3 * 5 + longest.encodedSize() + stats.maxEncodedSize()
+				+ 3 * 10 + build.length + 4;
+		for (Entry entry : entries) {
+			if (entry != null) size += 7 * 10 + entry.longest.encodedSize();
+		}
+		ByteBuffer out = ByteBuffer.allocate(size);
+		out.put(MAGIC);
+		out.put((byte) FORMAT_VERSION);
+		GameRecorder.putVarlong(out, game);
+		GameRecorder.putVarlong(out, level);
+		putSequence(out, longest);
+		int count = 0;
+		for (Entry entry : entries) {
+			if (entry != null) count++;
+		}
+		GameRecorder.putVarlong(out, count);
+		for (int slot = 0; slot < entries.length; slot++) {
+			Entry entry = entries[slot];
+			if (entry == null) continue;
+			GameRecorder.putVarlong(out, slot / LEVELS + 1);
+			GameRecorder.putVarlong(out, slot % LEVELS + 1);
+			GameRecorder.putVarlong(out, entry.played);
+			GameRecorder.putVarlong(out, entry.won);
+			GameRecorder.putVarlong(out, entry.best);
+			GameRecorder.putVarlong(out, entry.total);
+			GameRecorder.putVarlong(out, entry.trend);
+			putSequence(out, entry.longest);
+		}
+		stats.encode(out);
+		GameRecorder.putVarlong(out, build.length);
+		out.put(build);
+		GameRecorder.putVarlong(out, deviceTiming.isTickMeasured() ? deviceTiming.getTickLead() + 1 : 0);
+		GameRecorder.putVarlong(out, deviceTiming.isSoundMeasured() ? deviceTiming.getSoundLead() + 1 : 0);
+		CRC32 crc = new CRC32();
+		crc.update(out.array(), 0, out.position());
+		out.putInt((int) crc.getValue());
+		
+		byte[] bytes = new byte[out.position()];
+		System.arraycopy(out.array(), 0, bytes, 0, bytes.length);
+		return bytes;
+	}
+	
+	public static ScoreBook fromBytes(byte[] in) {
+		if (in.length < MAGIC.length + 1 + 4) throw new IllegalArgumentException("Too short for a score book");
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (in[i] != MAGIC[i]) throw new IllegalArgumentException("Not a score book");
+		}
+		if (in[MAGIC.length] != FORMAT_VERSION) {
+			throw new IllegalArgumentException("Unknown score book format " + in[MAGIC.length]);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(in, 0, in.length - 4);
+		ByteBuffer buffer = ByteBuffer.wrap(in);
+		if (buffer.getInt(in.length - 4) != (int) crc.getValue()) {
+			throw new IllegalArgumentException("Score book is damaged");
+		}
+		
+		try {
+			buffer.position(MAGIC.length + 1);
+			buffer.limit(in.length - 4);
+			ScoreBook book = new ScoreBook();
+			book.game = (int) GameRecording.readVarlong(buffer);
+			book.level = (int) GameRecording.readVarlong(buffer);
+			getSequence(buffer, book.longest);
+			int count = (int) GameRecording.readVarlong(buffer);
+			for (int i = 0; i < count; i++) {
+				int slot = slot((int) GameRecording.readVarlong(buffer), (int) GameRecording.readVarlong(buffer));
+				Entry entry = new Entry();
+				entry.played = (int) GameRecording.readVarlong(buffer);
+				entry.won = (int) GameRecording.readVarlong(buffer);
+				entry.best = (int) GameRecording.readVarlong(buffer);
+				entry.total = GameRecording.readVarlong(buffer);
+				entry.trend = (int) GameRecording.readVarlong(buffer);
+				getSequence(buffer, entry.longest);
+				if (slot >= 0) book.entries[slot] = entry;
+			}
+			book.stats = PlayerStats.decode(buffer);
+			byte[] build = new byte[(int) GameRecording.readVarlong(buffer)];
+			buffer.get(build);
+			long tickLead = GameRecording.readVarlong(buffer) - 1;
+			long soundLead = GameRecording.readVarlong(buffer) - 1;
+			book.deviceTiming = new DeviceTiming(fromUtf8(build), tickLead, soundLead);
+			return book;
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("Score book is cut short");
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Score book is cut short");
+		}
+	}
+	
+	private static byte[] utf8(String text) {
+		try {
+			return text.getBytes(UTF_8);
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError(e);		// Every Java has UTF-8.
+		}
+	}
+	
+	private static String fromUtf8(byte[] bytes) {
+		try {
+			return new String(bytes, UTF_8);
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError(e);
+		}
+	}
+	
+	private static void putSequence(ByteBuffer out, PackedSequence sequence) {
+		out.position(sequence.encode(out.array(), out.position()));
+	}
+	
+	private static void getSequence(ByteBuffer in, PackedSequence sequence) {
+		int end = sequence.decode(in.array(), in.position());
+		if (end > in.limit()) throw new BufferUnderflowException();
+		in.position(end);
+	}
+}
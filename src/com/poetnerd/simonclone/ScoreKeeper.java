@@ -0,0 +1,106 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * ScoreKeeper
+ * 
+ * Watches an engine and writes each finished game into a ScoreBook:  which game and
+ * level, whether it was won, and the longest sequence the player repeated all the way
+ * through -- a round lost part way doesn't count.  In game 3 a new round starts over
+ * at one, so the longest is the longest of any round.  Each press
+ * goes to the book's PlayerStats as it happens, with the time since the player's cue.
+ * 
+ * A game we didn't see start -- one restored from a Bundle, say -- isn't counted.
+ */
+final class ScoreKeeper extends EngineProbe {
+	
+	private final SimonEngine engine;
+	private ScoreBook book = new ScoreBook();
+	
+	private final PackedSequence sequence = new PackedSequence();
+	private final PackedSequence longest = new PackedSequence();
+	private boolean inGame;
+	private boolean pressed;	// A press the engine heard, waiting for its release.
+	private int game;
+	private int level;
+	private long cueMillis;		// When Simon finished playing, or the player last pressed.
+	
+	ScoreKeeper(SimonEngine engine) {
+		this.engine = engine;
+	}
+	
+	ScoreBook getBook() {
+		return book;
+	}
+	
+	void setBook(ScoreBook book) {
+		this.book = book;
+	}
+	
+	@Override
+	public void onGameStart(long seed) {
+		inGame = true;
+		game = engine.getGame();
+		level = engine.getLevel();
+		sequence.clear();
+		longest.clear();
+		pressed = false;
+	}
+	
+	@Override
+	public void onColorAdded(int index, int color) {
+		if (!inGame) return;
+		if (index == 0) sequence.clear();
+		sequence.set(index, color);
+	}
+	
+	@Override
+	public void onModeChange(int mode) {
+		if (!inGame) return;
+		if (engine.isListening()) {
+			cueMillis = engine.getClock().uptimeMillis();
+		} else if (engine.isFinished()) {
+			inGame = false;
+			book.record(game, level, longest, engine.isWon());
+		}
+	}
+	
+	@Override
+	public void onInput(int input, int argument) {
+		switch (input) {
+		case PRESS:
+			if (!inGame || !engine.isListening()) return;		// The engine ignores it too.
+			long now = engine.getClock().uptimeMillis();
+			int position = engine.getPlayerIndex();
+			int color = position < engine.getSequenceLength() ? engine.getExpectedButton() : -1;
+			book.getStats().pressed(position, color, argument, now - cueMillis);
+			cueMillis = now;
+			pressed = true;
+			break;
+		case RELEASE:
+			if (!inGame || !engine.isListening() || !pressed) return;
+			pressed = false;
+			int length = engine.getSequenceLength();
+			// The last step of the round, matched:  The player has it all.  (In game 2 the
+			// step they added is already in the sequence by now.)
+			if (engine.getPlayerIndex() == length - 1 && engine.getExpectedButton() == argument
+					&& length > longest.length()) {
+				longest.copyFrom(sequence, length);
+			}
+			break;
+		case SET_LEVEL:
+			if (argument != level) inGame = false;		// Abandoned part way.
+			break;
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * ScoreStore
+ * 
+ * Keeps a ScoreBook in a file, writing behind:  save() encodes the book on the caller's
+ * thread, which takes a few microseconds, and hands the bytes to a writer thread.  The
+ * caller never waits on the disk.  Saves that come in while the writer is waiting or
+ * busy are batched -- only the newest is written -- and a save of just what's already
+ * on disk writes nothing.
+ * 
+ * Each write goes to a scratch file which is synced and then renamed over the real one,
+ * so a crash leaves either the old book or the new one, never half of each.
+ * 
+ * save() waits WRITE_DELAY_MILLIS for more to batch; saveNow() doesn't wait, for when
+ * the process may be about to go (an Activity's onPause).
+ */
+public final class ScoreStore {
+	
+	private static final String TAG = "ScoreStore";
+	
+	static final long WRITE_DELAY_MILLIS = 500;
+	
+	/* A save waiting to be written. */
+	private static final class Pending {
+		final byte[] bytes;
+		final long number;
+		final boolean now;
+		
+		Pending(byte[] bytes, long number, boolean now) {
+			this.bytes = bytes;
+			this.number = number;
+			this.now = now;
+		}
+	}
+	
+	private final File file;
+	private final File scratch;
+	private final AtomicReference<Pending> pending = new AtomicReference<Pending>();
+	private final Thread writer;
+	private volatile boolean closed;
+	
+	private long saves;				// Only the saving thread counts these.
+	private final Object lock = new Object();
+	private long written;			// The number of the last save on disk, under lock.
+	private IOException failure;	// What the last write threw, under lock...
+	private long failedSave;		// ...and the number of the save it was writing.
+	private volatile byte[] onDisk;		// What the file holds, as far as we know.
+	
+	public ScoreStore(File file) {
+		this.file = file;
+		this.scratch = new File(file.getPath() + ".new");
+		writer = new Thread(TAG) {
+			@Override
+			public void run() {
+				writeSaves();
+			}
+		};
+		writer.setPriority(Thread.MIN_PRIORITY);
+		writer.start();
+	}
+	
+	/*
+	 * load
+	 * 
+	 * Read the book as it was last saved, or null if there isn't one we can read.  This
+	 * one does wait on the disk, but only to read a few hundred bytes, once, at launch.
+	 */
+	public ScoreBook load() {
+		if (!file.exists()) return null;
+		try {
+			byte[] bytes = readFile(file);
+			ScoreBook book = ScoreBook.fromBytes(bytes);
+			if (saves == 0) onDisk = bytes;
+			return book;
+		} catch (IOException e) {
+			return null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+	
+	public void save(ScoreBook book) {
+		save(book, false);
+	}
+	
+	public void saveNow(ScoreBook book) {
+		save(book, true);
+	}
+	
+	private void save(ScoreBook book, boolean now) {
+		if (closed) throw new IllegalStateException("Store is closed");
+		pending.set(new Pending(book.toBytes(), ++saves, now));
+		LockSupport.unpark(writer);
+	}
+	
+	/*
+	 * flush
+	 * 
+	 * Wait until everything saved so far is on disk.  Not for the main thread:  This is
+	 * for benchmarks and for tools that need to know.  Each write is of the whole book, so
+	 * the newest save is on disk once a write of it or of a later one has gone through.
+	 * Throws what that write threw; an earlier write's failure doesn't count.
+	 */
+	public void flush() throws IOException {
+		long wanted = saves;
+		LockSupport.unpark(writer);
+		boolean interrupted = false;
+		synchronized (lock) {
+			while (written < wanted) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) Thread.currentThread().interrupt();
+			if (failure != null && failedSave >= wanted) throw failure;
+		}
+	}
+	
+	/* Write what's waiting straight away, then let the writer go.  Doesn't wait. */
+	public void close() {
+		closed = true;
+		LockSupport.unpark(writer);
+	}
+	
+	/* The writer thread. */
+	private void writeSaves() {
+		while (true) {
+			Pending next = pending.get();
+			if (next == null) {
+				if (closed) return;
+				LockSupport.park(this);
+				continue;
+			}
+			if (!next.now && !closed) {
+				/* Give more saves a chance to come in, and take the newest. */
+				long deadline = System.nanoTime() + WRITE_DELAY_MILLIS * 1000000L;
+				long left;
+				while ((left = deadline - System.nanoTime()) > 0 && !closed && !pending.get().now) {
+					LockSupport.parkNanos(this, left);
+				}
+			}
+			next = pending.getAndSet(null);
+			
+			IOException failed = null;
+			if (!Arrays.equals(next.bytes, onDisk)) {
+				try {
+					writeFile(next.bytes);
+					onDisk = next.bytes;
+				} catch (IOException e) {
+					failed = e;
+				}
+			}
+			synchronized (lock) {
+				written = next.number;
+				failure = failed;
+				failedSave = next.number;
+				lock.notifyAll();
+			}
+		}
+	}
+	
+	private void writeFile(byte[] bytes) throws IOException {
+		FileOutputStream out = new FileOutputStream(scratch);
+		try {
+			out.write(bytes);
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!scratch.renameTo(file)) {
+			/* Where rename won't replace (not on Android), make room first. */
+			file.delete();
+			if (!scratch.renameTo(file)) throw new IOException("Can't rename " + scratch + " to " + file);
+		}
+	}
+	
+	private static byte[] readFile(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			byte[] bytes = new byte[(int) file.length()];
+			int read = 0;
+			while (read < bytes.length) {
+				int n = in.read(bytes, read, bytes.length - read);
+				if (n < 0) throw new IOException("Short read of " + file);
+				read += n;
+			}
+			return bytes;
+		} finally {
+			in.close();
+		}
+	}
+}
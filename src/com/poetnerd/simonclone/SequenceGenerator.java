@@ -0,0 +1,62 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * SequenceGenerator
+ * 
+ * Simon's colors, worked out rather than remembered.  Step i of a round is a hash of
+ * the round's key and i (the SplitMix64 mixer), so any step can be had at any time in
+ * constant time, and a sequence of any length needs no storage at all:  Just the key,
+ * the colors in play, and how long it is.
+ * 
+ * A game has one seed.  Each round of it (game 3 starts a new round every time a color
+ * is eliminated) gets its own key from the seed and the round number.
+ */
+public final class SequenceGenerator {
+	
+	private static final long GAMMA = 0x9E3779B97F4A7C15L;	// The golden ratio, as SplitMix uses it.
+	
+	/* All four colors in play. */
+	public static final int ALL_COLORS = 0xF;
+	
+	private SequenceGenerator() {
+	}
+	
+	public static long roundKey(long seed, int round) {
+		return mix(seed + (round + 1) * GAMMA);
+	}
+	
+	/*
+	 * colorAt
+	 * 
+	 * The color of step index in a round, chosen evenly from the colors whose bits
+	 * are set in activeMask (bit 0 is green, as in AudioSink).
+	 */
+	public static int colorAt(long roundKey, int activeMask, int index) {
+		long z = mix(roundKey + (index + 1) * GAMMA);
+		int count = Integer.bitCount(activeMask);
+		int pick = (int) (((z >>> 32) * count) >>> 32);	// Evenly in [0, count) without a divide.
+		int mask = activeMask;
+		for (int i = 0; i < pick; i++) {
+			mask &= mask - 1;			// Drop the lowest color in play.
+		}
+		return Integer.numberOfTrailingZeros(mask);
+	}
+	
+	/* The SplitMix64 finalizer. */
+	static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
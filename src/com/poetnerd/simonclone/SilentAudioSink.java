@@ -0,0 +1,37 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * SilentAudioSink
+ * 
+ * An AudioSink that makes no sound, for running the engine where there is no speaker.
+ */
+public final class SilentAudioSink implements AudioSink {
+
+	public void play(int sound) {
+	}
+
+	public void stop() {
+	}
+	
+	public boolean isReady() {
+		return true;
+	}
+	
+	public void whenReady(Runnable action) {
+		action.run();
+	}
+
+	public void release() {
+	}
+}
@@ -11,23 +11,33 @@
 
 package com.poetnerd.simonclone;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.Executor;
+
 import android.app.Activity;
 import android.app.Dialog;
 import android.app.AlertDialog;
 import android.app.AlertDialog.Builder;
 
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.content.SharedPreferences.Editor;
 
 import android.view.View;
+import android.view.ViewGroup;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MenuInflater;
 import android.view.View.OnClickListener;
 
+import android.util.Log;
+
 import android.widget.Button;
 import android.widget.TextView;
 
@@ -36,7 +46,6 @@ import android.content.DialogInterface;
 import android.media.AudioManager;
 
 public class SimonCloneActivity extends Activity {
-	@SuppressWarnings("unused")
 	private static final String TAG = SimonCloneActivity.class.getSimpleName();
 	
 	private static final int LEVEL_DIALOG = 1;
@@ -44,7 +53,31 @@ public class SimonCloneActivity extends Activity {
 	private static final int ABOUT_DIALOG = 3;
 	private static final int HELP_DIALOG = 4;
 	
+	/* Draw the board on its own thread, with a ButtonSurfaceView, rather than on the main thread. */
+	
+	private static final boolean RENDER_THREAD = false;
+	
+	/* Diagnostic modes -- enable them by setting true. */
+	
+	private static final boolean TRACE_TIMING = false;	// Log tone timing histograms on pause.
+	private static final boolean TRACE_FRAMES = false;	// Log frame times and allocations on pause.
+	private static final boolean TRACE_TOUCH = false;	// Log touch to sound and light latency on pause.
+	private static final boolean RECORD_GAMES = false;	// Record each run of the app into files/recordings.
+	
+	/* Metrics are collected from the field on demand:  adb shell setprop log.tag.SimonMetrics DEBUG,
+	 * then restart the app.  Each pause dumps them to logcat and appends them to files/metrics.txt. */
+	private static final String METRICS_TAG = "SimonMetrics";
+	
+	/* So is a check of the light cadences against the original game, on this device's main looper:
+	 * adb shell setprop log.tag.SimonCadence DEBUG, or VERBOSE to run it under CPU, GC and I/O load,
+	 * then restart the app.  It plays on an engine of its own, silently, and logs a CadenceChecker report. */
+	private static final String CADENCE_TAG = "SimonCadence";
+	private static final long CADENCE_TOLERANCE_MILLIS = 15;
+	
 	private SimonClone model;
+	private SimonEngine engine;		// The model's, which the buttons and menus play.
+	private ButtonBoardView grid;
+	private boolean retaining;		// The model is going on to our next instance.
 	private Menu mMenu;
 	private AlertDialog levelDialog;
 	private AlertDialog gameDialog;
@@ -52,17 +85,54 @@ public class SimonCloneActivity extends Activity {
 	private AlertDialog helpDialog;
 	private TextView levelDisplay;
 	private TextView gameDisplay;
+	private ToneTracer toneTracer;
+	private FrameStats frameStats;
+	private TouchLatency touchLatency;
+	private EngineMetrics engineMetrics;
 	
     /** Called when the activity is first created. */
     @Override
     public void onCreate(Bundle savedInstanceState) {
-        model = new SimonClone(this);
-                
+        StartupTrace.begin();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.main);
+        StartupTrace.mark("content view");
+        
+        /* A configuration change hands us the last instance's model, sounds and all. */
+        SimonClone retained = (SimonClone) getLastNonConfigurationInstance();
+        model = retained != null ? retained : new SimonClone(this);
+        engine = model.getEngine();
+        StartupTrace.mark("model");
 
-        ButtonGridView grid = (ButtonGridView) this.findViewById(R.id.button_grid);
-        grid.setSimonCloneModel(model);
+        grid = (ButtonBoardView) this.findViewById(R.id.button_grid);
+        if (RENDER_THREAD) {
+        	grid = useRenderThread((View) grid);
+        }
+        grid.setSimonCloneModel(engine);
+        
+        if (TRACE_TIMING) {
+        	toneTracer = new ToneTracer(engine);
+        	engine.addProbe(toneTracer);
+        	grid.setToneTracer(toneTracer);
+        }
+        if (TRACE_TOUCH) {
+        	touchLatency = new TouchLatency();
+        	engine.addProbe(touchLatency);
+        	grid.setTouchLatency(touchLatency);
+        }
+        if (Log.isLoggable(METRICS_TAG, Log.DEBUG)) {
+        	Metrics.setEnabled(true);
+        	engineMetrics = new EngineMetrics();
+        	engine.addProbe(engineMetrics);
+        }
+        if (retained == null && Log.isLoggable(CADENCE_TAG, Log.DEBUG)) {
+        	checkCadence();
+        }
+        if (TRACE_FRAMES) {
+        	frameStats = new FrameStats();
+        	frameStats.start();
+        	grid.setFrameStats(frameStats);
+        }
         
         gameDisplay = (TextView)findViewById(R.id.game);
         
@@ -71,21 +141,21 @@ public class SimonCloneActivity extends Activity {
         Button lastButton = (Button)findViewById(R.id.last);
         lastButton.setOnClickListener(new OnClickListener() {        	
         	public void onClick(View v) {
-        		model.playLast();
+        		engine.playLast();
         	}
         });
 
         Button longestButton = (Button)findViewById(R.id.longest);
         longestButton.setOnClickListener(new OnClickListener() {        	
         	public void onClick(View v) {
-        		model.playLongest();
+        		engine.playLongest();
         	}
         });
         
         Button startButton = (Button)findViewById(R.id.start);
         startButton.setOnClickListener(new OnClickListener() {        	
         	public void onClick(View v) {
-        		model.gameStart();
+        		engine.gameStart();
         	}
         });
         
@@ -93,26 +163,101 @@ public class SimonCloneActivity extends Activity {
         this.setVolumeControlStream(AudioManager.STREAM_MUSIC);  
         
         /* After all initialization, we set up our save/restore InstanceState Bundle. */
-        if (savedInstanceState == null) {		// Just launched.  Set initial state.
-        	SharedPreferences settings = getPreferences (0); // Private mode by default.
-        	model.setLevel(settings.getInt(SimonClone.KEY_GAME_LEVEL, 1));	// Game Level
-        	model.setGame(settings.getInt(SimonClone.KEY_THE_GAME, 1)); 	// The Game
-        	model.setLongest(settings.getString(SimonClone.KEY_LONGEST_SEQUENCE, "")); 	// String Rep of Longest
-        	levelDisplay.setText(String.valueOf(model.getLevel()));
-        	gameDisplay.setText(String.valueOf(model.getGame()));
+        if (retained != null) {		// Carried on from the last configuration, in play and all.
+        	levelDisplay.setText(String.valueOf(engine.getLevel()));
+        	gameDisplay.setText(String.valueOf(engine.getGame()));
+        } else if (savedInstanceState == null) {		// Just launched.  Set initial state.
+        	if (!model.loadScores()) {		// First run since scores moved out of preferences?
+        		SharedPreferences settings = getPreferences (0); // Private mode by default.
+        		engine.setLevel(settings.getInt(SimonEngine.KEY_GAME_LEVEL, 1));	// Game Level
+        		engine.setGame(settings.getInt(SimonEngine.KEY_THE_GAME, 1)); 	// The Game
+        		engine.setLongest(PackedSequence.fromDigits(	// Longest match, a digit a step
+        				settings.getString(SimonEngine.KEY_LONGEST_SEQUENCE, "")));
+        	}
+        	StartupTrace.mark("scores");
+        	levelDisplay.setText(String.valueOf(engine.getLevel()));
+        	gameDisplay.setText(String.valueOf(engine.getGame()));
         } else {
         	/* If I understand the activity cycle, I can put this here and not override
         	 * onRestoreInstanceState */
+        	model.loadScores();		// For the scores; the Bundle has the rest.
         	model.restoreState(savedInstanceState);
         }
+        if (retained == null) model.calibrate();
+        /* A recording starts from the settings, longest and timing we now have, and replays
+         * only from a game at rest:  Not from a restored one, which may be part way through. */
+        if (RECORD_GAMES && retained == null && savedInstanceState == null) {
+        	File recordings = new File(getFilesDir(), "recordings");
+        	model.startRecording(new File(recordings, System.currentTimeMillis() + ".simr"));
+        }
     }
         
+    @Override
+    public Object onRetainNonConfigurationInstance() {
+    	retaining = true;
+    	return model;
+    }
+    
+    @Override
+    protected void onDestroy() {
+    	grid.setSimonCloneModel(null);		// Let go of the model, which may outlive us.
+    	if (toneTracer != null) engine.removeProbe(toneTracer);
+    	if (touchLatency != null) engine.removeProbe(touchLatency);
+    	if (engineMetrics != null) engine.removeProbe(engineMetrics);
+    	if (!retaining) model.dispose();
+    	super.onDestroy();
+    }
+    
     @Override
     protected void onSaveInstanceState(Bundle outState) {
     	super.onSaveInstanceState(outState);
     	model.saveState(outState);
     }
     
+    /* To logcat, and to the end of files/metrics.txt, written off the main thread. */
+    private void dumpMetrics() {
+    	Metrics.gauge("scheduler.wakeupsPerMinute").set(model.getWakeupMeter().perMinute(SystemClock.uptimeMillis()));
+    	Metrics.gauge("board.atlasBytes").set(ButtonAtlas.residentBytes());
+    	Log.d(METRICS_TAG, Metrics.dump());
+    	
+    	final File file = new File(getFilesDir(), "metrics.txt");
+    	final String heading = new Date() + " " + Build.MODEL + " API " + Build.VERSION.SDK_INT;
+    	new Thread("Metrics") {
+    		@Override
+    		public void run() {
+    			try {
+    				Metrics.appendTo(file, heading);
+    			} catch (IOException e) {
+    				Log.w(METRICS_TAG, "Can't write " + file, e);
+    			}
+    		}
+    	}.start();
+    }
+    
+    /* Run a CadenceDrill through to the end, then log how it went. */
+    private void checkCadence() {
+    	final SimonEngine silent = new SimonEngine(new UptimeClock(), new HandlerScheduler(), new SilentAudioSink());
+    	final CadenceChecker checker = new CadenceChecker(silent, CADENCE_TOLERANCE_MILLIS);
+    	final SyntheticLoad load = new SyntheticLoad(
+    			Log.isLoggable(CADENCE_TAG, Log.VERBOSE) ? SyntheticLoad.ALL : 0, getCacheDir());
+    	final Handler handler = new Handler();
+    	Executor executor = new Executor() {
+    		public void execute(Runnable command) {
+    			handler.post(command);
+    		}
+    	};
+    	load.start();
+    	new CadenceDrill(silent, executor, checker).start(1, SystemClock.uptimeMillis(), new Runnable() {
+    		public void run() {
+    			load.stop();
+    			silent.dispose();
+    			String report = Build.MODEL + " API " + Build.VERSION.SDK_INT + ", load " + load + "\n" + checker.report();
+    			if (checker.isPassing()) Log.d(CADENCE_TAG, report);
+    			else Log.w(CADENCE_TAG, report);
+    		}
+    	});
+    }
+    
     @Override
     public boolean onCreateOptionsMenu(Menu menu)  {
     	mMenu = menu;
@@ -121,17 +266,45 @@ public class SimonCloneActivity extends Activity {
         return true;
     }
     
+    /* Put a ButtonSurfaceView where the layout has the ButtonGridView. */
+    private ButtonBoardView useRenderThread(View grid) {
+    	ViewGroup parent = (ViewGroup) grid.getParent();
+    	int index = parent.indexOfChild(grid);
+    	ButtonSurfaceView surface = new ButtonSurfaceView(this);
+    	surface.setId(grid.getId());
+    	parent.removeViewAt(index);
+    	parent.addView(surface, index, grid.getLayoutParams());
+    	return surface;
+    }
+    
     @Override
     protected void onPause () {
     	super.onPause();
-    	SharedPreferences settings = getPreferences (0); // Private mode by default.
-    	SharedPreferences.Editor editor = settings.edit();
-    	
-    	editor.putInt(SimonClone.KEY_GAME_LEVEL, model.getLevel());	// Game Level
-    	editor.putInt(SimonClone.KEY_THE_GAME, model.getGame());	// The Game
-    	editor.putString(SimonClone.KEY_LONGEST_SEQUENCE, model.getLongest());	// Longest match
-
-    	editor.commit();
+    	long saveStart = System.nanoTime();
+    	model.saveScores();		// Written behind, so we don't wait on the disk here.
+    	if (engineMetrics != null) {		// Only when metrics are asked for, like the dump below.
+    		Log.d(METRICS_TAG, "Saving scores took " + (System.nanoTime() - saveStart) / 1000 + " us");
+    		Log.d(METRICS_TAG, "Player stats: " + model.getScoreBook().getStats().report());
+    		Log.d(METRICS_TAG, "Device timing, tick/sound lead ms: " + engine.getDeviceTiming());
+    		Log.d(METRICS_TAG, "Scheduler wakeups in the last minute: " 
+    				+ model.getWakeupMeter().perMinute(SystemClock.uptimeMillis()));
+    		Log.d(METRICS_TAG, "Button atlas bytes: " + ButtonAtlas.residentBytes());
+    		Log.d(METRICS_TAG, model.reportAudioStartLatency());
+    		Log.d(METRICS_TAG, StartupTrace.report());
+    	}
+    	if (toneTracer != null) {
+    		Log.d(TAG, toneTracer.report());
+    		toneTracer.reset();		// Each visit to the activity is a session of its own.
+    	}
+    	if (touchLatency != null) {
+    		Log.d(TAG, touchLatency.report());
+    		touchLatency.reset();
+    	}
+    	if (frameStats != null) {
+    		Log.d(TAG, frameStats.report());
+    		frameStats.reset();
+    	}
+    	if (engineMetrics != null) dumpMetrics();
     }
     
     @Override
@@ -141,9 +314,9 @@ public class SimonCloneActivity extends Activity {
     	case LEVEL_DIALOG:
     		builder = new AlertDialog.Builder(this);
     		builder.setTitle(R.string.set_level);
-            builder.setSingleChoiceItems(R.array.level_choices, model.getLevel() - 1, new DialogInterface.OnClickListener() {
+            builder.setSingleChoiceItems(R.array.level_choices, engine.getLevel() - 1, new DialogInterface.OnClickListener() {
                 public void onClick(DialogInterface dialog, int whichButton) {
-                	model.setLevel(whichButton + 1);
+                	engine.setLevel(whichButton + 1);
                 	levelDisplay.setText(String.valueOf(whichButton + 1));
                 }
             });
@@ -157,9 +330,9 @@ public class SimonCloneActivity extends Activity {
     	case GAME_DIALOG:
     		builder = new AlertDialog.Builder(this);
     		builder.setTitle(R.string.set_game);
-            builder.setSingleChoiceItems(R.array.game_choices, model.getGame() - 1, new DialogInterface.OnClickListener() {
+            builder.setSingleChoiceItems(R.array.game_choices, engine.getGame() - 1, new DialogInterface.OnClickListener() {
                 public void onClick(DialogInterface dialog, int whichButton) {
-                	model.setGame(whichButton + 1);
+                	engine.setGame(whichButton + 1);
                 	gameDisplay.setText(String.valueOf(whichButton + 1));
                 }
             });
@@ -213,7 +386,7 @@ public class SimonCloneActivity extends Activity {
         	showDialog(HELP_DIALOG);
         	return true;
         case R.id.clear_longest:
-        	model.setLongest("");
+        	engine.clearLongest();
         	return true;
         }
         return false;
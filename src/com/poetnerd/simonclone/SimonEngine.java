@@ -0,0 +1,1448 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.util.Random;
+
+/*
+ * SimonEngine
+ * 
+ * The game itself, with no ties to the Android platform.  Time comes from a Clock,
+ * delayed work goes through a Scheduler and sounds go to an AudioSink.  SimonClone
+ * plugs in the Android versions of these; a VirtualScheduler lets the same rules run
+ * at full speed on a plain JVM.
+ */
+public final class SimonEngine {
+
+	public static final int TOTAL_BUTTONS = 3 * 3;
+	
+	public interface Listener {
+		void buttonStateChanged(int index);
+
+		void multipleButtonStateChanged();
+	}
+	
+	/* For observers that only need to know once a frame: which buttons changed, a bit
+	 * each, since the last call.  However many lights change in a frame, one call. */
+	public interface FrameListener {
+		void buttonsChanged(int changedMask);
+	}
+	
+	/* Test modes -- enable them by setting true. */
+	
+	private static final boolean DISABLE_TIMEOUT = false;
+	private static final boolean TEST_RAZZ = false;
+	private static final boolean SHORT_GAME = false;
+	
+	/* The original game's cadences, from Simon Inns:  .05 s. between the tones of a sequence,
+	 * .02 s. then .07 s. beeps with .02 s. between them for the winning tone, and .05 s. then
+	 * .1 s. beeps with .05 s. between them for the razz. */
+	private static final int BETWEEN_DURATION = 50;
+	private static final int WIN_FIRST_DURATION = 20;
+	private static final int WIN_DURATION = BETWEEN_DURATION + 20;
+	private static final int WIN_BETWEEN_DURATION = 20;
+	private static final int RAZZ_FIRST_DURATION = BETWEEN_DURATION;
+	private static final int RAZZ_DURATION = 100;
+		
+	/* Classes of events to handle through our Scheduler. */
+	
+	static final int UI = 0;
+	static final int TIMEOUT = 1;
+	static final int FRAME = 2;
+	static final int SOUND = 3;		// A played-back tone's sound, started ahead of its light.
+	
+	static final int FRAME_MILLIS = 16;		// FrameListeners are told on these boundaries.
+	static final int TIMEOUT_MILLIS = 3000;	// How long the player has to press the next button.
+	
+	/* Game States for controlling action of update. */
+	
+	private static final int IDLE = 0;
+	private static final int LISTENING = 1;
+	private static final int PLAYING = 2;
+	private static final int REPLAYING = 3;
+	private static final int LONG_PLAYING = 4;
+	private static final int WINNING = 5;
+	private static final int RAZZING = 6;
+	private static final int WON = 7;
+	private static final int LOSING = 8;
+	private static final int LOST = 9;
+	private static final int PAUSED = 10;
+	
+	static final int MODE_COUNT = 11;
+	private static final String[] MODE_NAMES = { "idle", "listening", "playing", "replaying", 
+		"longPlaying", "winning", "razzing", "won", "losing", "lost", "paused" };
+	
+	/* Names for the sounds we make */
+	
+	private static final int GREEN = AudioSink.GREEN;
+	private static final int RED = AudioSink.RED;
+	private static final int YELLOW = AudioSink.YELLOW;
+	private static final int BLUE = AudioSink.BLUE;
+	private static final int VICTORY_SOUND = AudioSink.VICTORY_SOUND;
+	private static final int LOSE_SOUND = AudioSink.LOSE_SOUND;
+	
+	/* Keys for save and restore of game state */
+	public static final String KEY_THE_GAME = "theGame";
+	public static final String KEY_GAME_LEVEL = "gameLevel";
+	public static final String KEY_LONGEST_SEQUENCE = "longestSequence";
+	
+	public static final String KEY_SNAPSHOT = "engineSnapshot";
+	
+	/*
+	 * The snapshot is the whole game in one array, so the Bundle holds one entry and the
+	 * same bytes can go to a file.  Version 1 is:
+	 * 
+	 * 	version, mode, game, flags, active colors					a byte each
+	 * 	totalLength, sequenceLength, sequenceIndex, playerPosition,
+	 * 	winToneIndex, razToneIndex, round, roundMask,
+	 * 	longestLength, longestMask, the lit buttons				an int each
+	 * 	gameSeed, longestKey, beepDuration, pauseDuration			a long each
+	 * 	time into the current step, time left to the timeout		a long each, in ms
+	 * 	the current sequence, if it isn't generated				PackedSequence binary form
+	 * 	the longest sequence, if it isn't generated				PackedSequence binary form
+	 * 
+	 * Ints and longs are big-endian.  The timeout is -1 when none is pending.  Times are
+	 * kept as durations, not clock readings:  A restored game goes on with the time
+	 * it had left, whenever and on whatever clock it's restored.
+	 */
+	static final int SNAPSHOT_VERSION = 1;
+	static final int SNAPSHOT_FIXED_SIZE = 5 + 11 * 4 + 6 * 8;
+	
+	static final int SNAPSHOT_SEQUENCE_GENERATED = 1;
+	private static final int SNAPSHOT_LONGEST_GENERATED = 2;
+	private static final int SNAPSHOT_IS_LIT = 4;
+	private static final int SNAPSHOT_HEARD_BUTTON_PRESS = 8;
+	
+	/* Level 5 has no end.  The sequence just keeps getting longer. */
+	public static final int ENDLESS_LEVEL = 5;
+	private static final int ENDLESS_LENGTH = Integer.MAX_VALUE;
+	
+	private boolean[] activeColors = new boolean [4];
+	private PackedSequence longestSequence = new PackedSequence();
+	private PackedSequence currentSequence = new PackedSequence();
+	private int[] razzSequence = {RED, YELLOW, BLUE, GREEN, GREEN, GREEN, GREEN, RED, YELLOW, LOSE_SOUND };
+	
+	private int longestLength;
+	private int sequenceLength;
+	private int sequenceIndex;
+	private int totalLength;
+	private int playerPosition;
+	private long beepDuration;
+	private long mLastUpdate;
+	private int gameMode;
+	private int winToneIndex;
+	private int razToneIndex;
+	private int theGame;
+	
+	/* Simon's colors aren't stored:  Step i of a round comes from SequenceGenerator,
+	 * keyed by the game's seed and the round.  Only game 2, where the players add the
+	 * colors, keeps its sequence in currentSequence. */
+	private long gameSeed;
+	private int round;					// Game 3 starts a new round each time a color is out.
+	private int roundMask;				// The colors in play this round, a bit each.
+	private long roundKey;
+	private boolean sequenceGenerated;
+	private boolean longestGenerated;	// The longest, kept the same way when it can be.
+	private long longestKey;
+	private int longestMask;
+	
+	private static final Random RNG = new Random();
+	private Random random = RNG;
+	private TimingProfile timing = TimingProfile.ORIGINAL;
+	private DeviceTiming deviceTiming = DeviceTiming.NONE;
+	private int soundAhead = -1;		// The tone we've started early, until its light comes on.
+	private boolean isLit;
+	private boolean heardButtonPress;  // Avoid a race of: down -> listen -> up.
+	private long pauseDuration;
+	private long timeoutDue = -1;		// When the pending timeout falls due, by the clock, or -1.
+	
+	private boolean[] buttonPressMap = new boolean[TOTAL_BUTTONS];
+	
+	/* The lights as one word anyone may read from any thread: the four colors in the low
+	 * bits, and when they last changed above them, in nanoseconds since lightEpoch.
+	 * See getLightState(). */
+	private volatile long lightState;
+	private static final int LIGHT_BITS = 4;
+	private final long lightEpoch;
+	
+	/* Listeners, like probes, are kept in arrays that are replaced, never changed, so a
+	 * listener may come or go in the middle of being told. */
+	private static final Listener[] NO_LISTENERS = new Listener[0];
+	private Listener[] listeners = NO_LISTENERS;
+	private static final FrameListener[] NO_FRAME_LISTENERS = new FrameListener[0];
+	private FrameListener[] frameListeners = NO_FRAME_LISTENERS;
+	private int frameChanges;		// Buttons changed since FrameListeners were last told.
+	
+	private static final EngineProbe[] NO_PROBES = new EngineProbe[0];
+	private EngineProbe[] probes = NO_PROBES;
+	private long uiDeadlineNanos;				// When the pending UI tick is due, if anyone's watching.
+	private long dispatchDeadlineNanos = -1;	// When the tick we're running was due, or -1.
+	
+	private final Clock clock;
+	private final Scheduler scheduler;
+	private final AudioSink audio;
+		
+	public SimonEngine(Clock clock, Scheduler scheduler, AudioSink audio) {
+		this.clock = clock;
+		this.scheduler = scheduler;
+		this.audio = audio;
+		this.lightEpoch = clock.nanoTime();
+		
+		for (int i = 0; i < TOTAL_BUTTONS; ++i) {
+			buttonPressMap[i] = false;
+		}
+		
+		scheduler.setTarget(new Scheduler.Target() {
+			public void onEvent(int what) {
+				traceInput(EngineProbe.DISPATCH, what);
+				switch (what) {
+				case UI: 
+					traceTick();
+					dispatchDeadlineNanos = uiDeadlineNanos;
+					update();
+					dispatchDeadlineNanos = -1;
+					break;
+				case TIMEOUT: 
+					timeoutDue = -1;
+					gameTimeoutLose();
+					break;
+				case FRAME:
+					endFrame();
+					break;
+				case SOUND:
+					soundAhead();
+					break;
+				}
+			}
+		});
+
+		/* Do any initialization that needs to be done before calling gameStart(), 
+		 * playLast() or playLongest(). */
+		
+		theGame = 1;		// Until told otherwise, so even a fresh engine's snapshot is one we'd restore.
+		longestLength = 0;	// Superfluous? Should be initialized by preferences stuff in Activity now.
+		sequenceLength = 0;	// Superfluous? Should be initialized by preferences stuff in Activity now.
+		mLastUpdate = clock.uptimeMillis();
+		setMode(IDLE);
+		isLit = false;
+		heardButtonPress = false;
+		pauseDuration = 0;
+		winToneIndex = 0;
+		razToneIndex = 0;
+	}
+	
+	/* Replace the source of game seeds.  A seeded Random makes games repeatable. */
+	public void setRandom(Random random) {
+		this.random = random;
+	}
+	
+	/* Allow for how late this device wakes us, and how slow it is to sound. */
+	public void setDeviceTiming(DeviceTiming deviceTiming) {
+		this.deviceTiming = deviceTiming;
+		traceDeviceTiming();
+	}
+	
+	public DeviceTiming getDeviceTiming() {
+		return deviceTiming;
+	}
+	
+	/* Change the timeout and pauses, from the next time each is used. */
+	public void setTiming(TimingProfile timing) {
+		this.timing = timing;
+	}
+	
+	public TimingProfile getTiming() {
+		return timing;
+	}
+	
+	public StateMap saveState(StateMap map) {
+		if (map != null) {
+			map.putByteArray(KEY_SNAPSHOT, snapshot());
+		}
+		return map;
+	}
+	
+	/* A map without a snapshot, or with one we can't read, leaves the game as it is. */
+	public void restoreState(StateMap map) {
+		byte[] snapshot = map.getByteArray(KEY_SNAPSHOT);
+		if (snapshot == null) return;
+		try {
+			restoreSnapshot(snapshot, 0);
+		} catch (IllegalArgumentException e) {
+			// Refused before anything changed:  Play on from where we are.
+		}
+	}
+	
+	public byte[] snapshot() {
+		byte[] out = new byte[snapshotSize()];
+		writeSnapshot(out, 0);
+		return out;
+	}
+	
+	/* How many bytes writeSnapshot() will write just now. */
+	public int snapshotSize() {
+		trimSequences();
+		int size = SNAPSHOT_FIXED_SIZE;
+		if (!sequenceGenerated) size += currentSequence.encodedSize();
+		if (!longestGenerated) size += longestSequence.encodedSize();
+		return size;
+	}
+	
+	/* Write the snapshot at offset and return the offset just past it. */
+	public int writeSnapshot(byte[] out, int offset) {
+		long now = clock.uptimeMillis();
+		trimSequences();
+		int flags = 0;
+		if (sequenceGenerated) flags |= SNAPSHOT_SEQUENCE_GENERATED;
+		if (longestGenerated) flags |= SNAPSHOT_LONGEST_GENERATED;
+		if (isLit) flags |= SNAPSHOT_IS_LIT;
+		if (heardButtonPress) flags |= SNAPSHOT_HEARD_BUTTON_PRESS;
+		int colors = 0;
+		for (int i = 0; i < activeColors.length; i++) {
+			if (activeColors[i]) colors |= 1 << i;
+		}
+		int buttons = 0;
+		for (int i = 0; i < buttonPressMap.length; i++) {
+			if (buttonPressMap[i]) buttons |= 1 << i;
+		}
+		
+		out[offset++] = SNAPSHOT_VERSION;
+		out[offset++] = (byte) gameMode;
+		out[offset++] = (byte) theGame;
+		out[offset++] = (byte) flags;
+		out[offset++] = (byte) colors;
+		offset = putInt(out, offset, totalLength);
+		offset = putInt(out, offset, sequenceLength);
+		offset = putInt(out, offset, sequenceIndex);
+		offset = putInt(out, offset, playerPosition);
+		offset = putInt(out, offset, winToneIndex);
+		offset = putInt(out, offset, razToneIndex);
+		offset = putInt(out, offset, round);
+		offset = putInt(out, offset, roundMask);
+		offset = putInt(out, offset, longestLength);
+		offset = putInt(out, offset, longestMask);
+		offset = putInt(out, offset, buttons);
+		offset = putLong(out, offset, gameSeed);
+		offset = putLong(out, offset, longestKey);
+		offset = putLong(out, offset, beepDuration);
+		offset = putLong(out, offset, pauseDuration);
+		offset = putLong(out, offset, now - mLastUpdate);
+		offset = putLong(out, offset, timeoutDue < 0 ? -1 : Math.max(0, timeoutDue - now));
+		if (!sequenceGenerated) offset = currentSequence.encode(out, offset);
+		if (!longestGenerated) offset = longestSequence.encode(out, offset);
+		return offset;
+	}
+	
+	/*
+	 * restoreSnapshot
+	 * 
+	 * Replace the game with the one in the snapshot at offset, and return the offset just
+	 * past it.  The sequences are decoded into the ones we have, so nothing is allocated
+	 * unless a sequence has grown.  A step part way through goes on from where it was,
+	 * lit if it was, and a pending timeout gets the time it had left.
+	 */
+	public int restoreSnapshot(byte[] in, int offset) {
+		checkSnapshot(in, offset);
+		offset++;
+		setMode(PAUSED);  // Inhibit any action until we're fully restored.
+		gameClearTimeout();
+		scheduler.cancel(UI);
+		
+		int mode = in[offset++];
+		theGame = in[offset++];		// Not setGame():  A restore isn't an input to be recorded.
+		int flags = in[offset++];
+		int colors = in[offset++];
+		sequenceGenerated = (flags & SNAPSHOT_SEQUENCE_GENERATED) != 0;
+		longestGenerated = (flags & SNAPSHOT_LONGEST_GENERATED) != 0;
+		isLit = (flags & SNAPSHOT_IS_LIT) != 0;
+		heardButtonPress = (flags & SNAPSHOT_HEARD_BUTTON_PRESS) != 0;
+		for (int i = 0; i < activeColors.length; i++) {
+			activeColors[i] = (colors & (1 << i)) != 0;
+		}
+		totalLength = getInt(in, offset);		offset += 4;
+		sequenceLength = getInt(in, offset);	offset += 4;
+		sequenceIndex = getInt(in, offset);		offset += 4;
+		playerPosition = getInt(in, offset);	offset += 4;
+		winToneIndex = getInt(in, offset);		offset += 4;
+		razToneIndex = getInt(in, offset);		offset += 4;
+		round = getInt(in, offset);				offset += 4;
+		roundMask = getInt(in, offset);			offset += 4;
+		longestLength = getInt(in, offset);		offset += 4;
+		longestMask = getInt(in, offset);		offset += 4;
+		int buttons = getInt(in, offset);		offset += 4;
+		gameSeed = getLong(in, offset);			offset += 8;
+		longestKey = getLong(in, offset);		offset += 8;
+		beepDuration = getLong(in, offset);		offset += 8;
+		pauseDuration = getLong(in, offset);	offset += 8;
+		long intoStep = getLong(in, offset);	offset += 8;
+		long timeoutLeft = getLong(in, offset);	offset += 8;
+		if (!sequenceGenerated) offset = currentSequence.decode(in, offset);
+		if (!longestGenerated) offset = longestSequence.decode(in, offset);
+		roundKey = SequenceGenerator.roundKey(gameSeed, round);
+		
+		setButtons(buttons);	// Lights only.  A tone part way through isn't sounded again.
+		
+		long now = clock.uptimeMillis();
+		mLastUpdate = now - intoStep;
+		setMode(mode);			// Let the game proceed!
+		if (timeoutLeft >= 0 && !DISABLE_TIMEOUT) {
+			timeoutDue = now + timeoutLeft;
+			scheduler.schedule(TIMEOUT, timeoutLeft);
+		}
+		if (!isAtRest()) update();
+		return offset;
+	}
+	
+	/* Throw IllegalArgumentException unless there's a whole snapshot we know at offset,
+	 * with counts and positions a game could have, so a bad one is refused before anything
+	 * is changed. */
+	private static void checkSnapshot(byte[] in, int offset) {
+		if (in.length - offset < SNAPSHOT_FIXED_SIZE) {
+			throw new IllegalArgumentException("Snapshot cut short at " + (in.length - offset) + " bytes");
+		}
+		if (in[offset] != SNAPSHOT_VERSION) {
+			throw new IllegalArgumentException("Unknown snapshot version " + in[offset]);
+		}
+		int mode = in[offset + 1];
+		if (mode < 0 || mode >= MODE_COUNT) {
+			throw new IllegalArgumentException("Unknown mode in snapshot " + mode);
+		}
+		int game = in[offset + 2];
+		if (game < 1 || game > 3) {
+			throw new IllegalArgumentException("Unknown game in snapshot " + game);
+		}
+		int flags = in[offset + 3];
+		int end = offset + SNAPSHOT_FIXED_SIZE;
+		int storedLength = Integer.MAX_VALUE;	// A generated sequence has every step.
+		int storedLongest = Integer.MAX_VALUE;
+		if ((flags & SNAPSHOT_SEQUENCE_GENERATED) == 0) {
+			storedLength = PackedSequence.lengthAt(in, end);
+			end = PackedSequence.skip(in, end);
+		}
+		if (end >= 0 && (flags & SNAPSHOT_LONGEST_GENERATED) == 0) {
+			storedLongest = PackedSequence.lengthAt(in, end);
+			end = PackedSequence.skip(in, end);
+		}
+		if (end < 0) throw new IllegalArgumentException("Snapshot's sequences cut short or unreadable");
+		
+		int totalLength = getInt(in, offset + 5);
+		int sequenceLength = getInt(in, offset + 9);
+		int sequenceIndex = getInt(in, offset + 13);
+		int playerPosition = getInt(in, offset + 17);
+		int longestLength = getInt(in, offset + 37);
+		if (totalLength < 1 || sequenceLength < 0 || sequenceLength > totalLength) {
+			throw new IllegalArgumentException("Snapshot's sequence length " + sequenceLength + " of " + totalLength);
+		}
+		if (sequenceLength > storedLength) {
+			throw new IllegalArgumentException("Snapshot's sequence length " + sequenceLength + " but " + storedLength + " steps stored");
+		}
+		if (longestLength < 0 || longestLength > storedLongest) {
+			throw new IllegalArgumentException("Snapshot's longest length " + longestLength + " but " + storedLongest + " steps stored");
+		}
+		/* The index runs to the end of whichever sequence is playing, the player one past the end. */
+		if (sequenceIndex < 0 || sequenceIndex > Math.max(sequenceLength, longestLength)) {
+			throw new IllegalArgumentException("Snapshot's sequence index " + sequenceIndex + " out of range");
+		}
+		if (playerPosition < 0 || playerPosition > (long) sequenceLength + 1) {
+			throw new IllegalArgumentException("Snapshot's player position " + playerPosition + " out of range");
+		}
+	}
+	
+	/* Whoever set the lengths, the binary forms are of the steps in play. */
+	private void trimSequences() {
+		if (!sequenceGenerated && currentSequence.length() != sequenceLength) currentSequence.setLength(sequenceLength);
+		if (!longestGenerated && longestSequence.length() != longestLength) longestSequence.setLength(longestLength);
+	}
+	
+	private static int putInt(byte[] out, int offset, int value) {
+		out[offset] = (byte) (value >>> 24);
+		out[offset + 1] = (byte) (value >>> 16);
+		out[offset + 2] = (byte) (value >>> 8);
+		out[offset + 3] = (byte) value;
+		return offset + 4;
+	}
+	
+	private static int putLong(byte[] out, int offset, long value) {
+		offset = putInt(out, offset, (int) (value >>> 32));
+		return putInt(out, offset, (int) value);
+	}
+	
+	private static int getInt(byte[] in, int offset) {
+		return (in[offset] << 24) | ((in[offset + 1] & 0xFF) << 16) 
+				| ((in[offset + 2] & 0xFF) << 8) | (in[offset + 3] & 0xFF);
+	}
+	
+	private static long getLong(byte[] in, int offset) {
+		return ((long) getInt(in, offset) << 32) | (getInt(in, offset + 4) & 0xFFFFFFFFL);
+	}
+	
+	/*
+	 * scaleBeepDuration
+	 * 
+	 * Set how long to play each tone.
+	 * According to Simon Inns reverse engineering of the Simon, the beep durations are:
+	 * 
+	 * .42 seconds for sequence lengths 1 to 5,
+	 * .32 seconds for 6 to 13 and
+	 * .22 seconds for 14 to 31, all with .05 seconds between tones.
+	 * 
+	 * We once shortened these by 50 ms, believing the system tick to be .1 s.  The tick
+	 * was never the trouble:  update() scheduled each step with the delay of the one before.
+	 */
+	void scaleBeepDuration (int index) {
+		if (index < 6 ) beepDuration = 420;		 // 1 to 5 is .42s 
+		else if (index < 14) beepDuration = 320; // 6 to 13 is .32s
+		else beepDuration = 220;				// 14 to 31 is .22s
+	}
+	
+	public int getLevel () {
+		if (totalLength == ENDLESS_LENGTH) return ENDLESS_LEVEL;
+		else if (totalLength <= 8) return 1;
+		else if (totalLength <= 14) return 2;
+		else if (totalLength <= 20) return 3;
+		else return 4;
+	}
+	
+	public void setLevel(int level) {
+		traceInput(EngineProbe.SET_LEVEL, level);
+		int savedTotalLength = totalLength;
+		totalLength = totalLengthFor(level);
+		if (totalLength != savedTotalLength) {	// If we changed the game level reset the game.
+			gameClearTimeout ();
+			if (pauseDuration > 0)  pauseDuration = 0;  // Go directly to idle, and don't pause.
+			if (isLit) playNext();	  // If there's a button lit, turn it off.
+			setMode(IDLE);
+			sequenceIndex = 0;
+			// We could set sequenceLength to 0 and inhibit last, but I think not.
+		}
+	}
+	
+	/* How long a sequence wins at a level. */
+	static int totalLengthFor(int level) {
+		switch (level) {
+		case 1: return 8;
+		case 2: return 14;
+		case 3: return 20;
+		case 4: return 30;
+		case ENDLESS_LEVEL: return ENDLESS_LENGTH;
+		default: return 4; 	// Should never get here.
+		}
+	}
+	
+	public void setGame(int level) {
+		traceInput(EngineProbe.SET_GAME, level);
+		theGame = level;
+	}
+	
+	public int getGame() {
+		return theGame;
+	}
+	
+	public void setLongest(PackedSequence sequence) {
+		traceLongest(sequence);
+		longestLength = sequence.length(); 	// Just fine if it's empty.
+		longestSequence.copyFrom(sequence, longestLength);
+		longestGenerated = false;
+	}
+	
+	public void clearLongest() {
+		traceInput(EngineProbe.CLEAR_LONGEST, 0);
+		longestLength = 0;
+		longestSequence.clear();
+		longestGenerated = false;
+	}
+	
+	/* Play a given sequence rather than a generated one. */
+	public void setCurrent(PackedSequence sequence) {
+		sequenceLength = sequence.length(); 	// Just fine if it's empty.
+		currentSequence.copyFrom(sequence, sequenceLength);
+		sequenceGenerated = false;
+	}
+	
+	/* A copy of the longest sequence, for keeping in preferences. */
+	public PackedSequence getLongest() {
+		PackedSequence longest = new PackedSequence(longestLength);
+		if (longestGenerated) {
+			for (int i = 0; i < longestLength; i++) longest.set(i, longestColorAt(i));
+		} else {
+			longest.copyFrom(longestSequence, longestLength);
+		}
+		return longest;
+	}
+	
+	/* The color of a step of the current sequence, whether generated or stored. */
+	private int colorAt(int index) {
+		if (sequenceGenerated) return SequenceGenerator.colorAt(roundKey, roundMask, index);
+		return currentSequence.get(index);
+	}
+	
+	private int longestColorAt(int index) {
+		if (longestGenerated) return SequenceGenerator.colorAt(longestKey, longestMask, index);
+		return longestSequence.get(index);
+	}
+	
+	public void gameSetTimeout() {
+		gameClearTimeout();
+		if (!DISABLE_TIMEOUT) {
+			long timeout = timing.getTimeout(getLevel());	// 3 seconds originally.
+			timeoutDue = clock.uptimeMillis() + timeout;
+			scheduler.schedule(TIMEOUT, timeout);   // Set a new timeout.
+		}
+	}
+	
+	public void gameClearTimeout() {
+		scheduler.cancel(TIMEOUT);						// Clear any old timeouts.
+		timeoutDue = -1;
+	}
+	
+	public void update() {
+		long now = clock.uptimeMillis();
+		long delay = stepDelay();
+		long lead = deviceTiming.getTickLead();		// We're woken this late, typically.
+
+		if (gameMode != LISTENING) {
+			long due = mLastUpdate + delay;
+			if (now + lead >= due) {	// A virtual clock arrives exactly on time.  Count that as elapsed.
+				boolean paused = pauseDuration > 0;
+				playNext();
+				if (paused) playNext();		// The pause is over.  Go straight on with what it held back.
+				/* Keep to the beat from when this step was due, so a late tick doesn't
+				 * push back every step after it.  But if we've fallen well behind, start afresh. */
+				mLastUpdate = now - due < BETWEEN_DURATION ? due : now;
+				delay = stepDelay();
+			}
+			delay -= now - mLastUpdate;
+			/* Nothing moves while we're at rest, so there's nothing to wake up for.
+			 * Whatever gets the game going again calls update() itself. */
+			if (isAtRest()) scheduler.cancel(UI);
+			else {
+				scheduleUpdate(delay - lead);
+				long soundLead = deviceTiming.getSoundLead();
+				if (soundLead > 0 && soundAhead < 0 && nextTone() >= 0) scheduler.schedule(SOUND, delay - soundLead);
+			}
+		}
+	}
+	
+	/* The color of the tone the next step will light, if it's a played-back one; or -1. */
+	private int nextTone() {
+		if (isLit) return -1;
+		switch (gameMode) {
+		case PLAYING:
+		case REPLAYING:
+			return sequenceIndex < sequenceLength ? colorAt(sequenceIndex) : -1;
+		case LONG_PLAYING:
+			return sequenceIndex < longestLength ? longestColorAt(sequenceIndex) : -1;
+		default:
+			return -1;
+		}
+	}
+	
+	/* Start the next tone's sound now, so it's heard when its light comes on. */
+	private void soundAhead() {
+		int color = nextTone();
+		if (color < 0) return;
+		soundAhead = color;
+		doStream(color);
+	}
+	
+	/*
+	 * stepDelay
+	 * 
+	 * How long the state we're in lasts before playNext() takes the next step:  A lit
+	 * button lasts the length of its beep, a dark one the time between beeps.
+	 * We rely on the update routine to do no state changing on a pause, to set
+	 * pauseDuration to 0 and go on to do what we were otherwise going to do.
+	 */
+	private long stepDelay() {
+		if (pauseDuration > 0) return pauseDuration;
+		switch (gameMode) {
+		case WINNING:  // Special delays when playing winning tone sequence.
+			if (!isLit) return WIN_BETWEEN_DURATION;
+			return winToneIndex == 1 ? WIN_FIRST_DURATION : WIN_DURATION;
+		case RAZZING:
+			if (!isLit) return BETWEEN_DURATION;
+			return razToneIndex == 0 ? RAZZ_FIRST_DURATION : RAZZ_DURATION;
+		default:
+			return isLit ? beepDuration : BETWEEN_DURATION;
+		}
+	}
+	
+	private void scheduleUpdate(long delay) {
+		if (probes.length > 0) uiDeadlineNanos = clock.nanoTime() + delay * 1000000L;
+		scheduler.schedule(UI, delay);
+	}
+	
+	private boolean isAtRest() {
+		switch (gameMode) {
+		case IDLE:
+		case LISTENING:
+		case WON:
+		case LOST:
+		case PAUSED:
+			return true;
+		default:
+			return false;
+		}
+	}
+	
+	
+	public void playNext() {
+		traceStep();
+		if (pauseDuration > 0) { 									// OK, we've delayed.
+			pauseDuration = 0; 
+			return;
+		}
+		switch (gameMode) {
+		case REPLAYING:
+		case PLAYING:  //  Play the current sequence.
+			if (sequenceIndex < sequenceLength) {	// Keep playing
+				if (isLit) {
+					showButtonRelease(colorAt(sequenceIndex)); // Stop previous tone.
+					isLit = false;
+					sequenceIndex++;								// Point at next
+					if (sequenceIndex == sequenceLength) { // Played last tone.
+						if (gameMode == PLAYING) {		// If we're playing begin listening for input.
+							gameSetTimeout();			
+							sequenceIndex = 0;			// Now use sequenceIndex as match cursor.
+							setMode(LISTENING);					/* gameMode = SET_LISTEN;	// switch to Listen when button release feedback is done. */
+						} else setMode(IDLE);							// or go to Idle state after replay.
+					}
+				} else {
+					showButtonPress(colorAt(sequenceIndex));	// Flash and beep current.
+					isLit = true;
+				}
+			} // Fall through and do nothing if we're past the end of the sequence.
+			break;
+		case LONG_PLAYING:  //  Play the current sequence.
+			if (isLit) {
+				showButtonRelease(longestColorAt(sequenceIndex)); // Stop previous tone.
+				isLit = false;
+				sequenceIndex++;								// Point at next
+				return;
+			}
+			if (sequenceIndex < longestLength) {
+				showButtonPress(longestColorAt(sequenceIndex));	// Flash and beep current.
+				isLit = true;
+			} else {											// Played all
+				scaleBeepDuration(sequenceLength);			// Restore to normal value.
+				setMode(IDLE);
+			}
+			break;
+		case WINNING:
+			if (isLit) {
+				showButtonRelease(colorAt(sequenceLength - 1));
+				isLit = false;
+				if (winToneIndex == 6) setMode(WON);
+			} else {
+				showButtonPress(colorAt(sequenceLength - 1));
+				isLit = true;
+				winToneIndex++;
+			}
+			break;
+		case RAZZING:
+			if (isLit) {
+				showButtonRelease(razzSequence[razToneIndex]);
+				isLit = false;
+				if (razToneIndex == 9) gameLose();  // Kludge: Light nothing and play lose tone.
+				razToneIndex++;
+			} else {
+				showButtonPress(razzSequence[razToneIndex]);
+				isLit = true;
+			}
+			break;
+
+		case LOSING:
+			setMode(LOST);
+			break;
+		}
+	}
+	
+	public void playCurrent() {
+		setMode(PLAYING);
+		sequenceIndex = 0;
+		update();
+	}
+	
+	public void playLast() {
+		if (!audio.isReady()) {
+			audio.whenReady(new Runnable() {
+				public void run() {
+					playLast();
+				}
+			});
+			return;
+		}
+		traceInput(EngineProbe.PLAY_LAST, 0);
+		switch (gameMode) {
+		case IDLE:
+		case WON:
+		case LOST:
+			
+			/* In case user was fast on the draw: Reset all buttons. */
+			for (int index = 0; index < 4; index++) {  
+				showButtonRelease(index);
+			}
+			
+			setMode(REPLAYING);
+			sequenceIndex = 0;
+			update();
+			break;
+		default:
+				return;
+		}
+	}
+	
+	public void playLongest () {
+		if (!audio.isReady()) {
+			audio.whenReady(new Runnable() {
+				public void run() {
+					playLongest();
+				}
+			});
+			return;
+		}
+		traceInput(EngineProbe.PLAY_LONGEST, 0);
+		switch (gameMode) {
+		case IDLE:
+		case WON:
+		case LOST:
+			
+			/* In case user was fast on the draw: Reset all buttons. */
+			for (int index = 0; index < 4; index++) {  
+				showButtonRelease(index);
+			}
+			
+			setMode(LONG_PLAYING);
+			sequenceIndex = 0;
+			scaleBeepDuration(longestLength);
+			update();
+			break;
+		default:
+				return;
+		}
+	}
+	
+	/*
+	 * startRound
+	 * 
+	 * Begin a new sequence of one, picked from the colors still active.  Game 3 filters
+	 * out the inactive colors this way; in the other games all four are always active.
+	 */
+	private void startRound(int newRound) {
+		round = newRound;
+		roundMask = 0;
+		for (int i = 0; i < 4; i++) {
+			if (activeColors[i]) roundMask |= 1 << i;
+		}
+		roundKey = SequenceGenerator.roundKey(gameSeed, round);
+		sequenceLength = 1;
+		if (!sequenceGenerated) currentSequence.set(0, SequenceGenerator.colorAt(roundKey, roundMask, 0));
+		traceColor(0);
+	}
+	
+	public void gameStart() {
+		gameStart(random.nextLong());
+	}
+	
+	/* Start a game whose colors all come from the given seed.  If the sounds are still
+	 * loading, the game starts when they're done. */
+	public void gameStart(final long seed) {
+		if (!audio.isReady()) {
+			audio.whenReady(new Runnable() {
+				public void run() {
+					gameStart(seed);
+				}
+			});
+			return;
+		}
+		traceStart(seed);
+		for (int i = 0; i < 4; i++)  {
+			activeColors[i] = true;			// Mark all colors active.
+		}
+		
+		/* In case user was fast on the draw: Reset all buttons. */
+		for (int index = 0; index < 4; index++) {  
+			showButtonRelease(index);
+		}
+		
+		if (SHORT_GAME) totalLength = 3;  // Temporary Test: crowbar win to 3 steps.
+		winToneIndex = 0;
+		razToneIndex = 0;
+		gameSeed = seed;
+		sequenceGenerated = theGame != 2;	// In game 2 the players choose, so we must remember.
+		startRound(0);
+		scaleBeepDuration (1);
+		playerPosition = 1;
+		playCurrent();
+	}
+
+	public void maintainLongest () {
+		if (sequenceLength > longestLength) {
+			longestGenerated = sequenceGenerated;
+			if (sequenceGenerated) {		// Nothing to copy.  Just remember how to make it.
+				longestKey = roundKey;
+				longestMask = roundMask;
+			} else {
+				longestSequence.copyFrom(currentSequence, sequenceLength);
+			}
+			longestLength = sequenceLength;
+		}		
+	}
+	
+	public void gameWin() {
+		gameClearTimeout();
+		mLastUpdate = clock.uptimeMillis();
+		winToneIndex = 0;
+		pauseDuration = timing.getWinPause(getLevel());		// We play the winning tone .8 s. after win.
+		setMode(WINNING);
+		if (TEST_RAZZ) setMode(RAZZING);		// Make razz tone the win tone on test.
+		update();
+	}
+
+	public void razzWin() {
+		gameClearTimeout();
+		mLastUpdate = clock.uptimeMillis();
+		razToneIndex = 0;
+		pauseDuration = timing.getWinPause(getLevel());		// We play the winning tone .8 s. after win.
+		setMode(RAZZING);
+		update();
+	}
+	
+
+	public void gameTimeoutLose () {
+		if (theGame == 3)  {
+			activeColors[colorAt(sequenceIndex)] = false;
+		}
+		gameLose();
+	}
+	public void gameLose() {
+		doStream(LOSE_SOUND);
+		if (theGame == 3) {   // In game 3 we eliminate a color and start again.
+			int activeColorCount = 0;
+			for (int i=0; i < 4; i++) {
+				if (activeColors[i]) activeColorCount++;
+			}
+			if (activeColorCount == 1) gameWin();
+			else {
+				startRound(round + 1);
+				scaleBeepDuration (1);
+				gameCycle();
+			}
+		} else {
+			setMode(LOSING);
+			update();
+		}
+	}
+	
+	public void gameCycle() {
+		gameClearTimeout();		// The round's done:  The player can't time out while Simon pauses.
+		mLastUpdate = clock.uptimeMillis();
+		pauseDuration = timing.getPause(getLevel());		// Wait .8s after last key pressed to play next for game 1 and 3.
+		playerPosition = 1;
+		update();
+		playCurrent();
+	}
+
+	/*
+	 * pressButton is called by the Touch Handler in response to user cction
+	 * We deal with the work in response to the user action and then we show
+	 * that we have pressed the button.
+	 */
+	
+	public void pressButton (int buttonIndex)  {
+		traceInput(EngineProbe.PRESS, buttonIndex);
+		if (gameMode != LISTENING) return;		// Only examine values when game is in play.
+		// Guard against entering LISTENING state between a press and a release.
+		heardButtonPress = true;
+		// Logic for game 2:  We take user input as next color and fall through to normal case.
+		if (playerPosition > sequenceLength) {
+			currentSequence.set(sequenceIndex, buttonIndex);
+			sequenceLength++;
+			traceColor(sequenceIndex);
+			playerPosition++;		// Point past new end of list and trigger restart of matching.
+		}
+		
+		// Regular logic.
+		if (colorAt(sequenceIndex) == buttonIndex) {	// showButton only if match.
+			maintainLongest();
+			showButtonPress(buttonIndex);
+		}
+		else {
+			gameClearTimeout();					// showButton Press would have done this for us.
+			doStream(LOSE_SOUND);
+			if (theGame == 3) {		// Eliminate color that was pressed in game 3.
+				activeColors[buttonIndex] = false;
+			}
+			gameLose();
+		}
+	}
+
+	/*
+	 * releaseButton is called by the Touch Handler in response to user cction
+	 * We deal with the work in response to the user action and then we show
+	 * that we have released the button.
+	 */
+	
+	public void showButtonPress(int index) {
+		gameClearTimeout();		// The real game has a cheat:  Timeout is suspended while pressing button.
+		if (index >= 0 && index < TOTAL_BUTTONS) {
+			if (buttonPressMap[index] == false) {
+				buttonPressMap[index] = true;
+				publishLights();
+			
+				switch (gameMode) {
+				case WON:
+					doStream(VICTORY_SOUND);
+					break;
+				case WINNING:
+					doStream(RED);  // Play the red sound for win.
+					break;
+				case LOSING: 
+					doStream(LOSE_SOUND);
+					return;
+				case LISTENING: 
+					if (colorAt(sequenceIndex) == index) // When we miss we barf immediately
+						doStream(index);
+					else
+						doStream(LOSE_SOUND);
+					break;
+				case RAZZING:
+					if (razToneIndex < 9) doStream(index);
+					break;
+				default: 
+					if (soundAhead != index) doStream(index);	// Unless we've started it already.
+					soundAhead = -1;
+					break;
+				}
+				lightChanged(index);
+				traceLight(index, true);
+			}
+		}
+	}
+
+	public void releaseButton (int buttonIndex ){
+		traceInput(EngineProbe.RELEASE, buttonIndex);
+		if (gameMode != LISTENING) return;
+		// Guard against acting on a button press that happened before we were LISTENING.
+		if (heardButtonPress == false) return;
+
+		heardButtonPress = false;			// Reset our heardButtonPress state.
+		mLastUpdate = clock.uptimeMillis();
+		gameSetTimeout();
+		
+		if (sequenceIndex < sequenceLength) {
+			if (colorAt(sequenceIndex) == buttonIndex)  { // Matched. Continue.
+				showButtonRelease(buttonIndex);			// showButton only if match.
+				sequenceIndex++;
+				if (sequenceIndex == sequenceLength) { 
+					if (sequenceLength < totalLength) {  // Add one more.
+						if (theGame == 2) {  // In game 2, user adds next item in sequence
+							if (playerPosition > sequenceLength) {
+								playerPosition = 1;
+								sequenceIndex = 0;		// We added one. Now restart matching sequence.
+							} else {
+								playerPosition++;		// Set the stage for adding to sequence on next button press.
+							}
+						} else {
+							sequenceLength++;
+							playerPosition = 1;
+							scaleBeepDuration (sequenceLength);
+							if (!sequenceGenerated) {	// Otherwise it's already there to be had.
+								currentSequence.set(sequenceIndex, SequenceGenerator.colorAt(roundKey, roundMask, sequenceIndex));
+							}
+							traceColor(sequenceIndex);
+							gameCycle();
+						}
+					} else {  // Total win!
+						if (theGame == 3 && sequenceLength == 31) razzWin ();
+						else gameWin();
+					}					
+				} else {
+					playerPosition++;
+				}
+			} else {
+				if (theGame == 3) {		// Eliminate color that was pressed in game 3.
+					activeColors[buttonIndex] = false;
+				}
+				gameLose ();
+			}
+		}
+		
+	}
+	
+	public void showButtonRelease(int index) {
+		if (index >= 0 && index < TOTAL_BUTTONS) {
+			if (buttonPressMap[index] == true) {
+				buttonPressMap[index] = false;
+				publishLights();
+				audio.stop();
+				traceSoundStop();
+				lightChanged(index);
+				traceLight(index, false);
+			}
+		}
+	}
+
+
+	public void doStream (int sound) {
+		audio.play(sound);	// The sink stops whatever we were playing.
+		traceSound(sound);
+	}
+	
+	private void setMode(int mode) {
+		if (mode == gameMode) return;
+		gameMode = mode;
+		scheduler.cancel(SOUND);
+		if (soundAhead >= 0) {		// Its light isn't coming now.
+			audio.stop();
+			traceSoundStop();
+			soundAhead = -1;
+		}
+		EngineProbe[] probes = this.probes;
+		for (int i = 0; i < probes.length; i++) {
+			probes[i].onModeChange(mode);
+		}
+	}
+	
+	private void traceInput(int input, int argument) {
+		EngineProbe[] probes = this.probes;
+		for (int i = 0; i < probes.length; i++) {
+			probes[i].onInput(input, argument);
+		}
+	}
+	
+	private void traceTick() {
+		EngineProbe[] probes = this.probes;
+		if (probes.length == 0) return;
+		long now = clock.nanoTime();
+		for (int i = 0; i < probes.length; i++) {
+			probes[i].onTick(uiDeadlineNanos, now);
+		}
+	}
+	
+	private void traceStep() {
+		EngineProbe[] probes = this.probes;
+		for (int i = 0; i < probes.length; i++) {
+			probes[i].onStep(gameMode);
+		}
+	}
+	
+	private void traceSoundStop() {
+		EngineProbe[] probes = this.probes;
+		for (int i = 0; i < probes.length; i++) {
+			probes[i].onSoundStop();
+		}
+	}
+	
+	/* How long since start, from listenerStart(), as telling count listeners took. */
+	private void traceListeners(int count, long start) {
+		EngineProbe[] probes = this.probes;
+		if (probes.length == 0) return;
+		long nanos = clock.nanoTime() - start;
+		for (int i = 0; i < probes.length; i++) {
+			probes[i].onListenersTold(count, nanos);
+		}
+	}
+	
+	private long listenerStart() {
+		return probes.length == 0 ? 0 : clock.nanoTime();
+	}
+	
+	/* Whether a mode, as an EngineProbe or a recording has it, is Simon waiting for the player. */
+	static boolean isListeningMode(int mode) {
+		return mode == LISTENING;
+	}
+	
+	/* Whether a mode is Simon playing back the longest sequence rather than the current one. */
+	static boolean isLongPlayingMode(int mode) {
+		return mode == LONG_PLAYING;
+	}
+	
+	static String modeName(int mode) {
+		return mode >= 0 && mode < MODE_COUNT ? MODE_NAMES[mode] : String.valueOf(mode);
+	}
+	
+	private void traceStart(long seed) {
+		EngineProbe[] probes = this.probes;
+		for (int i = 0; i < probes.length; i++) {
+			probes[i].onGameStart(seed);
+		}
+	}
+	
+	private void traceLongest(PackedSequence longest) {
+		EngineProbe[] probes = this.probes;
+		for (int i = 0; i < probes.length; i++) {
+			probes[i].onLongestSet(longest);
+		}
+	}
+	
+	private void traceDeviceTiming() {
+		EngineProbe[] probes = this.probes;
+		for (int i = 0; i < probes.length; i++) {
+			probes[i].onDeviceTiming(deviceTiming);
+		}
+	}
+	
+	private void traceColor(int index) {
+		EngineProbe[] probes = this.probes;
+		if (probes.length == 0) return;
+		int color = colorAt(index);
+		for (int i = 0; i < probes.length; i++) {
+			probes[i].onColorAdded(index, color);
+		}
+	}
+	
+	private void traceLight(int index, boolean on) {
+		EngineProbe[] probes = this.probes;
+		if (probes.length == 0) return;
+		long now = clock.nanoTime();
+		long scheduled = dispatchDeadlineNanos >= 0 ? dispatchDeadlineNanos : now;
+		for (int i = 0; i < probes.length; i++) {
+			probes[i].onLight(index, on, scheduled, now);
+		}
+	}
+	
+	private void traceSound(int sound) {
+		EngineProbe[] probes = this.probes;
+		if (probes.length == 0) return;
+		long now = clock.nanoTime();
+		long scheduled = dispatchDeadlineNanos >= 0 ? dispatchDeadlineNanos : now;
+		for (int i = 0; i < probes.length; i++) {
+			probes[i].onSound(sound, scheduled, now);
+		}
+	}
+	
+	/* Queries for anyone driving the game without a screen: simulators, benchmarks, tests. */
+	
+	public boolean isListening() {
+		return gameMode == LISTENING;
+	}
+	
+	public boolean isFinished() {
+		return gameMode == WON || gameMode == LOST;
+	}
+	
+	public boolean isWon() {
+		return gameMode == WON;
+	}
+	
+	public int getExpectedButton() {
+		return colorAt(sequenceIndex);
+	}
+	
+	/* Which step of the sequence the player is to press next, counting from 0.  At the
+	 * end of the sequence, in game 2, the player is to add a step of their own. */
+	public int getPlayerIndex() {
+		return sequenceIndex;
+	}
+	
+	public int getSequenceLength() {
+		return sequenceLength;
+	}
+	
+	public int getLongestLength() {
+		return longestLength;
+	}
+	
+	/* True while Simon is playing a sequence back on its own, at the beep durations
+	 * of the original game. */
+	public boolean isPlayingBack() {
+		return gameMode == PLAYING || gameMode == REPLAYING || gameMode == LONG_PLAYING;
+	}
+	
+	/* True while Simon is playing the winning tone or the razz. */
+	public boolean isWinning() {
+		return gameMode == WINNING;
+	}
+	
+	public boolean isRazzing() {
+		return gameMode == RAZZING;
+	}
+	
+	/* True while the lights are Simon's rather than the player's:  Playing back, or the
+	 * winning tone or the razz. */
+	public boolean isDrivingLights() {
+		return isPlayingBack() || gameMode == WINNING || gameMode == RAZZING;
+	}
+	
+	/* True when nothing is going on:  No game in play and nothing being played back. */
+	public boolean isIdle() {
+		return gameMode == IDLE;
+	}
+	
+	/* How long the original game would sound the current tone. */
+	public long getSpecBeepDuration() {
+		return beepDuration;
+	}
+	
+	public Clock getClock() {
+		return clock;
+	}
+	
+	public boolean isButtonPressed(int index) {
+		if (index < 0 || index > TOTAL_BUTTONS) {
+			return false;
+		} else {
+			return buttonPressMap[index];
+		}
+	}
+	
+	/*
+	 * getLightState
+	 * 
+	 * Which lights are on, and since when, in one read that needs no lock: so a render
+	 * thread can draw the board while the engine carries on.  Pick it apart with
+	 * lightMask() and lightChangeNanos().
+	 */
+	public long getLightState() {
+		return lightState;
+	}
+	
+	public static int lightMask(long lightState) {
+		return (int) (lightState & ((1 << LIGHT_BITS) - 1));
+	}
+	
+	/* When the lights last changed, on the clock's nanoTime(). */
+	public long lightChangeNanos(long lightState) {
+		return lightEpoch + (lightState >>> LIGHT_BITS);
+	}
+	
+	private void publishLights() {
+		int mask = 0;
+		for (int i = 0; i < LIGHT_BITS; i++) {
+			if (buttonPressMap[i]) mask |= 1 << i;
+		}
+		lightState = ((clock.nanoTime() - lightEpoch) << LIGHT_BITS) | mask;
+	}
+	
+	/* Probes are kept in an array that is replaced, never changed, so the hot paths can
+	 * walk it without a lock or an iterator. */
+	public void addProbe(EngineProbe probe) {
+		EngineProbe[] grown = new EngineProbe[probes.length + 1];
+		System.arraycopy(probes, 0, grown, 0, probes.length);
+		grown[probes.length] = probe;
+		probes = grown;
+	}
+	
+	public void removeProbe(EngineProbe probe) {
+		for (int i = 0; i < probes.length; i++) {
+			if (probes[i] == probe) {
+				EngineProbe[] shrunk = probes.length == 1 ? NO_PROBES : new EngineProbe[probes.length - 1];
+				System.arraycopy(probes, 0, shrunk, 0, i);
+				System.arraycopy(probes, i + 1, shrunk, i, probes.length - i - 1);
+				probes = shrunk;
+				return;
+			}
+		}
+	}
+	
+	public void addListener(Listener listener) {
+		Listener[] grown = new Listener[listeners.length + 1];
+		System.arraycopy(listeners, 0, grown, 0, listeners.length);
+		grown[listeners.length] = listener;
+		listeners = grown;
+	}
+	
+	public void removeListener(Listener listener) {
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				Listener[] shrunk = listeners.length == 1 ? NO_LISTENERS : new Listener[listeners.length - 1];
+				System.arraycopy(listeners, 0, shrunk, 0, i);
+				System.arraycopy(listeners, i + 1, shrunk, i, listeners.length - i - 1);
+				listeners = shrunk;
+				return;
+			}
+		}
+	}
+	
+	public void addFrameListener(FrameListener listener) {
+		FrameListener[] grown = new FrameListener[frameListeners.length + 1];
+		System.arraycopy(frameListeners, 0, grown, 0, frameListeners.length);
+		grown[frameListeners.length] = listener;
+		frameListeners = grown;
+	}
+	
+	public void removeFrameListener(FrameListener listener) {
+		for (int i = 0; i < frameListeners.length; i++) {
+			if (frameListeners[i] == listener) {
+				FrameListener[] shrunk = frameListeners.length == 1
+						? NO_FRAME_LISTENERS : new FrameListener[frameListeners.length - 1];
+				System.arraycopy(frameListeners, 0, shrunk, 0, i);
+				System.arraycopy(frameListeners, i + 1, shrunk, i, frameListeners.length - i - 1);
+				frameListeners = shrunk;
+				return;
+			}
+		}
+	}
+	
+	private void lightChanged(int index) {
+		Listener[] listeners = this.listeners;
+		long start = listenerStart();
+		for (int i = 0; i < listeners.length; i++) {
+			listeners[i].buttonStateChanged(index);
+		}
+		traceListeners(listeners.length, start);
+		frameChanged(1 << index);
+	}
+	
+	/* Note changes for the FrameListeners, and see they're told at the end of the frame. */
+	private void frameChanged(int changedMask) {
+		if (frameListeners.length == 0 || changedMask == 0) return;
+		if (frameChanges == 0) {
+			scheduler.schedule(FRAME, FRAME_MILLIS - clock.uptimeMillis() % FRAME_MILLIS);
+		}
+		frameChanges |= changedMask;
+	}
+	
+	private void endFrame() {
+		int changed = frameChanges;
+		frameChanges = 0;
+		FrameListener[] frameListeners = this.frameListeners;
+		long start = listenerStart();
+		for (int i = 0; i < frameListeners.length; i++) {
+			frameListeners[i].buttonsChanged(changed);
+		}
+		traceListeners(frameListeners.length, start);
+	}
+
+	public void releaseAllButtons() {
+		traceInput(EngineProbe.RELEASE_ALL, 0);
+		setButtons(0);
+	}
+	
+	/* Light just the buttons in the mask, a bit each, and tell everyone at once. */
+	private void setButtons(int pressed) {
+		int changed = 0;
+		for (int i = 0; i < buttonPressMap.length; ++i) {
+			boolean press = (pressed & (1 << i)) != 0;
+			if (buttonPressMap[i] != press) changed |= 1 << i;
+			buttonPressMap[i] = press;
+		}
+		publishLights();
+		Listener[] listeners = this.listeners;
+		long start = listenerStart();
+		for (int i = 0; i < listeners.length; i++) {
+			listeners[i].multipleButtonStateChanged();
+		}
+		traceListeners(listeners.length, start);
+		frameChanged(changed);
+	}
+	
+	public void dispose() {
+		scheduler.cancel(UI);
+		gameClearTimeout();
+		scheduler.cancel(FRAME);
+		scheduler.cancel(SOUND);
+		frameChanges = 0;
+		audio.release();
+	}
+}
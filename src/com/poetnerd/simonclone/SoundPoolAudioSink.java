@@ -0,0 +1,192 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import android.content.Context;
+
+import android.media.AudioManager;
+import android.media.SoundPool;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Process;
+
+/*
+ * SoundPoolAudioSink
+ * 
+ * Plays the game's sounds from the recorded samples in res/raw through a SoundPool.
+ * 
+ * The samples are loaded on a thread of our own, so building the sink costs the main
+ * thread next to nothing.  SoundPool decodes them in the background after that, and we
+ * aren't ready until it has finished every one: from Android 2.2 it says so through an
+ * OnLoadCompleteListener; before that, the only way to tell is to try each sound, muted,
+ * until it plays.
+ * 
+ * SoundPool doesn't say when a sound actually starts, so the start latency we record, in
+ * microseconds, is only how long play() took to hand it over.  Lock the histogram to read it.
+ */
+final class SoundPoolAudioSink implements AudioSink {
+	
+	private static final int[] RESOURCES = {
+		R.raw.green_long, R.raw.red_long, R.raw.yellow_long, R.raw.blue_long,
+		R.raw.victory, R.raw.lose, R.raw.special_razz
+	};
+	
+	private static final long PROBE_INTERVAL = 20;		// ms between tries, before Android 2.2.
+	private static final long PROBE_LIMIT = 5000;		// Give up and call it ready after this.
+	
+	private final SoundPool soundPool;
+	
+	private final int[] soundIds = new int[SOUND_COUNT];
+	private int speakerStream;
+	
+	private final Histogram startLatency;
+	
+	/* Loading.  The lock keeps release() from pulling the pool out from under a load. */
+	private final Object lock = new Object();
+	private boolean released;
+	private int loaded;					// Reported loaded by the listener; main thread only.
+	private int idsPublished;			// Main thread only.
+	private volatile boolean ready;
+	private final Handler handler = new Handler();	// On the thread that made us.
+	private Runnable whenReady;
+	
+	public SoundPoolAudioSink(Context context, Histogram startLatency) {
+		this.startLatency = startLatency;
+		soundPool = new SoundPool(SimonEngine.TOTAL_BUTTONS, AudioManager.STREAM_MUSIC, 0);
+		final boolean listening = Build.VERSION.SDK_INT >= 8;
+		if (listening) LoadListener.listen(this);
+		
+		final Context appContext = context.getApplicationContext();	// Don't hold on to an Activity.
+		Thread loader = new Thread("SoundPoolAudioSink") {
+			@Override
+			public void run() {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				for (int sound = 0; sound < SOUND_COUNT; sound++) {
+					synchronized (lock) {
+						if (released) return;
+						soundIds[sound] = soundPool.load(appContext, RESOURCES[sound], 1);
+					}
+				}
+				handler.post(new Runnable() {		// Publish the IDs to the main thread.
+					public void run() {
+						idsLoaded();
+					}
+				});
+				if (!listening) probe();
+			}
+		};
+		loader.start();
+	}
+	
+	/*
+	 * Kept in a class of its own so that Android 2.1, which has no OnLoadCompleteListener,
+	 * never loads it.
+	 */
+	private static final class LoadListener {
+		static void listen(final SoundPoolAudioSink sink) {
+			sink.soundPool.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
+				public void onLoadComplete(SoundPool soundPool, int sampleId, int status) {
+					sink.loadComplete();		// Even a failed sound won't get any more ready.
+				}
+			});
+		}
+	}
+	
+	private void idsLoaded() {
+		idsPublished = SOUND_COUNT;
+		if (loaded >= SOUND_COUNT) becomeReady();
+	}
+	
+	private void loadComplete() {
+		loaded++;
+		if (loaded >= SOUND_COUNT && idsPublished == SOUND_COUNT) becomeReady();
+	}
+	
+	/* Before Android 2.2: play each sound, muted, until SoundPool lets us. */
+	private void probe() {
+		long giveUp = System.currentTimeMillis() + PROBE_LIMIT;
+		for (int sound = 0; sound < SOUND_COUNT; sound++) {
+			while (true) {
+				synchronized (lock) {
+					if (released) return;
+					int stream = soundPool.play(soundIds[sound], 0f, 0f, 0, 0, 1.0f);
+					if (stream != 0) {
+						soundPool.stop(stream);
+						break;
+					}
+				}
+				if (System.currentTimeMillis() > giveUp) break;
+				try {
+					Thread.sleep(PROBE_INTERVAL);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+		handler.post(new Runnable() {
+			public void run() {
+				becomeReady();
+			}
+		});
+	}
+	
+	private void becomeReady() {
+		if (ready || released) return;
+		ready = true;
+		StartupTrace.mark("sounds ready");
+		Runnable action = whenReady;
+		whenReady = null;
+		if (action != null) action.run();
+	}
+	
+	public boolean isReady() {
+		return ready;
+	}
+	
+	public void whenReady(Runnable action) {
+		if (ready) {
+			action.run();
+		} else {
+			whenReady = action;
+		}
+	}
+
+	public void play(int sound) {
+		if (!ready) return;
+		int soundId = soundIds[sound];
+		if (soundId != 0) {  // Don't do anything different if our soundID is invalid.
+			if (speakerStream !=0) {  // Stop what we were doing.
+				soundPool.stop(speakerStream);
+			}
+			long asked = System.nanoTime();
+			speakerStream = soundPool.play(soundId, 1.0f, 1.0f, 0, 0, 1.0f);
+			synchronized (startLatency) {
+				startLatency.record((System.nanoTime() - asked) / 1000);
+			}
+		} 
+	}
+
+	public void stop() {
+		if (speakerStream != 0) {
+			soundPool.stop(speakerStream);
+			speakerStream = 0;
+		}
+	}
+	
+	public void release() {
+		synchronized (lock) {
+			released = true;
+			whenReady = null;
+			soundPool.release();
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * StartupTrace
+ * 
+ * How long each step of getting the game on screen took, measured from the start of
+ * SimonCloneActivity.onCreate().  The activity marks its own steps; the board marks its
+ * first frame and the sound sink its sounds being ready, from whatever thread they're on.
+ * A cold start is the first in the process; later ones come from rotation and the like.
+ */
+public final class StartupTrace {
+	
+	private static final int MAX_MARKS = 16;
+	
+	private static final String[] names = new String[MAX_MARKS];
+	private static final long[] nanos = new long[MAX_MARKS];
+	private static int count;
+	private static long begin;
+	private static int starts;
+	private static volatile boolean framed;
+	
+	private StartupTrace() {
+	}
+	
+	/* A new start: forget the last one. */
+	public static synchronized void begin() {
+		begin = System.nanoTime();
+		count = 0;
+		framed = false;
+		starts++;
+	}
+	
+	public static synchronized void mark(String name) {
+		if (count == MAX_MARKS || starts == 0) return;
+		names[count] = name;
+		nanos[count] = System.nanoTime() - begin;
+		count++;
+	}
+	
+	/* The first frame after begin() is marked; the rest cost only this check. */
+	public static void frameDrawn() {
+		if (framed) return;
+		synchronized (StartupTrace.class) {
+			if (framed) return;
+			framed = true;
+		}
+		mark("first frame");
+	}
+	
+	public static synchronized String report() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(starts <= 1 ? "Cold start" : "Restart").append(", ms:");
+		for (int i = 0; i < count; i++) {
+			sb.append(' ').append(names[i]).append(' ').append(nanos[i] / 100000 / 10.0);
+			if (i < count - 1) sb.append(',');
+		}
+		return sb.toString();
+	}
+}
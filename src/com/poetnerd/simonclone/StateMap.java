@@ -0,0 +1,24 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * StateMap
+ * 
+ * Where the game engine keeps its snapshot, a byte array under one key, to save and
+ * restore itself.  SimonClone wraps the real Bundle; anything else can hand in a map
+ * of its own.
+ */
+public interface StateMap {
+	void putByteArray(String key, byte[] value);
+	byte[] getByteArray(String key);
+}
@@ -0,0 +1,159 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * SyntheticLoad
+ * 
+ * Background work to keep the game's timing honest under:  Threads that spin the CPU,
+ * churn the heap so the collector runs, or write, sync and read back a file.  Each runs
+ * at normal priority until stop(), and none of them touch the game.
+ */
+final class SyntheticLoad {
+	
+	static final int CPU = 1;
+	static final int GC = 2;
+	static final int IO = 4;
+	static final int ALL = CPU | GC | IO;
+	
+	private static final int CHURN_BYTES = 64 * 1024;	// Allocated at a time.
+	private static final int CHURN_KEPT = 256;			// Live at once, so some survive to be collected late.
+	private static final int IO_BYTES = 1024 * 1024;	// Written and read back at a time.
+	
+	private final int kinds;
+	private final File directory;
+	private final List<Thread> threads = new ArrayList<Thread>();
+	private volatile boolean stopping;
+	private volatile long sink;		// So the spinning isn't optimized away.
+	
+	/* kinds is some of CPU, GC and IO.  IO works in a scratch file in directory. */
+	SyntheticLoad(int kinds, File directory) {
+		this.kinds = kinds;
+		this.directory = directory;
+	}
+	
+	/* The kinds named in a list like "cpu,gc,io", or "all", or "none". */
+	static int parseKinds(String list) {
+		int kinds = 0;
+		for (String name : list.split(",")) {
+			name = name.trim();
+			if (name.equals("cpu")) kinds |= CPU;
+			else if (name.equals("gc")) kinds |= GC;
+			else if (name.equals("io")) kinds |= IO;
+			else if (name.equals("all")) kinds |= ALL;
+			else if (!name.equals("none") && name.length() > 0) 
+				throw new IllegalArgumentException("Unknown load: " + name);
+		}
+		return kinds;
+	}
+	
+	static String kindsName(int kinds) {
+		if (kinds == 0) return "none";
+		StringBuilder sb = new StringBuilder();
+		if ((kinds & CPU) != 0) sb.append("cpu,");
+		if ((kinds & GC) != 0) sb.append("gc,");
+		if ((kinds & IO) != 0) sb.append("io,");
+		return sb.substring(0, sb.length() - 1);
+	}
+	
+	public synchronized void start() {
+		if (!threads.isEmpty()) return;
+		stopping = false;
+		if ((kinds & CPU) != 0) {
+			add(new Thread("Load CPU") {
+				@Override
+				public void run() {
+					long x = 1;
+					while (!stopping) {
+						for (int i = 0; i < 100000; i++) x = x * 6364136223846793005L + 1442695040888963407L;
+						sink = x;
+					}
+				}
+			});
+		}
+		if ((kinds & GC) != 0) {
+			add(new Thread("Load GC") {
+				@Override
+				public void run() {
+					byte[][] kept = new byte[CHURN_KEPT][];
+					int next = 0;
+					while (!stopping) {
+						kept[next] = new byte[CHURN_BYTES];
+						next = (next + 1) % CHURN_KEPT;
+					}
+				}
+			});
+		}
+		if ((kinds & IO) != 0) {
+			add(new Thread("Load IO") {
+				@Override
+				public void run() {
+					File file = new File(directory, "load.tmp");
+					try {
+						byte[] block = new byte[IO_BYTES];
+						while (!stopping) {
+							FileOutputStream out = new FileOutputStream(file);
+							try {
+								out.write(block);
+								out.getFD().sync();
+							} finally {
+								out.close();
+							}
+							FileInputStream in = new FileInputStream(file);
+							try {
+								while (in.read(block) > 0) sink++;
+							} finally {
+								in.close();
+							}
+						}
+					} catch (IOException e) {
+						sink = -1;		// Then there's no I/O load; the others go on.
+					} finally {
+						file.delete();
+					}
+				}
+			});
+		}
+	}
+	
+	private void add(Thread thread) {
+		thread.setDaemon(true);
+		threads.add(thread);
+		thread.start();
+	}
+	
+	/* Stop the load, and wait for it to be gone. */
+	public synchronized void stop() {
+		stopping = true;
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		threads.clear();
+	}
+	
+	@Override
+	public String toString() {
+		return kindsName(kinds);
+	}
+}
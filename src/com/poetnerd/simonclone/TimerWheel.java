@@ -0,0 +1,225 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * TimerWheel
+ * 
+ * Timers for many games at once, to the millisecond, where scheduling, moving and
+ * cancelling a timer each take the same few steps however many are pending.  A game
+ * moves its three second timeout on every press and release, so with thousands of
+ * games in one process a heap, or a Handler's queue, spends its time reordering.
+ * 
+ * The wheel is LEVELS rings of SLOTS slots.  A slot in the first ring is one millisecond,
+ * in the second SLOTS of them, and so on up; a timer hangs in the ring that its time to
+ * go falls within, in the slot its deadline falls in.  Each time the first ring comes
+ * round, the next slot of the second is emptied down into the first, and so on up the
+ * rings.  A slot is a doubly linked list, so a timer comes out in one step wherever it
+ * is.  A bit for each slot, set while it holds timers, lets advance() skip the empty
+ * milliseconds and nextDue() find the next one due without looking at any timer.
+ * 
+ * Timers are made once and used over and over:  Scheduling one that's pending moves it.
+ * Deadlines further off than the top ring reaches wait at its far end, and are
+ * hung again, further down, as it comes round.
+ * 
+ * Not thread safe.  All of it belongs to whichever thread calls advance().
+ */
+public final class TimerWheel {
+	
+	static final long NOT_PENDING = -1;
+	
+	private static final int SLOT_BITS = 6;
+	private static final int SLOTS = 1 << SLOT_BITS;		// 64:  A ring's bitmap is one long.
+	private static final int MASK = SLOTS - 1;
+	private static final int LEVELS = 4;
+	static final long SPAN = 1L << (SLOT_BITS * LEVELS);	// About four and a half hours.
+	
+	/*
+	 * Timer
+	 * 
+	 * One pending event for a Scheduler.Target.  While it's pending it's linked into its slot.
+	 */
+	public static final class Timer {
+		final Scheduler.Target target;
+		final int what;
+		long deadline = NOT_PENDING;
+		int slot = -1;			// level * SLOTS + index, while pending.
+		Timer previous;
+		Timer next;
+		
+		public Timer(Scheduler.Target target, int what) {
+			this.target = target;
+			this.what = what;
+		}
+		
+		public boolean isPending() {
+			return slot >= 0;
+		}
+		
+		/* When it's due, in the wheel's Clock's milliseconds, or NOT_PENDING. */
+		public long getDeadline() {
+			return deadline;
+		}
+	}
+	
+	private final Clock clock;
+	private final Timer[] slots = new Timer[LEVELS * SLOTS];		// Each a list head, never itself pending.
+	private final long[] occupied = new long[LEVELS];
+	private long current;		// The millisecond advance() got up to.  Nothing pending is due before it.
+	private long cascaded = -1;	// The last turn of the first ring we emptied the rings above into.
+	private int size;
+	
+	public TimerWheel(Clock clock) {
+		this.clock = clock;
+		for (int i = 0; i < slots.length; i++) {
+			Timer head = new Timer(null, -1);
+			head.previous = head;
+			head.next = head;
+			slots[i] = head;
+		}
+		current = clock.uptimeMillis();
+	}
+	
+	public Clock getClock() {
+		return clock;
+	}
+	
+	/* How many timers are pending. */
+	public int size() {
+		return size;
+	}
+	
+	/* Have timer go off delayMillis from now, moving it if it's already pending. */
+	public void schedule(Timer timer, long delayMillis) {
+		if (timer.slot >= 0) unlink(timer);
+		else size++;
+		timer.deadline = Math.max(clock.uptimeMillis() + delayMillis, current);
+		hang(timer);
+	}
+	
+	public void cancel(Timer timer) {
+		if (timer.slot < 0) return;
+		unlink(timer);
+		timer.deadline = NOT_PENDING;
+		size--;
+	}
+	
+	/*
+	 * advance
+	 * 
+	 * Fire every timer due up to now by the clock, earliest first, and return how many
+	 * fired.  A timer fired can schedule itself, or any other, again.
+	 */
+	public int advance() {
+		long now = clock.uptimeMillis();
+		int fired = 0;
+		while (true) {
+			int index = (int) current & MASK;
+			if (index == 0 && cascaded != current) {	// Once a turn:  What comes down is all due this turn.
+				cascaded = current;
+				cascade(1);
+			}
+			fired += fire(index);
+			if (current >= now) break;		// We stay on now, so a timer set for it still goes off.
+			
+			/* On to the next occupied millisecond in this turn of the first ring,
+			 * or the start of its next turn, where the rings above may have some. */
+			long ahead = index == MASK ? 0 : occupied[0] >>> (index + 1);
+			long step = ahead == 0 ? SLOTS - index : Long.numberOfTrailingZeros(ahead) + 1;
+			current = Math.min(current + step, now);
+		}
+		return fired;
+	}
+	
+	/*
+	 * nextDue
+	 * 
+	 * When advance() next has work to do, or NOT_PENDING if there are no timers.  This
+	 * is exact for a timer in the first ring; for one further off, it's when its slot comes
+	 * down a ring, which is soon enough to sleep until.
+	 */
+	public long nextDue() {
+		if (size == 0) return NOT_PENDING;
+		long next = Long.MAX_VALUE;
+		for (int level = 0; level < LEVELS; level++) {
+			if (occupied[level] == 0) continue;
+			int shift = SLOT_BITS * level;
+			long turn = current >> shift;		// Which slot of this ring is now.
+			int index = (int) turn & MASK;
+			/* Rotate so the slot for now is bit 0.  Only the first ring can hold a
+			 * timer for the slot it's at; above it, that slot's timers are a whole turn off. */
+			long ahead = Long.rotateRight(occupied[level], index);
+			if (level > 0) ahead &= ~1L;
+			int distance = ahead == 0 ? SLOTS : Long.numberOfTrailingZeros(ahead);
+			long due = level == 0 ? current + distance : (turn + distance) << shift;
+			if (due < next) next = due;
+		}
+		return next;
+	}
+	
+	/* Put a timer in the slot for its deadline, in the lowest ring that reaches it. */
+	private void hang(Timer timer) {
+		long deadline = timer.deadline;
+		long delta = deadline - current;
+		if (delta >= SPAN) deadline = current + SPAN - 1;		// Wait at the far end of the top ring.
+		int level = 0;
+		while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) level++;
+		int index = (int) (deadline >> (SLOT_BITS * level)) & MASK;
+		int slot = level * SLOTS + index;
+		
+		Timer head = slots[slot];
+		timer.previous = head.previous;
+		timer.next = head;
+		head.previous.next = timer;
+		head.previous = timer;
+		timer.slot = slot;
+		occupied[level] |= 1L << index;
+	}
+	
+	private void unlink(Timer timer) {
+		timer.previous.next = timer.next;
+		timer.next.previous = timer.previous;
+		Timer head = slots[timer.slot];
+		if (head.next == head) occupied[timer.slot / SLOTS] &= ~(1L << (timer.slot & MASK));
+		timer.previous = null;
+		timer.next = null;
+		timer.slot = -1;
+	}
+	
+	/* Hang again, lower down, the timers in the slot of level that's now come round. */
+	private void cascade(int level) {
+		if (level >= LEVELS) return;
+		int index = (int) (current >> (SLOT_BITS * level)) & MASK;
+		if (index == 0) cascade(level + 1);		// Rings above first, so their timers fall through this one.
+		Timer head = slots[level * SLOTS + index];
+		while (head.next != head) {
+			Timer timer = head.next;
+			unlink(timer);
+			hang(timer);
+		}
+	}
+	
+	/* Fire the timers in the first ring's slot at index, each now due. */
+	private int fire(int index) {
+		Timer head = slots[index];
+		int fired = 0;
+		while (head.next != head) {
+			Timer timer = head.next;
+			unlink(timer);
+			timer.deadline = NOT_PENDING;
+			size--;
+			fired++;
+			timer.target.onEvent(timer.what);
+		}
+		return fired;
+	}
+}
@@ -0,0 +1,95 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import android.os.Handler;
+import android.os.Message;
+import android.os.SystemClock;
+
+/*
+ * TimingCalibrator
+ * 
+ * Measures what this device does to our timing, for a DeviceTiming.
+ * 
+ * The tick lead:  We ask the main thread's Handler for SAMPLES wakeups, one at a time,
+ * at the delays the game's steps mostly use, and note how late each one comes.  The
+ * histogram shows the Handler's granularity, if it has one; the median is how much
+ * early the engine should ask.  It takes a couple of seconds, after a second for the
+ * launch to settle.
+ * 
+ * The sound lead:  The audio sinks already note how long each sound takes to start --
+ * for the AudioTrack, from play() until the track's own playback position says its first
+ * sample has gone out.  Once a game or so has played, the median of those will do.
+ */
+final class TimingCalibrator extends Handler {
+	
+	static final int SAMPLES = 40;
+	static final int SOUND_SAMPLES = 32;
+	static final long MAX_TICK_LEAD = 20;
+	
+	private static final long SETTLE_MILLIS = 1000;
+	private static final long[] DELAYS = { 20, 50, 70, 100 };	// The winning tone's, the gaps, the razz's.
+	private static final int SAMPLE = 0;
+	
+	private final Histogram lateness = new Histogram();		// Microseconds.
+	private final Runnable whenDone;
+	private int sample;
+	private long dueNanos;
+	
+	/* whenDone runs on the main thread when the ticks have been measured. */
+	TimingCalibrator(Runnable whenDone) {
+		this.whenDone = whenDone;
+	}
+	
+	void start() {
+		lateness.reset();
+		sample = 0;
+		send(SETTLE_MILLIS);
+	}
+	
+	void cancel() {
+		removeMessages(SAMPLE);
+	}
+	
+	private void send(long delay) {
+		long due = SystemClock.uptimeMillis() + delay;
+		dueNanos = due * 1000000L;		// nanoTime() runs on the same clock as uptimeMillis().
+		sendEmptyMessageAtTime(SAMPLE, due);
+	}
+	
+	@Override
+	public void handleMessage(Message msg) {
+		long late = System.nanoTime() - dueNanos;
+		if (sample > 0) lateness.record(Math.max(0, late) / 1000);		// The first was just to settle.
+		if (sample++ < SAMPLES) send(DELAYS[sample % DELAYS.length]);
+		else whenDone.run();
+	}
+	
+	/* How much early to ask to be woken, ms. */
+	long getTickLead() {
+		return Math.min(MAX_TICK_LEAD, lateness.getPercentile(50) / 1000);
+	}
+	
+	String report() {
+		return "Handler lateness, ms: " + lateness.summary(1000);
+	}
+	
+	/* The sound lead from the start latencies an AudioSink has noted, in microseconds, or
+	 * -1 if there aren't enough yet.  Only a sink that sees its sound leave, as the
+	 * AudioTrack one does, notes latencies that mean anything here. */
+	static long soundLead(Histogram startLatency) {
+		synchronized (startLatency) {
+			if (startLatency.getCount() < SOUND_SAMPLES) return -1;
+			return Math.min(DeviceTiming.MAX_SOUND_LEAD, startLatency.getPercentile(50) / 1000);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * TimingProfile
+ * 
+ * The waits in the rules that are ours to choose, for each level:
+ * 
+ *   timeout    how long the player has to press the next button before they lose.
+ *   pause      after the player repeats a sequence, the wait before Simon plays the next.
+ *   win pause  after the last step of a win, the wait before the victory tune.
+ * 
+ * ORIGINAL is the game as it has always been:  3000, 800 and 800 ms at every level.
+ * A pause must be shorter than the timeout at its level.
+ * Profiles can't change, so one can be shared by any number of engines and threads.
+ * The text form, for properties and logs, is "3000/800/800" for every level alike, or
+ * levels one by one, "1:4000/1000/800,2:3000/800/800,...".
+ */
+public final class TimingProfile {
+	
+	private static final int LEVELS = SimonEngine.ENDLESS_LEVEL;
+	
+	public static final TimingProfile ORIGINAL = new TimingProfile(SimonEngine.TIMEOUT_MILLIS, 800, 800);
+	
+	private final long[] timeouts = new long[LEVELS];
+	private final long[] pauses = new long[LEVELS];
+	private final long[] winPauses = new long[LEVELS];
+	
+	/* The same at every level. */
+	public TimingProfile(long timeout, long pause, long winPause) {
+		check(timeout, pause);
+		for (int i = 0; i < LEVELS; i++) {
+			timeouts[i] = timeout;
+			pauses[i] = pause;
+			winPauses[i] = winPause;
+		}
+	}
+	
+	private TimingProfile(TimingProfile other) {
+		System.arraycopy(other.timeouts, 0, timeouts, 0, LEVELS);
+		System.arraycopy(other.pauses, 0, pauses, 0, LEVELS);
+		System.arraycopy(other.winPauses, 0, winPauses, 0, LEVELS);
+	}
+	
+	/* This profile, but with other waits at level. */
+	public TimingProfile withLevel(int level, long timeout, long pause, long winPause) {
+		check(timeout, pause);
+		TimingProfile profile = new TimingProfile(this);
+		int i = index(level);
+		profile.timeouts[i] = timeout;
+		profile.pauses[i] = pause;
+		profile.winPauses[i] = winPause;
+		return profile;
+	}
+	
+	public long getTimeout(int level) {
+		return timeouts[index(level)];
+	}
+	
+	public long getPause(int level) {
+		return pauses[index(level)];
+	}
+	
+	public long getWinPause(int level) {
+		return winPauses[index(level)];
+	}
+	
+	private static void check(long timeout, long pause) {
+		if (pause >= timeout) {
+			throw new IllegalArgumentException("Pause " + pause + " ms isn't shorter than timeout " + timeout + " ms");
+		}
+	}
+	
+	private static int index(int level) {
+		if (level < 1) return 0;
+		return level > LEVELS ? LEVELS - 1 : level - 1;
+	}
+	
+	public static TimingProfile parse(String text) {
+		try {
+			if (text.indexOf(':') < 0) {
+				long[] waits = parseWaits(text);
+				return new TimingProfile(waits[0], waits[1], waits[2]);
+			}
+			TimingProfile profile = ORIGINAL;
+			for (String part : text.split(",")) {
+				int colon = part.indexOf(':');
+				long[] waits = parseWaits(part.substring(colon + 1));
+				profile = profile.withLevel(Integer.parseInt(part.substring(0, colon).trim()), waits[0], waits[1], waits[2]);
+			}
+			return profile;
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("Not a timing profile: " + text);
+		}
+	}
+	
+	private static long[] parseWaits(String text) {
+		String[] parts = text.trim().split("/");
+		if (parts.length != 3) throw new IllegalArgumentException(text);
+		return new long[] { Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]) };
+	}
+	
+	@Override
+	public String toString() {
+		boolean same = true;
+		for (int i = 1; i < LEVELS; i++) {
+			same &= timeouts[i] == timeouts[0] && pauses[i] == pauses[0] && winPauses[i] == winPauses[0];
+		}
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < (same ? 1 : LEVELS); i++) {
+			if (!same) sb.append(i > 0 ? "," : "").append(i + 1).append(':');
+			sb.append(timeouts[i]).append('/').append(pauses[i]).append('/').append(winPauses[i]);
+		}
+		return sb.toString();
+	}
+}
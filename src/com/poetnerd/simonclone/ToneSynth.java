@@ -0,0 +1,220 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * ToneSynth
+ * 
+ * The game's sounds made from scratch, one 16 bit mono sample at a time, instead of from
+ * recordings.  The colors are the square waves of the original game's speaker, at its
+ * pitches; the lose buzz is its 42 Hz razz; victory and the special razz are short tunes
+ * built from the same tones.
+ * 
+ * The engine asks for sounds with play() and stop() from its thread; the audio thread
+ * fills buffers with render().  A request is one volatile word, so neither side waits on
+ * the other.  The audio thread picks requests up at the start of each render(), which
+ * bounds how late a sound can start by the buffer size.
+ * 
+ * Sounds start and stop with a few milliseconds' ramp, so there's no click, and one sound
+ * replacing another ramps the first down before the second comes up.  The square waves are
+ * band limited by PolyBLEP so the high harmonics don't fold back as hiss.
+ */
+public final class ToneSynth {
+	
+	/* The original game's pitches, in Hz. */
+	private static final float GREEN_HZ = 415f;
+	private static final float RED_HZ = 310f;
+	private static final float YELLOW_HZ = 252f;
+	private static final float BLUE_HZ = 209f;
+	private static final float RAZZ_HZ = 42f;
+	
+	private static final float VOLUME = 0.5f * Short.MAX_VALUE;
+	private static final int RAMP_MILLIS = 3;
+	
+	/*
+	 * Each sound is a tune of steps: a pitch, and how many milliseconds it lasts.
+	 * A step of 0 ms lasts until stop().  After the last step the sound ends by itself.
+	 */
+	private static final float[][] PITCHES = new float[AudioSink.SOUND_COUNT][];
+	private static final int[][] MILLIS = new int[AudioSink.SOUND_COUNT][];
+	static {
+		tune(AudioSink.GREEN, new float[] { GREEN_HZ }, new int[] { 0 });
+		tune(AudioSink.RED, new float[] { RED_HZ }, new int[] { 0 });
+		tune(AudioSink.YELLOW, new float[] { YELLOW_HZ }, new int[] { 0 });
+		tune(AudioSink.BLUE, new float[] { BLUE_HZ }, new int[] { 0 });
+		tune(AudioSink.LOSE_SOUND, new float[] { RAZZ_HZ }, new int[] { 1500 });
+		tune(AudioSink.VICTORY_SOUND,
+				new float[] { BLUE_HZ, YELLOW_HZ, RED_HZ, GREEN_HZ, RED_HZ, GREEN_HZ },
+				new int[] { 70, 70, 70, 70, 70, 420 });
+		tune(AudioSink.SPECIAL_RAZZ,
+				new float[] { GREEN_HZ, RED_HZ, YELLOW_HZ, BLUE_HZ, GREEN_HZ, RED_HZ, YELLOW_HZ, BLUE_HZ, RAZZ_HZ },
+				new int[] { 50, 50, 50, 50, 50, 50, 50, 50, 800 });
+	}
+	
+	private static void tune(int sound, float[] pitches, int[] millis) {
+		PITCHES[sound] = pitches;
+		MILLIS[sound] = millis;
+	}
+	
+	/* Requests: a count in the high bits so a repeat is seen, and the sound in the low byte. */
+	private static final int STOP = 0xff;
+	private volatile int request = STOP;
+	private volatile long requestNanos;
+	
+	private final int sampleRate;
+	private final int rampFrames;
+	
+	// Audio thread only from here on.
+	
+	private int appliedRequest = STOP;
+	private int sound = -1;			// What we're playing, or -1.
+	private int next = -1;			// What to play once the ramp down is done, or -1.
+	private long nextNanos;
+	private int step;
+	private int stepFramesLeft;		// 0 to hold the step.
+	private float phase;
+	private float phaseStep;
+	private float level;			// Of the ramp, 0 to 1.
+	private float levelStep;		// Per frame; negative going down.
+	
+	private long startedNanos = -1;
+	private int startedFrame;
+	
+	public ToneSynth(int sampleRate) {
+		this.sampleRate = sampleRate;
+		this.rampFrames = Math.max(1, sampleRate * RAMP_MILLIS / 1000);
+	}
+	
+	public int getSampleRate() {
+		return sampleRate;
+	}
+	
+	/* Any thread.  Start sound, cutting off whatever's playing. */
+	public void play(int sound, long nowNanos) {
+		if (sound < 0 || sound >= AudioSink.SOUND_COUNT) return;
+		requestNanos = nowNanos;
+		request = ((request + 0x100) & ~0xff) | sound;
+	}
+	
+	/* Any thread. */
+	public void stop() {
+		request = ((request + 0x100) & ~0xff) | STOP;
+	}
+	
+	/* Whether there's a request render() hasn't seen yet. */
+	public boolean hasRequest() {
+		return request != appliedRequest;
+	}
+	
+	/* Nothing playing and nothing asked for: the output would be silence. */
+	public boolean isIdle() {
+		return sound < 0 && next < 0 && !hasRequest();
+	}
+	
+	/*
+	 * render
+	 * 
+	 * Fill frames samples of out from offset.  Audio thread only.
+	 */
+	public void render(short[] out, int offset, int frames) {
+		startedNanos = -1;
+		int latest = request;
+		if (latest != appliedRequest) {
+			appliedRequest = latest;
+			int asked = latest & 0xff;
+			next = asked == STOP ? -1 : asked;
+			nextNanos = requestNanos;
+			levelStep = -1f / rampFrames;		// Whatever's playing ramps down first.
+		}
+		
+		for (int i = 0; i < frames; i++) {
+			if (sound < 0 || (levelStep < 0 && level <= 0)) {
+				if (next >= 0) {
+					begin(next, i);
+					next = -1;
+				} else {
+					sound = -1;
+					level = 0;
+					out[offset + i] = 0;
+					continue;
+				}
+			}
+			
+			if (stepFramesLeft > 0 && --stepFramesLeft == 0) {
+				if (step + 1 < PITCHES[sound].length) {
+					beginStep(step + 1);
+				} else {
+					levelStep = -1f / rampFrames;	// The tune's over.
+				}
+			}
+			
+			level += levelStep;
+			if (level >= 1) {
+				level = 1;
+				levelStep = 0;
+			} else if (level < 0) {
+				level = 0;
+			}
+			
+			out[offset + i] = (short) (square(phase, phaseStep) * level * VOLUME);
+			phase += phaseStep;
+			if (phase >= 1) phase -= 1;
+		}
+	}
+	
+	/* If a sound began in the last render(): when it was asked for, and the frame it began
+	 * at.  Otherwise -1. */
+	public long getStartedNanos() {
+		return startedNanos;
+	}
+	
+	public int getStartedFrame() {
+		return startedFrame;
+	}
+	
+	private void begin(int sound, int frame) {
+		this.sound = sound;
+		phase = 0;
+		level = 0;
+		levelStep = 1f / rampFrames;
+		beginStep(0);
+		startedNanos = nextNanos;
+		startedFrame = frame;
+	}
+	
+	private void beginStep(int step) {
+		this.step = step;
+		phaseStep = PITCHES[sound][step] / sampleRate;
+		stepFramesLeft = (int) ((long) MILLIS[sound][step] * sampleRate / 1000);
+	}
+	
+	/* A square wave, -1 to 1, with its edges smoothed by PolyBLEP. */
+	private static float square(float phase, float phaseStep) {
+		float value = phase < 0.5f ? 1f : -1f;
+		value += polyBlep(phase, phaseStep);
+		float half = phase + 0.5f;
+		if (half >= 1) half -= 1;
+		value -= polyBlep(half, phaseStep);
+		return value;
+	}
+	
+	private static float polyBlep(float t, float dt) {
+		if (t < dt) {
+			t /= dt;
+			return t + t - t * t - 1;
+		} else if (t > 1 - dt) {
+			t = (t - 1) / dt;
+			return t * t + t + t + 1;
+		}
+		return 0;
+	}
+}
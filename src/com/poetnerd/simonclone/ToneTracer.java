@@ -0,0 +1,200 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * ToneTracer
+ * 
+ * Measures how closely our lights and sounds keep to the original game.  According to
+ * Simon Inns, a sequence is played with beeps of .42, .32 or .22 seconds (depending on
+ * its length) and .05 seconds between them.  For every light and sound we note when it
+ * was scheduled, when the engine actually did it, and when ButtonGridView actually drew
+ * it, all on the monotonic nanoTime() clock.
+ * 
+ * From those we keep histograms, in microseconds, for the session:
+ * 
+ *   dispatch lateness   actual minus scheduled, for lights and sounds alike
+ *   render latency      drawn minus dispatched
+ *   beep error          how far a played-back light stayed on, minus the original beep
+ *   gap error           how long between played-back lights, minus the original .05 s
+ * 
+ * beep and gap errors are kept both as the engine did them and as they were drawn.
+ * The last RECORDS events are also kept in the raw, for a closer look.
+ * 
+ * The engine reports on the main thread; the board reports from the main thread or from
+ * its render thread, so everything that touches the records is synchronized.
+ */
+public final class ToneTracer extends EngineProbe {
+	
+	private static final long GAP_NANOS = 50 * 1000000L;	// Between tones in the original game.
+	private static final long MAX_GAP_NANOS = 1000 * 1000000L;	// Longer is a new sequence, not a gap.
+	private static final int RECORDS = 256;
+	
+	/* Kinds of raw records. */
+	private static final int LIGHT_ON = 0;
+	private static final int LIGHT_OFF = 1;
+	private static final int SOUND = 2;
+	
+	private final SimonEngine engine;
+	
+	private final Histogram dispatchLateness = new Histogram();
+	private final Histogram renderLatency = new Histogram();
+	private final Histogram beepError = new Histogram();
+	private final Histogram gapError = new Histogram();
+	private final Histogram renderedBeepError = new Histogram();
+	private final Histogram renderedGapError = new Histogram();
+	
+	/* What we know about each button's light, as dispatched and as drawn. */
+	private final int[] lastRecord = new int[SimonEngine.TOTAL_BUTTONS];
+	private final boolean[] playedBack = new boolean[SimonEngine.TOTAL_BUTTONS];
+	private final long[] specBeepNanos = new long[SimonEngine.TOTAL_BUTTONS];
+	private final long[] dispatchedOn = new long[SimonEngine.TOTAL_BUTTONS];
+	private final long[] renderedOn = new long[SimonEngine.TOTAL_BUTTONS];
+	private long lastDispatchedOff = -1;
+	private long lastRenderedOff = -1;
+	
+	/* The raw records, in a ring. */
+	private final int[] kind = new int[RECORDS];
+	private final int[] index = new int[RECORDS];
+	private final long[] scheduled = new long[RECORDS];
+	private final long[] dispatched = new long[RECORDS];
+	private final long[] rendered = new long[RECORDS];
+	private long recordCount;
+	
+	public ToneTracer(SimonEngine engine) {
+		this.engine = engine;
+		for (int i = 0; i < lastRecord.length; i++) lastRecord[i] = -1;
+	}
+	
+	@Override
+	public synchronized void onLight(int button, boolean on, long scheduledNanos, long actualNanos) {
+		dispatchLateness.record((actualNanos - scheduledNanos) / 1000);
+		int record = addRecord(on ? LIGHT_ON : LIGHT_OFF, button, scheduledNanos, actualNanos);
+		if (button >= lastRecord.length) return;
+		lastRecord[button] = record;
+		
+		boolean playback = engine.isPlayingBack();
+		if (on) {
+			playedBack[button] = playback;
+			specBeepNanos[button] = engine.getSpecBeepDuration() * 1000000L;
+			dispatchedOn[button] = actualNanos;
+			if (playback) recordGap(gapError, lastDispatchedOff, actualNanos);
+			else lastDispatchedOff = -1;
+		} else if (playedBack[button] && playback) {
+			beepError.record((actualNanos - dispatchedOn[button] - specBeepNanos[button]) / 1000);
+			lastDispatchedOff = actualNanos;
+		} else {
+			lastDispatchedOff = -1;
+		}
+	}
+	
+	@Override
+	public synchronized void onSound(int sound, long scheduledNanos, long actualNanos) {
+		dispatchLateness.record((actualNanos - scheduledNanos) / 1000);
+		addRecord(SOUND, sound, scheduledNanos, actualNanos);
+	}
+	
+	/*
+	 * onRendered
+	 * 
+	 * Called by the view when it has drawn a button in a new state.
+	 */
+	public synchronized void onRendered(int button, boolean on, long renderedNanos) {
+		if (button >= lastRecord.length) return;
+		int record = lastRecord[button];
+		if (record >= 0 && rendered[record] == 0 && kind[record] == (on ? LIGHT_ON : LIGHT_OFF)) {
+			rendered[record] = renderedNanos;
+			renderLatency.record((renderedNanos - dispatched[record]) / 1000);
+		}
+		if (on) {
+			renderedOn[button] = renderedNanos;
+			if (playedBack[button]) recordGap(renderedGapError, lastRenderedOff, renderedNanos);
+			else lastRenderedOff = -1;
+		} else if (playedBack[button] && renderedOn[button] != 0) {
+			renderedBeepError.record((renderedNanos - renderedOn[button] - specBeepNanos[button]) / 1000);
+			lastRenderedOff = renderedNanos;
+		}
+	}
+	
+	private void recordGap(Histogram histogram, long lastOff, long on) {
+		if (lastOff < 0) return;
+		long gap = on - lastOff;
+		if (gap < MAX_GAP_NANOS) histogram.record((gap - GAP_NANOS) / 1000);
+	}
+	
+	private int addRecord(int what, int which, long scheduledNanos, long actualNanos) {
+		int record = (int) (recordCount++ % RECORDS);
+		kind[record] = what;
+		index[record] = which;
+		scheduled[record] = scheduledNanos;
+		dispatched[record] = actualNanos;
+		rendered[record] = 0;
+		return record;
+	}
+	
+	/* Start a new session. */
+	public synchronized void reset() {
+		dispatchLateness.reset();
+		renderLatency.reset();
+		beepError.reset();
+		gapError.reset();
+		renderedBeepError.reset();
+		renderedGapError.reset();
+		for (int i = 0; i < lastRecord.length; i++) {
+			lastRecord[i] = -1;
+			playedBack[i] = false;
+			renderedOn[i] = 0;
+		}
+		lastDispatchedOff = -1;
+		lastRenderedOff = -1;
+		recordCount = 0;
+	}
+	
+	public Histogram getBeepError() {
+		return beepError;
+	}
+	
+	public Histogram getGapError() {
+		return gapError;
+	}
+	
+	/* The session's histograms, in milliseconds. */
+	public synchronized String report() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Tone timing, ms (spec 420/320/220 beeps, 50 gaps):\n");
+		sb.append("  dispatch lateness: ").append(dispatchLateness.summary(1000)).append('\n');
+		sb.append("  render latency:    ").append(renderLatency.summary(1000)).append('\n');
+		sb.append("  beep error:        ").append(beepError.summary(1000)).append('\n');
+		sb.append("  gap error:         ").append(gapError.summary(1000)).append('\n');
+		sb.append("  drawn beep error:  ").append(renderedBeepError.summary(1000)).append('\n');
+		sb.append("  drawn gap error:   ").append(renderedGapError.summary(1000)).append('\n');
+		return sb.toString();
+	}
+	
+	/* The raw records, oldest first: kind, index, then scheduled, dispatched and drawn
+	 * in microseconds after the first record. */
+	public synchronized String dumpRecords() {
+		StringBuilder sb = new StringBuilder();
+		long first = recordCount > RECORDS ? recordCount - RECORDS : 0;
+		long base = -1;
+		for (long n = first; n < recordCount; n++) {
+			int r = (int) (n % RECORDS);
+			if (base < 0) base = scheduled[r];
+			sb.append(kind[r] == LIGHT_ON ? "on " : kind[r] == LIGHT_OFF ? "off " : "sound ");
+			sb.append(index[r]).append(' ');
+			sb.append((scheduled[r] - base) / 1000).append(' ');
+			sb.append((dispatched[r] - base) / 1000).append(' ');
+			sb.append(rendered[r] == 0 ? "-" : String.valueOf((rendered[r] - base) / 1000)).append('\n');
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,118 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * TouchLatency
+ * 
+ * How long from a finger coming down on a button to Simon answering it, in microseconds:
+ * 
+ *   delivery   from the touch to our handling it, as the system timestamped the event
+ *   sound      from the touch to the engine starting the sound
+ *   light      from the touch to the engine turning the light on
+ *   drawn      from the touch to the board drawing the light
+ * 
+ * The touch pipeline tells us of each press with touched(), just before handing it to the
+ * engine; the engine then tells us of the sound and light, and the board of the drawing.
+ * The board may draw on its own thread, so everything here is synchronized.
+ */
+public final class TouchLatency extends EngineProbe {
+	
+	private static final int BUTTONS = AudioSink.BLUE + 1;
+	
+	private final Histogram delivery = new Histogram();
+	private final Histogram sound = new Histogram();
+	private final Histogram light = new Histogram();
+	private final Histogram drawn = new Histogram();
+	
+	/* The touch still waiting for its sound, and for each button the touch still waiting
+	 * to be lit and to be drawn; 0 when none is. */
+	private long soundPending;
+	private final long[] lightPending = new long[BUTTONS];
+	private final long[] drawPending = new long[BUTTONS];
+	
+	/*
+	 * touched
+	 * 
+	 * A finger has come down on button at touchNanos, and it is now handledNanos, both
+	 * on System.nanoTime().
+	 */
+	public synchronized void touched(int button, long touchNanos, long handledNanos) {
+		delivery.record((handledNanos - touchNanos) / 1000);
+		soundPending = touchNanos;
+		if (button >= 0 && button < BUTTONS) {
+			lightPending[button] = touchNanos;
+			drawPending[button] = touchNanos;
+		}
+	}
+	
+	@Override
+	public synchronized void onSound(int sound, long scheduledNanos, long actualNanos) {
+		if (soundPending == 0) return;
+		this.sound.record((actualNanos - soundPending) / 1000);		// Right or wrong, the answer is a sound.
+		soundPending = 0;
+	}
+	
+	@Override
+	public synchronized void onLight(int button, boolean on, long scheduledNanos, long actualNanos) {
+		if (!on || button < 0 || button >= BUTTONS || lightPending[button] == 0) return;
+		light.record((actualNanos - lightPending[button]) / 1000);
+		lightPending[button] = 0;
+	}
+	
+	/* Called by the board when it has drawn a button in a new state. */
+	public synchronized void onRendered(int button, boolean on, long renderedNanos) {
+		if (!on || button < 0 || button >= BUTTONS || drawPending[button] == 0) return;
+		drawn.record((renderedNanos - drawPending[button]) / 1000);
+		drawPending[button] = 0;
+	}
+	
+	/* A press that went unanswered -- a wrong button, or one outside the game -- isn't
+	 * held against the next sound or light. */
+	public synchronized void released(int button) {
+		soundPending = 0;
+		if (button < 0 || button >= BUTTONS || lightPending[button] == 0) return;
+		lightPending[button] = 0;
+		drawPending[button] = 0;
+	}
+	
+	public synchronized void reset() {
+		delivery.reset();
+		sound.reset();
+		light.reset();
+		drawn.reset();
+		soundPending = 0;
+		for (int i = 0; i < BUTTONS; i++) {
+			lightPending[i] = 0;
+			drawPending[i] = 0;
+		}
+	}
+	
+	public Histogram getSound() {
+		return sound;
+	}
+	
+	public Histogram getDrawn() {
+		return drawn;
+	}
+	
+	/* The session's histograms, in milliseconds. */
+	public synchronized String report() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Touch latency, ms:\n");
+		sb.append("  delivery:  ").append(delivery.summary(1000)).append('\n');
+		sb.append("  to sound:  ").append(sound.summary(1000)).append('\n');
+		sb.append("  to light:  ").append(light.summary(1000)).append('\n');
+		sb.append("  to drawn:  ").append(drawn.summary(1000)).append('\n');
+		return sb.toString();
+	}
+}
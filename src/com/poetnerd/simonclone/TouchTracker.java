@@ -0,0 +1,121 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import android.os.SystemClock;
+import android.view.MotionEvent;
+
+/*
+ * TouchTracker
+ * 
+ * Turns a board's touch events into presses and releases, however many fingers there are.
+ * 
+ * Every pointer is followed by its ID from the moment it comes down.  A finger sliding off
+ * one button and onto another releases the first and presses the second, as it would on
+ * the real thing, and the samples the system batches into a move are replayed in order, so
+ * a quick slide doesn't skip a button.  A button held by two fingers is released when the
+ * last of them lets go.
+ * 
+ * When the last finger lifts we still put out any light a press left on -- the engine
+ * ignores releases once the game is over -- but not while Simon is playing his own.
+ */
+final class TouchTracker {
+	
+	private static final int MAX_POINTERS = 32;		// IDs beyond this are ignored.
+	private static final int NO_BUTTON = -1;
+	
+	private final ButtonBoard board;
+	private final int[] pointerButton = new int[MAX_POINTERS];
+	private final int[] buttonHolders = new int[ButtonBoard.BUTTON_COUNT];
+	
+	private TouchLatency latency;
+	
+	TouchTracker(ButtonBoard board) {
+		this.board = board;
+		for (int i = 0; i < MAX_POINTERS; i++) {
+			pointerButton[i] = NO_BUTTON;
+		}
+	}
+	
+	void setTouchLatency(TouchLatency latency) {
+		this.latency = latency;
+	}
+	
+	boolean onTouchEvent(MotionEvent event, SimonEngine model) {
+		if (model == null) return false;
+		int action = event.getAction();
+		// ACTION_POINTER_ID_MASK holds the pointer index, not the ID, whatever its name.
+		int actionIndex = (action & MotionEvent.ACTION_POINTER_ID_MASK) >> MotionEvent.ACTION_POINTER_ID_SHIFT;
+		
+		switch (action & MotionEvent.ACTION_MASK) {
+		case MotionEvent.ACTION_DOWN:
+		case MotionEvent.ACTION_POINTER_DOWN:
+			moveTo(model, event.getPointerId(actionIndex),
+					board.getButtonAt(event.getX(actionIndex), event.getY(actionIndex)), event.getEventTime());
+			return true;
+			
+		case MotionEvent.ACTION_MOVE:
+			int pointers = event.getPointerCount();
+			int history = event.getHistorySize();
+			for (int h = 0; h < history; h++) {
+				long time = event.getHistoricalEventTime(h);
+				for (int p = 0; p < pointers; p++) {
+					moveTo(model, event.getPointerId(p),
+							board.getButtonAt(event.getHistoricalX(p, h), event.getHistoricalY(p, h)), time);
+				}
+			}
+			for (int p = 0; p < pointers; p++) {
+				moveTo(model, event.getPointerId(p), board.getButtonAt(event.getX(p), event.getY(p)),
+						event.getEventTime());
+			}
+			return true;
+			
+		case MotionEvent.ACTION_UP:
+		case MotionEvent.ACTION_POINTER_UP:
+			int id = event.getPointerId(actionIndex);
+			moveTo(model, id, board.getButtonAt(event.getX(actionIndex), event.getY(actionIndex)),
+					event.getEventTime());	// Where it lifted is what counts.
+			moveTo(model, id, NO_BUTTON, event.getEventTime());
+			if ((action & MotionEvent.ACTION_MASK) == MotionEvent.ACTION_UP && !model.isDrivingLights()) {
+				model.releaseAllButtons();
+			}
+			return true;
+			
+		case MotionEvent.ACTION_CANCEL:
+			for (int i = 0; i < MAX_POINTERS; i++) {
+				moveTo(model, i, NO_BUTTON, event.getEventTime());
+			}
+			return true;
+		}
+		return false;
+	}
+	
+	/* Pointer id is now over button, or over none. */
+	private void moveTo(SimonEngine model, int id, int button, long eventTime) {
+		if (id < 0 || id >= MAX_POINTERS) return;
+		int old = pointerButton[id];
+		if (old == button) return;
+		pointerButton[id] = button;
+		if (old != NO_BUTTON && --buttonHolders[old] == 0) {
+			if (latency != null) latency.released(old);
+			model.releaseButton(old);
+		}
+		if (button != NO_BUTTON && buttonHolders[button]++ == 0) {
+			if (latency != null) {
+				long now = System.nanoTime();
+				long age = SystemClock.uptimeMillis() - eventTime;		// Event times are on uptime.
+				latency.touched(button, now - age * 1000000L, now);
+			}
+			model.pressButton(button);
+		}
+	}
+}
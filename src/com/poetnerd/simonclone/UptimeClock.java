@@ -0,0 +1,32 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+import android.os.SystemClock;
+
+/*
+ * UptimeClock
+ * 
+ * The Android Clock.  Handler delays are measured against uptimeMillis(), so we
+ * measure against it too.  Unlike currentTimeMillis() it never jumps when the user
+ * or the network sets the wall clock.
+ */
+final class UptimeClock implements Clock {
+	
+	public long uptimeMillis() {
+		return SystemClock.uptimeMillis();
+	}
+	
+	public long nanoTime() {
+		return System.nanoTime();	// CLOCK_MONOTONIC, the same base as uptimeMillis().
+	}
+}
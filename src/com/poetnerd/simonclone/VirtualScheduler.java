@@ -0,0 +1,125 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * VirtualScheduler
+ * 
+ * A Clock and Scheduler whose time only passes when asked.  Handing one to a SimonEngine
+ * lets a whole game run on a plain JVM as fast as the CPU can go:  runNext() jumps the
+ * clock straight to the next pending event and delivers it.
+ * 
+ * Events due at the same moment are delivered in the order they were scheduled.
+ */
+public final class VirtualScheduler implements Clock, Scheduler {
+	
+	private final DeadlineQueue queue = new DeadlineQueue();
+	private final WakeupMeter wakeups = new WakeupMeter();
+	private long now;
+	private Target target;
+	
+	public long uptimeMillis() {
+		return now;
+	}
+	
+	public long nanoTime() {
+		return now * 1000000L;
+	}
+	
+	public void setTarget(Target target) {
+		this.target = target;
+	}
+
+	public void schedule(int what, long delayMillis) {
+		if (delayMillis < 0) delayMillis = 0;
+		queue.set(what, now + delayMillis);
+	}
+
+	public void cancel(int what) {
+		queue.clear(what);
+	}
+	
+	public boolean isPending(int what) {
+		return queue.isPending(what);
+	}
+	
+	/* True when nothing at all is waiting to happen. */
+	public boolean isIdle() {
+		return queue.isEmpty();
+	}
+	
+	/* Returns the time of the next pending event, or -1 if nothing is pending. */
+	public long nextDue() {
+		return queue.nextDue();
+	}
+	
+	public WakeupMeter getWakeupMeter() {
+		return wakeups;
+	}
+	
+	/*
+	 * runNext
+	 * 
+	 * Move the clock to the next pending event and deliver it.
+	 * Returns false if there was nothing to deliver.
+	 */
+	public boolean runNext() {
+		long next = queue.nextDue();
+		if (next == DeadlineQueue.NOT_PENDING) return false;
+		if (next > now) now = next;
+		wakeups.record(now);
+		int what = queue.poll(now);
+		if (target != null) target.onEvent(what);
+		return true;
+	}
+	
+	/*
+	 * advanceTo
+	 * 
+	 * Deliver everything due up to and including the given time, then leave the
+	 * clock there.  Used to let a simulated player "think" while the game carries on.
+	 */
+	public void advanceTo(long time) {
+		long next = queue.nextDue();
+		while (next != DeadlineQueue.NOT_PENDING && next <= time) {
+			runNext();
+			next = queue.nextDue();
+		}
+		if (time > now) now = time;
+	}
+	
+	public void advanceBy(long millis) {
+		advanceTo(now + millis);
+	}
+	
+	/* For replaying a recording, where the recording says when each event was delivered:
+	 * move the clock without delivering anything... */
+	public void setTime(long time) {
+		if (time > now) now = time;
+	}
+	
+	/* ...and deliver what now, whenever it was due.  Returns false if it wasn't pending. */
+	public boolean deliver(int what) {
+		if (!queue.isPending(what)) return false;
+		queue.clear(what);
+		wakeups.record(now);
+		if (target != null) target.onEvent(what);
+		return true;
+	}
+	
+	/* Run events until none are left.  Returns how many were run. */
+	public int runUntilIdle() {
+		int count = 0;
+		while (runNext()) count++;
+		return count;
+	}
+}
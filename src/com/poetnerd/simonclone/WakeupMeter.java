@@ -0,0 +1,61 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * WakeupMeter
+ * 
+ * Counts how often a scheduler wakes up, over the last minute and in total.
+ * A game sitting idle should read zero here:  Every wakeup costs the CPU and the battery.
+ * 
+ * Wakeups are counted into one bucket per second, and the buckets older than a minute
+ * are forgotten as time moves on.  Like the scheduler it watches, it belongs to one thread.
+ */
+public final class WakeupMeter {
+	
+	private static final int BUCKETS = 60;
+	private static final long BUCKET_MILLIS = 1000;
+	
+	private final int[] counts = new int[BUCKETS];
+	private long newestSecond;
+	private long total;
+	
+	public void record(long nowMillis) {
+		advance(nowMillis);
+		counts[(int) (newestSecond % BUCKETS)]++;
+		total++;
+	}
+	
+	/* Wakeups in the minute up to now. */
+	public int perMinute(long nowMillis) {
+		advance(nowMillis);
+		int sum = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			sum += counts[i];
+		}
+		return sum;
+	}
+	
+	public long total() {
+		return total;
+	}
+	
+	private void advance(long nowMillis) {
+		long second = nowMillis / BUCKET_MILLIS;
+		if (second <= newestSecond) return;
+		long stale = Math.min(second - newestSecond, BUCKETS);
+		for (long s = 1; s <= stale; s++) {
+			counts[(int) ((newestSecond + s) % BUCKETS)] = 0;
+		}
+		newestSecond = second;
+	}
+}
@@ -0,0 +1,60 @@
+package com.poetnerd.simonclone;
+
+/*
+ * By William D. Cattey
+ * 
+ * This work is licensed under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by-nc-sa/3.0/ 
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ * 
+ * Summary of terms: you may use this code for non-commercial purposes, and you may make changes, but you must 
+ * attribute the source, and you must share the source under these same terms.
+ */
+
+/*
+ * WheelScheduler
+ * 
+ * A Scheduler for one engine among many, its events timers on a TimerWheel shared with
+ * the rest.  Whoever owns the wheel calls advance() to deliver them.  The timers are made
+ * as each class of event is first scheduled, and reused from then on, so a game in play
+ * allocates nothing for its ticks and timeouts.
+ */
+final class WheelScheduler implements Scheduler {
+	
+	private final TimerWheel wheel;
+	private final TimerWheel.Timer[] timers = new TimerWheel.Timer[DeadlineQueue.MAX_EVENTS];
+	private Target target;
+	
+	WheelScheduler(TimerWheel wheel) {
+		this.wheel = wheel;
+	}
+	
+	public void setTarget(Target target) {
+		cancelAll();
+		for (int i = 0; i < timers.length; i++) timers[i] = null;	// They'd deliver to the old one.
+		this.target = target;
+	}
+	
+	public void schedule(int what, long delayMillis) {
+		TimerWheel.Timer timer = timers[what];
+		if (timer == null) {
+			timer = new TimerWheel.Timer(target, what);
+			timers[what] = timer;
+		}
+		wheel.schedule(timer, Math.max(0, delayMillis));
+	}
+	
+	public void cancel(int what) {
+		if (timers[what] != null) wheel.cancel(timers[what]);
+	}
+	
+	boolean isPending(int what) {
+		return timers[what] != null && timers[what].isPending();
+	}
+	
+	void cancelAll() {
+		for (TimerWheel.Timer timer : timers) {
+			if (timer != null) wheel.cancel(timer);
+		}
+	}
+}